@@ -3,6 +3,7 @@ package de.mpicbg.scf.fijiplugins.ui.labelmap;
 import fiji.util.gui.GenericDialogPlus;
 import ij.IJ;
 import ij.ImagePlus;
+import ij.Prefs;
 import ij.measure.Calibration;
 import ij.plugin.filter.PlugInFilter;
 import ij.process.ImageProcessor;
@@ -103,6 +104,7 @@ public class ConstraintLabelingPlugin implements PlugInFilter {
 		Img<FloatType> wrappedImp = ImageJFunctions.wrapReal(labelMap);
 		
 		ConstraintLabelmap<FloatType, FloatType> clm = new ConstraintLabelmap<FloatType, FloatType>(wrappedImp, voxelsize);
+		clm.setNumThreads(Prefs.getThreads());
 
 		if (applyBinaryMask)
 		{
@@ -3,11 +3,13 @@ package de.mpicbg.scf.fijiplugins.ui.labelmap;
 import fiji.util.gui.GenericDialogPlus;
 import ij.IJ;
 import ij.ImagePlus;
+import ij.Prefs;
+import ij.measure.Calibration;
 import ij.plugin.filter.PlugInFilter;
 import ij.process.ImageProcessor;
-import net.imglib2.img.ImagePlusAdapter;
 import net.imglib2.img.Img;
-import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.img.display.imagej.ImageJFunctions;
+import net.imglib2.type.numeric.RealType;
 import de.mpicbg.scf.imgtools.image.filter.LabelmapMathematicalMorphology;
 import de.mpicbg.scf.imgtools.ui.ImageJUtilities;
 
@@ -59,18 +61,39 @@ public class LabelmapOpeningPlugin implements PlugInFilter{
 		
 		GenericDialogPlus gd = new GenericDialogPlus("Constraint labels in a label map (2D, 3D) ");
 		gd.addNumericField("Margin size for the opening operation (in pixels, default = 3)", 3, 0);
+		gd.addCheckbox("Spherical neighborhood scaled by the voxel size (default: box in pixels)", false);
 		gd.showDialog();
 		if (gd.wasCanceled())
 		{
 			return;
 		}
 		int distanceInPixels = (int)gd.getNextNumber();
+		boolean spherical = gd.getNextBoolean();
+
+		openAndShow(labelMap, distanceInPixels, spherical);
+	}
+
+	/**
+	 * The label map is wrapped in its own pixel type instead of converting it to float: the opening allocates the output image only. The result is shown
+	 * as 32-bit image as before.
+	 */
+	private static <T extends RealType<T>> void openAndShow(ImagePlus labelMap, int distanceInPixels, boolean spherical) {
+		Img<T> labelMapImg = ImageJFunctions.wrapReal(labelMap);
+
+		Img<T> openedLabelMapImg;
+		if (spherical) {
+			// the margin is given in pixels along X, the other axes are scaled by the calibration to get a sphere
+			Calibration calib = labelMap.getCalibration();
+			double[] voxelSize = new double[]{1, calib.pixelHeight / calib.pixelWidth, calib.pixelDepth / calib.pixelWidth};
+			openedLabelMapImg = LabelmapMathematicalMorphology.openingLabelMap(labelMapImg, distanceInPixels, voxelSize, Prefs.getThreads());
+		} else {
+			openedLabelMapImg = LabelmapMathematicalMorphology.openingLabelMap(labelMapImg, distanceInPixels, Prefs.getThreads());
+		}
+		if (openedLabelMapImg == null) {
+			// cancelled in the progress dialog
+			return;
+		}
 
-		Img<FloatType> labelMapImg = ImagePlusAdapter.convertFloat(labelMap);
-		
-		Img<FloatType> openedLabelMapImg = LabelmapMathematicalMorphology.openingLabelMap(labelMapImg, distanceInPixels);
-		
-		
 		int[] dims = labelMap.getDimensions();
 		//ImagePlus openedLabelMap = ImgLib2Utils.floatImageToImagePlus(openedLabelMapImg, "Opened LabelMap (" + distanceInPixels + ")", "", dims);
 		//openedLabelMap.show();
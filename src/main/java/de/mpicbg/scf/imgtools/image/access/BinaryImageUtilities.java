@@ -0,0 +1,231 @@
+package de.mpicbg.scf.imgtools.image.access;
+
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.LongArray;
+import net.imglib2.type.logic.BitType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.util.Intervals;
+import net.imglib2.util.Util;
+import net.imglib2.view.Views;
+
+/**
+ * Binary images with one bit per pixel. They are ArrayImgs of BitType, which store 64 pixels in every long of their LongArray: pixel i (in flat iteration
+ * order) is bit i % 64 of word i / 64. Such images can be used wherever an Img of a RealType is expected, for example as mask in
+ * ImageFilterUtilities.maskImage() or as input of LabelmapMathematicalMorphology, which read them word by word. Compared to a FloatType image, they need
+ * 32 times less memory.
+ * <p>
+ * The methods of this class combine binary images of the same size word by word. Bits beyond the last pixel are always kept zero, so that count() can sum
+ * up the bits of all words.
+ * <p>
+ * Date: October 2026
+ * <p>
+ * Copyright 2026 Max Planck Institute of Molecular Cell Biology and Genetics,
+ * Dresden, Germany
+ * <p>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+public final class BinaryImageUtilities {
+
+    private BinaryImageUtilities() {
+    }
+
+    /**
+     * @param dimensions dimensions of the image
+     * @return a new binary image with all pixels set to 0
+     */
+    public static ArrayImg<BitType, LongArray> create(long... dimensions) {
+        return ArrayImgs.bits(dimensions);
+    }
+
+    /**
+     * Create a binary image in which all pixels are set, which are not zero in the given image, analogous to the masks of
+     * ImageFilterUtilities.maskImage().
+     *
+     * @param img image to binarize
+     * @param <T> type of the image
+     * @return a new binary image of the same size
+     */
+    public static <T extends RealType<T>> ArrayImg<BitType, LongArray> binarize(RandomAccessibleInterval<T> img) {
+        ArrayImg<BitType, LongArray> result = create(Intervals.dimensionsAsLongArray(img));
+        long[] words = getWords(result);
+
+        PrimitiveRowAccess rows = PrimitiveRowAccess.wrap(img);
+        if (rows != null) {
+            double[] row = new double[rows.getRowLength()];
+            for (long r = 0; r < rows.getNumRows(); r++) {
+                rows.readRow(r, row);
+                long offset = r * row.length;
+                for (int x = 0; x < row.length; x++) {
+                    if (row[x] != 0) {
+                        words[(int) ((offset + x) >>> 6)] |= 1L << ((offset + x) & 63);
+                    }
+                }
+            }
+            return result;
+        }
+
+        Cursor<T> cursor = Views.flatIterable(img).cursor();
+        long i = 0;
+        while (cursor.hasNext()) {
+            if (cursor.next().getRealDouble() != 0) {
+                words[(int) (i >>> 6)] |= 1L << (i & 63);
+            }
+            i++;
+        }
+        return result;
+    }
+
+    /**
+     * @param img any image
+     * @return true, if the image is an ArrayImg of BitType, whose words can be accessed by getWords()
+     */
+    public static boolean isBitPacked(RandomAccessibleInterval<?> img) {
+        if (!(img instanceof ArrayImg) || !(Util.getTypeFromInterval(img) instanceof BitType)) {
+            return false;
+        }
+        return ((ArrayImg<?, ?>) img).update(null) instanceof LongArray;
+    }
+
+    /**
+     * @param img binary image, see isBitPacked()
+     * @return the words storing the pixels of the image; changes are written through to the image
+     */
+    public static long[] getWords(RandomAccessibleInterval<?> img) {
+        if (!isBitPacked(img)) {
+            throw new IllegalArgumentException("The image is not a bit packed ArrayImg of BitType.");
+        }
+        return ((LongArray) ((ArrayImg<?, ?>) img).update(null)).getCurrentStorageArray();
+    }
+
+    /**
+     * Read a range of pixels of a binary image as 0 and 1.
+     *
+     * @param words  words of a binary image, see getWords()
+     * @param offset index of the first pixel in flat iteration order
+     * @param target array to fill with one value per pixel
+     * @param length number of pixels to read
+     */
+    public static void readBits(long[] words, long offset, int[] target, int length) {
+        for (int x = 0; x < length; x++) {
+            long i = offset + x;
+            target[x] = (int) ((words[(int) (i >>> 6)] >>> (i & 63)) & 1);
+        }
+    }
+
+    /**
+     * Read a range of pixels of a binary image as 0 and 1.
+     *
+     * @param words  words of a binary image, see getWords()
+     * @param offset index of the first pixel in flat iteration order
+     * @param target array to fill with one value per pixel
+     * @param length number of pixels to read
+     */
+    public static void readBits(long[] words, long offset, double[] target, int length) {
+        for (int x = 0; x < length; x++) {
+            long i = offset + x;
+            target[x] = (words[(int) (i >>> 6)] >>> (i & 63)) & 1;
+        }
+    }
+
+    /**
+     * Set all pixels of the target to 0, which are 0 in the other image.
+     *
+     * @param target binary image to change
+     * @param other  binary image of the same size
+     */
+    public static void and(RandomAccessibleInterval<BitType> target, RandomAccessibleInterval<BitType> other) {
+        long[] words = getWords(target);
+        long[] otherWords = getMatchingWords(target, other);
+        for (int i = 0; i < words.length; i++) {
+            words[i] &= otherWords[i];
+        }
+    }
+
+    /**
+     * Set all pixels of the target to 1, which are 1 in the other image.
+     *
+     * @param target binary image to change
+     * @param other  binary image of the same size
+     */
+    public static void or(RandomAccessibleInterval<BitType> target, RandomAccessibleInterval<BitType> other) {
+        long[] words = getWords(target);
+        long[] otherWords = getMatchingWords(target, other);
+        for (int i = 0; i < words.length; i++) {
+            words[i] |= otherWords[i];
+        }
+    }
+
+    /**
+     * Set all pixels of the target to 0, which are 1 in the other image.
+     *
+     * @param target binary image to change
+     * @param other  binary image of the same size
+     */
+    public static void andNot(RandomAccessibleInterval<BitType> target, RandomAccessibleInterval<BitType> other) {
+        long[] words = getWords(target);
+        long[] otherWords = getMatchingWords(target, other);
+        for (int i = 0; i < words.length; i++) {
+            words[i] &= ~otherWords[i];
+        }
+    }
+
+    /**
+     * Invert all pixels of a binary image.
+     *
+     * @param target binary image to change
+     */
+    public static void not(RandomAccessibleInterval<BitType> target) {
+        long[] words = getWords(target);
+        long numPixels = Intervals.numElements(target);
+        int numWords = (int) ((numPixels + 63) >>> 6);
+        for (int i = 0; i < numWords; i++) {
+            words[i] = ~words[i];
+        }
+        // keep the bits beyond the last pixel zero
+        if ((numPixels & 63) != 0) {
+            words[numWords - 1] &= (1L << (numPixels & 63)) - 1;
+        }
+    }
+
+    /**
+     * @param img binary image
+     * @return number of pixels which are 1
+     */
+    public static long count(RandomAccessibleInterval<BitType> img) {
+        long count = 0;
+        for (long word : getWords(img)) {
+            count += Long.bitCount(word);
+        }
+        return count;
+    }
+
+    private static long[] getMatchingWords(RandomAccessibleInterval<BitType> target, RandomAccessibleInterval<BitType> other) {
+        if (!Intervals.equalDimensions(target, other)) {
+            throw new IllegalArgumentException("Binary images must have the same size.");
+        }
+        return getWords(other);
+    }
+}
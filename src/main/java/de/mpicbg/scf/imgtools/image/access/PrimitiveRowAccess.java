@@ -0,0 +1,610 @@
+package de.mpicbg.scf.imgtools.image.access;
+
+import net.imglib2.Interval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.basictypeaccess.array.ArrayDataAccess;
+import net.imglib2.img.planar.PlanarImg;
+import net.imglib2.type.numeric.integer.ByteType;
+import net.imglib2.type.numeric.integer.IntType;
+import net.imglib2.type.numeric.integer.ShortType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.numeric.real.DoubleType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Util;
+
+/**
+ * Row-wise access to the primitive arrays behind ArrayImgs and PlanarImgs (including ImagePlusImgs as delivered by ImageJFunctions.wrapReal()).
+ * <p>
+ * Reading pixels through a Cursor and RealType.getRealFloat() costs a virtual call per pixel, which cannot be inlined if several pixel types are used in
+ * the same program. This class instead copies a whole row (all pixels along the first dimension with the same position in all other dimensions) from or to
+ * the primitive storage in a loop which is specialized for the storage type. Positions along the row are the array index, positions in the other
+ * dimensions are derived from the running row index.
+ * <p>
+ * Rows are numbered in flat iteration order, starting at 0. Supported are byte, unsigned byte, short, unsigned short, int, float and double images. For all
+ * other images, wrap() returns null and the caller is expected to fall back to a Cursor.
+ * <p>
+ * Date: October 2026
+ * <p>
+ * Copyright 2026 Max Planck Institute of Molecular Cell Biology and Genetics,
+ * Dresden, Germany
+ * <p>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+public final class PrimitiveRowAccess {
+    private static final int UNSIGNED_BYTE = 0;
+    private static final int BYTE = 1;
+    private static final int UNSIGNED_SHORT = 2;
+    private static final int SHORT = 3;
+    private static final int INT = 4;
+    private static final int FLOAT = 5;
+    private static final int DOUBLE = 6;
+
+    private final int kind;
+    private final Object[] planes;
+    private final long[] min;
+    private final long[] dimensions;
+    private final int rowLength;
+    private final long rowsPerPlane;
+    private final long numRows;
+
+    private PrimitiveRowAccess(int kind, Object[] planes, Interval interval, long rowsPerPlane) {
+        this.kind = kind;
+        this.planes = planes;
+        this.rowsPerPlane = rowsPerPlane;
+
+        int numDimensions = interval.numDimensions();
+        min = new long[numDimensions];
+        dimensions = new long[numDimensions];
+        interval.min(min);
+        interval.dimensions(dimensions);
+
+        rowLength = (int) dimensions[0];
+        long rows = 1;
+        for (int d = 1; d < numDimensions; d++) {
+            rows *= dimensions[d];
+        }
+        numRows = rows;
+    }
+
+    /**
+     * @param img image to access
+     * @return row access to the given image or null, if the image is not an ArrayImg or PlanarImg of a supported type.
+     */
+    public static PrimitiveRowAccess wrap(RandomAccessibleInterval<?> img) {
+        if (!(img instanceof ArrayImg) && !(img instanceof PlanarImg)) {
+            return null;
+        }
+        int kind = kindOf(Util.getTypeFromInterval(img));
+        if (kind < 0) {
+            return null;
+        }
+
+        long rowLength = img.dimension(0);
+        long rowsPerPlane;
+        Object[] planes;
+        if (img instanceof ArrayImg) {
+            rowsPerPlane = 1;
+            for (int d = 1; d < img.numDimensions(); d++) {
+                rowsPerPlane *= img.dimension(d);
+            }
+            planes = new Object[]{storageOf(((ArrayImg<?, ?>) img).update(null))};
+        } else {
+            PlanarImg<?, ?> planarImg = (PlanarImg<?, ?>) img;
+            rowsPerPlane = img.numDimensions() > 1 ? img.dimension(1) : 1;
+            planes = new Object[planarImg.numSlices()];
+            for (int i = 0; i < planes.length; i++) {
+                planes[i] = storageOf(planarImg.getPlane(i));
+            }
+        }
+
+        for (Object plane : planes) {
+            if (plane == null || !matches(kind, plane, rowLength * rowsPerPlane)) {
+                return null;
+            }
+        }
+        return new PrimitiveRowAccess(kind, planes, img, rowsPerPlane);
+    }
+
+    private static int kindOf(Object type) {
+        if (type instanceof UnsignedByteType) {
+            return UNSIGNED_BYTE;
+        } else if (type instanceof ByteType) {
+            return BYTE;
+        } else if (type instanceof UnsignedShortType) {
+            return UNSIGNED_SHORT;
+        } else if (type instanceof ShortType) {
+            return SHORT;
+        } else if (type instanceof IntType) {
+            return INT;
+        } else if (type instanceof FloatType) {
+            return FLOAT;
+        } else if (type instanceof DoubleType) {
+            return DOUBLE;
+        }
+        return -1;
+    }
+
+    private static Object storageOf(Object access) {
+        if (access instanceof ArrayDataAccess) {
+            return ((ArrayDataAccess<?>) access).getCurrentStorageArray();
+        }
+        return null;
+    }
+
+    private static boolean matches(int kind, Object storage, long length) {
+        switch (kind) {
+            case UNSIGNED_BYTE:
+            case BYTE:
+                return storage instanceof byte[] && ((byte[]) storage).length >= length;
+            case UNSIGNED_SHORT:
+            case SHORT:
+                return storage instanceof short[] && ((short[]) storage).length >= length;
+            case INT:
+                return storage instanceof int[] && ((int[]) storage).length >= length;
+            case FLOAT:
+                return storage instanceof float[] && ((float[]) storage).length >= length;
+            case DOUBLE:
+                return storage instanceof double[] && ((double[]) storage).length >= length;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * @return number of pixels in a row, which equals the size of the image in the first dimension
+     */
+    public int getRowLength() {
+        return rowLength;
+    }
+
+    /**
+     * @return number of rows in the image
+     */
+    public long getNumRows() {
+        return numRows;
+    }
+
+    /**
+     * Determine the index of the row containing a given position. The position in the first dimension is ignored.
+     *
+     * @param position position in the image
+     * @return row index
+     */
+    public long getRowIndex(long[] position) {
+        long row = 0;
+        long stride = 1;
+        for (int d = 1; d < dimensions.length; d++) {
+            row += (position[d] - min[d]) * stride;
+            stride *= dimensions[d];
+        }
+        return row;
+    }
+
+    /**
+     * Determine the position of the first pixel of a row.
+     *
+     * @param row      row index
+     * @param position array to store the position in
+     */
+    public void getRowPosition(long row, long[] position) {
+        position[0] = min[0];
+        for (int d = 1; d < dimensions.length; d++) {
+            position[d] = min[d] + row % dimensions[d];
+            row /= dimensions[d];
+        }
+    }
+
+    /**
+     * Move a position to the first pixel of the next row within an interval. The position in the first dimension is not changed.
+     *
+     * @param position position to move
+     * @param interval interval to move within
+     * @return false, if the position was in the last row of the interval
+     */
+    public static boolean nextRow(long[] position, Interval interval) {
+        for (int d = 1; d < position.length; d++) {
+            if (position[d] < interval.max(d)) {
+                position[d]++;
+                return true;
+            }
+            position[d] = interval.min(d);
+        }
+        return false;
+    }
+
+    private int offset(long row) {
+        return (int) (row % rowsPerPlane) * rowLength;
+    }
+
+    private Object plane(long row) {
+        return planes[(int) (row / rowsPerPlane)];
+    }
+
+    /**
+     * Read a row of pixels as integer values. Non-integer values are truncated as by a cast to int.
+     *
+     * @param row    row index
+     * @param target array with at least getRowLength() elements
+     */
+    public void readRow(long row, int[] target) {
+        Object plane = plane(row);
+        int offset = offset(row);
+        switch (kind) {
+            case UNSIGNED_BYTE: {
+                byte[] data = (byte[]) plane;
+                for (int x = 0; x < rowLength; x++) {
+                    target[x] = data[offset + x] & 0xff;
+                }
+                break;
+            }
+            case BYTE: {
+                byte[] data = (byte[]) plane;
+                for (int x = 0; x < rowLength; x++) {
+                    target[x] = data[offset + x];
+                }
+                break;
+            }
+            case UNSIGNED_SHORT: {
+                short[] data = (short[]) plane;
+                for (int x = 0; x < rowLength; x++) {
+                    target[x] = data[offset + x] & 0xffff;
+                }
+                break;
+            }
+            case SHORT: {
+                short[] data = (short[]) plane;
+                for (int x = 0; x < rowLength; x++) {
+                    target[x] = data[offset + x];
+                }
+                break;
+            }
+            case INT:
+                System.arraycopy(plane, offset, target, 0, rowLength);
+                break;
+            case FLOAT: {
+                float[] data = (float[]) plane;
+                for (int x = 0; x < rowLength; x++) {
+                    target[x] = (int) data[offset + x];
+                }
+                break;
+            }
+            default: {
+                double[] data = (double[]) plane;
+                for (int x = 0; x < rowLength; x++) {
+                    target[x] = (int) data[offset + x];
+                }
+                break;
+            }
+        }
+    }
+
+    /**
+     * Read a row of pixels as double values.
+     *
+     * @param row    row index
+     * @param target array with at least getRowLength() elements
+     */
+    public void readRow(long row, double[] target) {
+        Object plane = plane(row);
+        int offset = offset(row);
+        switch (kind) {
+            case UNSIGNED_BYTE: {
+                byte[] data = (byte[]) plane;
+                for (int x = 0; x < rowLength; x++) {
+                    target[x] = data[offset + x] & 0xff;
+                }
+                break;
+            }
+            case BYTE: {
+                byte[] data = (byte[]) plane;
+                for (int x = 0; x < rowLength; x++) {
+                    target[x] = data[offset + x];
+                }
+                break;
+            }
+            case UNSIGNED_SHORT: {
+                short[] data = (short[]) plane;
+                for (int x = 0; x < rowLength; x++) {
+                    target[x] = data[offset + x] & 0xffff;
+                }
+                break;
+            }
+            case SHORT: {
+                short[] data = (short[]) plane;
+                for (int x = 0; x < rowLength; x++) {
+                    target[x] = data[offset + x];
+                }
+                break;
+            }
+            case INT: {
+                int[] data = (int[]) plane;
+                for (int x = 0; x < rowLength; x++) {
+                    target[x] = data[offset + x];
+                }
+                break;
+            }
+            case FLOAT: {
+                float[] data = (float[]) plane;
+                for (int x = 0; x < rowLength; x++) {
+                    target[x] = data[offset + x];
+                }
+                break;
+            }
+            default:
+                System.arraycopy(plane, offset, target, 0, rowLength);
+                break;
+        }
+    }
+
+    /**
+     * Write a row of integer values.
+     *
+     * @param row    row index
+     * @param source array with at least getRowLength() elements
+     */
+    public void writeRow(long row, int[] source) {
+        Object plane = plane(row);
+        int offset = offset(row);
+        switch (kind) {
+            case UNSIGNED_BYTE:
+            case BYTE: {
+                byte[] data = (byte[]) plane;
+                for (int x = 0; x < rowLength; x++) {
+                    data[offset + x] = (byte) source[x];
+                }
+                break;
+            }
+            case UNSIGNED_SHORT:
+            case SHORT: {
+                short[] data = (short[]) plane;
+                for (int x = 0; x < rowLength; x++) {
+                    data[offset + x] = (short) source[x];
+                }
+                break;
+            }
+            case INT:
+                System.arraycopy(source, 0, plane, offset, rowLength);
+                break;
+            case FLOAT: {
+                float[] data = (float[]) plane;
+                for (int x = 0; x < rowLength; x++) {
+                    data[offset + x] = source[x];
+                }
+                break;
+            }
+            default: {
+                double[] data = (double[]) plane;
+                for (int x = 0; x < rowLength; x++) {
+                    data[offset + x] = source[x];
+                }
+                break;
+            }
+        }
+    }
+
+    /**
+     * Apply a look-up table to the integer values of a row: Every pixel with a value v with 0 &lt; v &lt; lut.length is set to lut[v], if that differs
+     * from v. All other pixels stay untouched.
+     *
+     * @param row row index
+     * @param lut look-up table
+     */
+    public void applyLut(long row, int[] lut) {
+        Object plane = plane(row);
+        int offset = offset(row);
+        switch (kind) {
+            case UNSIGNED_BYTE: {
+                byte[] data = (byte[]) plane;
+                for (int i = offset; i < offset + rowLength; i++) {
+                    int value = data[i] & 0xff;
+                    if (value > 0 && value < lut.length && lut[value] != value) {
+                        data[i] = (byte) lut[value];
+                    }
+                }
+                break;
+            }
+            case BYTE: {
+                byte[] data = (byte[]) plane;
+                for (int i = offset; i < offset + rowLength; i++) {
+                    int value = data[i];
+                    if (value > 0 && value < lut.length && lut[value] != value) {
+                        data[i] = (byte) lut[value];
+                    }
+                }
+                break;
+            }
+            case UNSIGNED_SHORT: {
+                short[] data = (short[]) plane;
+                for (int i = offset; i < offset + rowLength; i++) {
+                    int value = data[i] & 0xffff;
+                    if (value > 0 && value < lut.length && lut[value] != value) {
+                        data[i] = (short) lut[value];
+                    }
+                }
+                break;
+            }
+            case SHORT: {
+                short[] data = (short[]) plane;
+                for (int i = offset; i < offset + rowLength; i++) {
+                    int value = data[i];
+                    if (value > 0 && value < lut.length && lut[value] != value) {
+                        data[i] = (short) lut[value];
+                    }
+                }
+                break;
+            }
+            case INT: {
+                int[] data = (int[]) plane;
+                for (int i = offset; i < offset + rowLength; i++) {
+                    int value = data[i];
+                    if (value > 0 && value < lut.length && lut[value] != value) {
+                        data[i] = lut[value];
+                    }
+                }
+                break;
+            }
+            case FLOAT: {
+                float[] data = (float[]) plane;
+                for (int i = offset; i < offset + rowLength; i++) {
+                    int value = (int) data[i];
+                    if (value > 0 && value < lut.length && lut[value] != value) {
+                        data[i] = lut[value];
+                    }
+                }
+                break;
+            }
+            default: {
+                double[] data = (double[]) plane;
+                for (int i = offset; i < offset + rowLength; i++) {
+                    int value = (int) data[i];
+                    if (value > 0 && value < lut.length && lut[value] != value) {
+                        data[i] = lut[value];
+                    }
+                }
+                break;
+            }
+        }
+    }
+
+    /**
+     * Set all pixels of a row which are zero to the integer values of a source row. All other pixels stay untouched.
+     *
+     * @param row    row index
+     * @param source array with at least getRowLength() elements
+     */
+    public void fillZeros(long row, int[] source) {
+        Object plane = plane(row);
+        int offset = offset(row);
+        switch (kind) {
+            case UNSIGNED_BYTE:
+            case BYTE: {
+                byte[] data = (byte[]) plane;
+                for (int x = 0; x < rowLength; x++) {
+                    if (data[offset + x] == 0) {
+                        data[offset + x] = (byte) source[x];
+                    }
+                }
+                break;
+            }
+            case UNSIGNED_SHORT:
+            case SHORT: {
+                short[] data = (short[]) plane;
+                for (int x = 0; x < rowLength; x++) {
+                    if (data[offset + x] == 0) {
+                        data[offset + x] = (short) source[x];
+                    }
+                }
+                break;
+            }
+            case INT: {
+                int[] data = (int[]) plane;
+                for (int x = 0; x < rowLength; x++) {
+                    if (data[offset + x] == 0) {
+                        data[offset + x] = source[x];
+                    }
+                }
+                break;
+            }
+            case FLOAT: {
+                float[] data = (float[]) plane;
+                for (int x = 0; x < rowLength; x++) {
+                    if (data[offset + x] == 0) {
+                        data[offset + x] = source[x];
+                    }
+                }
+                break;
+            }
+            default: {
+                double[] data = (double[]) plane;
+                for (int x = 0; x < rowLength; x++) {
+                    if (data[offset + x] == 0) {
+                        data[offset + x] = source[x];
+                    }
+                }
+                break;
+            }
+        }
+    }
+
+    /**
+     * Set all pixels of a row to zero, where a mask row is zero.
+     *
+     * @param row     row index
+     * @param maskRow mask values with at least getRowLength() elements
+     */
+    public void maskRow(long row, double[] maskRow) {
+        Object plane = plane(row);
+        int offset = offset(row);
+        switch (kind) {
+            case UNSIGNED_BYTE:
+            case BYTE: {
+                byte[] data = (byte[]) plane;
+                for (int x = 0; x < rowLength; x++) {
+                    if (maskRow[x] == 0) {
+                        data[offset + x] = 0;
+                    }
+                }
+                break;
+            }
+            case UNSIGNED_SHORT:
+            case SHORT: {
+                short[] data = (short[]) plane;
+                for (int x = 0; x < rowLength; x++) {
+                    if (maskRow[x] == 0) {
+                        data[offset + x] = 0;
+                    }
+                }
+                break;
+            }
+            case INT: {
+                int[] data = (int[]) plane;
+                for (int x = 0; x < rowLength; x++) {
+                    if (maskRow[x] == 0) {
+                        data[offset + x] = 0;
+                    }
+                }
+                break;
+            }
+            case FLOAT: {
+                float[] data = (float[]) plane;
+                for (int x = 0; x < rowLength; x++) {
+                    if (maskRow[x] == 0) {
+                        data[offset + x] = 0;
+                    }
+                }
+                break;
+            }
+            default: {
+                double[] data = (double[]) plane;
+                for (int x = 0; x < rowLength; x++) {
+                    if (maskRow[x] == 0) {
+                        data[offset + x] = 0;
+                    }
+                }
+                break;
+            }
+        }
+    }
+}
@@ -0,0 +1,457 @@
+package de.mpicbg.scf.imgtools.image.access;
+
+import java.util.Arrays;
+import net.imglib2.Cursor;
+import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.IntType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
+
+/**
+ * Run-length encoded label map. Every row (all pixels along the first dimension with the same position in all other dimensions, numbered in flat iteration
+ * order as in PrimitiveRowAccess) is stored as a list of runs of pixels with the same label: start position in the row, length and label. Background
+ * (label 0) is not stored. Within a row, runs are sorted by their start, do not overlap and neighbouring runs with the same label are merged.
+ * <p>
+ * Memory and the runtime of all operations on a run-length encoded label map scale with the number of runs instead of the number of pixels, which pays off
+ * for sparse segmentations with few runs per row. Instances are immutable; masking, binarization and relabelling deliver new label maps. Conversion from
+ * and to images costs one pass over all pixels.
+ * <p>
+ * Usage:
+ * <pre>
+ * RunLengthLabelMap rle = RunLengthLabelMap.fromImage(labelMap);
+ * long[] voxelCounts = rle.getVoxelCounts();
+ * Img&lt;IntType&gt; masked = rle.mask(RunLengthLabelMap.fromImage(mask)).toImg();
+ * </pre>
+ * <p>
+ * Date: October 2026
+ * <p>
+ * Copyright 2026 Max Planck Institute of Molecular Cell Biology and Genetics,
+ * Dresden, Germany
+ * <p>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+public class RunLengthLabelMap {
+    private final long[] dimensions;
+    private final int rowLength;
+    private final int numRows;
+
+    // runs of row r are the indices rowOffsets[r] to rowOffsets[r + 1] - 1
+    private final int[] rowOffsets;
+    private final int[] runStarts;
+    private final int[] runLengths;
+    private final int[] runLabels;
+
+    private RunLengthLabelMap(long[] dimensions, int[] rowOffsets, int[] runStarts, int[] runLengths, int[] runLabels) {
+        this.dimensions = dimensions;
+        this.rowLength = (int) dimensions[0];
+        this.numRows = rowOffsets.length - 1;
+        this.rowOffsets = rowOffsets;
+        this.runStarts = runStarts;
+        this.runLengths = runLengths;
+        this.runLabels = runLabels;
+    }
+
+    /**
+     * Encode a label map. Values are truncated to integers.
+     *
+     * @param labelMap label map
+     * @param <T>      type of the label map
+     * @return run-length encoded label map of the same size
+     */
+    public static <T extends RealType<T>> RunLengthLabelMap fromImage(RandomAccessibleInterval<T> labelMap) {
+        long[] dimensions = Intervals.dimensionsAsLongArray(labelMap);
+        Builder builder = new Builder(dimensions);
+        int[] row = new int[builder.rowLength];
+
+        PrimitiveRowAccess rows = PrimitiveRowAccess.wrap(labelMap);
+        if (rows != null) {
+            for (int r = 0; r < builder.numRows; r++) {
+                rows.readRow(r, row);
+                builder.addRow(row);
+            }
+            return builder.build();
+        }
+
+        Cursor<T> cursor = Views.flatIterable(labelMap).cursor();
+        for (int r = 0; r < builder.numRows; r++) {
+            for (int x = 0; x < row.length; x++) {
+                row[x] = (int) cursor.next().getRealDouble();
+            }
+            builder.addRow(row);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Decode the label map into an image of the same size. All pixels of the target are written.
+     *
+     * @param target image of the same size
+     * @param <T>    type of the image
+     */
+    public <T extends RealType<T>> void toImage(RandomAccessibleInterval<T> target) {
+        if (!Arrays.equals(dimensions, Intervals.dimensionsAsLongArray(target))) {
+            throw new IllegalArgumentException("The image must have the same size as the label map.");
+        }
+        int[] row = new int[rowLength];
+
+        PrimitiveRowAccess rows = PrimitiveRowAccess.wrap(target);
+        if (rows != null) {
+            for (int r = 0; r < numRows; r++) {
+                readRow(r, row);
+                rows.writeRow(r, row);
+            }
+            return;
+        }
+
+        Cursor<T> cursor = Views.flatIterable(target).cursor();
+        for (int r = 0; r < numRows; r++) {
+            readRow(r, row);
+            for (int x = 0; x < row.length; x++) {
+                cursor.next().setReal(row[x]);
+            }
+        }
+    }
+
+    /**
+     * @return decoded label map as new image
+     */
+    public Img<IntType> toImg() {
+        Img<IntType> img = ArrayImgs.ints(dimensions);
+        toImage(img);
+        return img;
+    }
+
+    /**
+     * Decode a row.
+     *
+     * @param row    row index
+     * @param target array with at least getRowLength() elements to fill with the labels of the row
+     */
+    public void readRow(int row, int[] target) {
+        Arrays.fill(target, 0, rowLength, 0);
+        for (int run = rowOffsets[row]; run < rowOffsets[row + 1]; run++) {
+            Arrays.fill(target, runStarts[run], runStarts[run] + runLengths[run], runLabels[run]);
+        }
+    }
+
+    /**
+     * @return number of dimensions of the label map
+     */
+    public int numDimensions() {
+        return dimensions.length;
+    }
+
+    /**
+     * @param d dimension
+     * @return size of the label map in the given dimension
+     */
+    public long dimension(int d) {
+        return dimensions[d];
+    }
+
+    /**
+     * @return number of pixels in a row, which equals the size of the label map in the first dimension
+     */
+    public int getRowLength() {
+        return rowLength;
+    }
+
+    /**
+     * @return number of rows
+     */
+    public int getNumRows() {
+        return numRows;
+    }
+
+    /**
+     * @return number of runs of all rows
+     */
+    public int getNumRuns() {
+        return rowOffsets[numRows];
+    }
+
+    /**
+     * @param row row index
+     * @return index of the first run of the row; the runs of the row are getFirstRun(row) to getFirstRun(row + 1) - 1
+     */
+    public int getFirstRun(int row) {
+        return rowOffsets[row];
+    }
+
+    /**
+     * @param run run index
+     * @return position of the first pixel of the run in the row
+     */
+    public int getRunStart(int run) {
+        return runStarts[run];
+    }
+
+    /**
+     * @param run run index
+     * @return number of pixels of the run
+     */
+    public int getRunLength(int run) {
+        return runLengths[run];
+    }
+
+    /**
+     * @param run run index
+     * @return label of the run
+     */
+    public int getRunLabel(int run) {
+        return runLabels[run];
+    }
+
+    /**
+     * @param position position in the label map
+     * @return label at the given position
+     */
+    public int getLabel(long[] position) {
+        int row = 0;
+        long stride = 1;
+        for (int d = 1; d < dimensions.length; d++) {
+            row += position[d] * stride;
+            stride *= dimensions[d];
+        }
+        // last run starting at or before the position
+        int low = rowOffsets[row];
+        int high = rowOffsets[row + 1] - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (runStarts[middle] <= position[0]) {
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        if (high >= rowOffsets[row] && position[0] < runStarts[high] + runLengths[high]) {
+            return runLabels[high];
+        }
+        return 0;
+    }
+
+    /**
+     * @return highest label
+     */
+    public int getMaxLabel() {
+        int maxLabel = 0;
+        for (int run = 0; run < getNumRuns(); run++) {
+            maxLabel = Math.max(maxLabel, runLabels[run]);
+        }
+        return maxLabel;
+    }
+
+    /**
+     * @return number of pixels per label id - 1, see LabelAnalyser.getLabelsPixelCount()
+     */
+    public long[] getVoxelCounts() {
+        long[] voxelCounts = new long[getMaxLabel()];
+        for (int run = 0; run < getNumRuns(); run++) {
+            if (runLabels[run] > 0) {
+                voxelCounts[runLabels[run] - 1] += runLengths[run];
+            }
+        }
+        return voxelCounts;
+    }
+
+    /**
+     * @return bounding boxes per label id - 1: all minimum positions followed by all maximum positions, see LabelAnalyser.getLabelsBoundingBoxes().
+     * Labels which are not present have a bounding box of zeros.
+     */
+    public long[][] getBoundingBoxes() {
+        int numDimensions = dimensions.length;
+        long[][] boundingBoxes = new long[getMaxLabel()][];
+        long[] position = new long[numDimensions];
+        Interval interval = new FinalInterval(dimensions);
+        for (int row = 0; row < numRows; row++) {
+            if (row > 0) {
+                PrimitiveRowAccess.nextRow(position, interval);
+            }
+            for (int run = rowOffsets[row]; run < rowOffsets[row + 1]; run++) {
+                if (runLabels[run] <= 0) {
+                    continue;
+                }
+                long[] box = boundingBoxes[runLabels[run] - 1];
+                if (box == null) {
+                    box = new long[2 * numDimensions];
+                    for (int d = 0; d < numDimensions; d++) {
+                        box[d] = Long.MAX_VALUE;
+                        box[numDimensions + d] = Long.MIN_VALUE;
+                    }
+                    boundingBoxes[runLabels[run] - 1] = box;
+                }
+                position[0] = runStarts[run];
+                for (int d = 0; d < numDimensions; d++) {
+                    long max = d == 0 ? runStarts[run] + runLengths[run] - 1 : position[d];
+                    box[d] = Math.min(box[d], position[d]);
+                    box[numDimensions + d] = Math.max(box[numDimensions + d], max);
+                }
+            }
+        }
+        for (int i = 0; i < boundingBoxes.length; i++) {
+            if (boundingBoxes[i] == null) {
+                boundingBoxes[i] = new long[2 * numDimensions];
+            }
+        }
+        return boundingBoxes;
+    }
+
+    /**
+     * Keep all labelled pixels which are labelled in the mask as well, analogous to ImageFilterUtilities.maskImage().
+     *
+     * @param mask run-length encoded mask of the same size; all labels except 0 count as foreground
+     * @return masked label map
+     */
+    public RunLengthLabelMap mask(RunLengthLabelMap mask) {
+        if (!Arrays.equals(dimensions, mask.dimensions)) {
+            throw new IllegalArgumentException("The mask must have the same size as the label map.");
+        }
+        Builder builder = new Builder(dimensions);
+        for (int row = 0; row < numRows; row++) {
+            // intersect the runs of both rows; both lists are sorted
+            int run = rowOffsets[row];
+            int maskRun = mask.rowOffsets[row];
+            while (run < rowOffsets[row + 1] && maskRun < mask.rowOffsets[row + 1]) {
+                int start = Math.max(runStarts[run], mask.runStarts[maskRun]);
+                int end = Math.min(runStarts[run] + runLengths[run], mask.runStarts[maskRun] + mask.runLengths[maskRun]);
+                if (start < end) {
+                    builder.addRun(start, end - start, runLabels[run]);
+                }
+                if (runStarts[run] + runLengths[run] < mask.runStarts[maskRun] + mask.runLengths[maskRun]) {
+                    run++;
+                } else {
+                    maskRun++;
+                }
+            }
+            builder.endRow();
+        }
+        return builder.build();
+    }
+
+    /**
+     * Set all labelled pixels to 1, analogous to LabelmapMathematicalMorphology.binarizeLabelMap().
+     *
+     * @return binary label map
+     */
+    public RunLengthLabelMap binarize() {
+        int[] lut = new int[getMaxLabel() + 1];
+        Arrays.fill(lut, 1);
+        lut[0] = 0;
+        return relabel(lut);
+    }
+
+    /**
+     * Replace all labels by a look-up table. Runs which get label 0 are removed, neighbouring runs which get the same label are merged.
+     *
+     * @param lut new label for every label; labels beyond the end of the table keep their value
+     * @return relabelled label map
+     */
+    public RunLengthLabelMap relabel(int[] lut) {
+        Builder builder = new Builder(dimensions);
+        for (int row = 0; row < numRows; row++) {
+            for (int run = rowOffsets[row]; run < rowOffsets[row + 1]; run++) {
+                int label = runLabels[run];
+                builder.addRun(runStarts[run], runLengths[run], label >= 0 && label < lut.length ? lut[label] : label);
+            }
+            builder.endRow();
+        }
+        return builder.build();
+    }
+
+    /**
+     * Collects runs row by row. Runs have to be added in ascending order within a row; background runs are skipped and neighbouring runs with the same
+     * label are merged.
+     */
+    private static class Builder {
+        private final long[] dimensions;
+        private final int rowLength;
+        private final int numRows;
+        private final int[] rowOffsets;
+        private int row = 0;
+        private int numRuns = 0;
+        private int[] runStarts = new int[64];
+        private int[] runLengths = new int[64];
+        private int[] runLabels = new int[64];
+
+        private Builder(long[] dimensions) {
+            long rows = 1;
+            for (int d = 1; d < dimensions.length; d++) {
+                rows *= dimensions[d];
+            }
+            if (rows >= Integer.MAX_VALUE || dimensions[0] > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Label maps with more than " + Integer.MAX_VALUE + " rows or pixels per row are not supported.");
+            }
+            this.dimensions = dimensions.clone();
+            this.rowLength = (int) dimensions[0];
+            this.numRows = (int) rows;
+            this.rowOffsets = new int[numRows + 1];
+        }
+
+        private void addRun(int start, int length, int label) {
+            if (label == 0 || length <= 0) {
+                return;
+            }
+            if (numRuns > rowOffsets[row] && runLabels[numRuns - 1] == label && runStarts[numRuns - 1] + runLengths[numRuns - 1] == start) {
+                runLengths[numRuns - 1] += length;
+                return;
+            }
+            if (numRuns == runStarts.length) {
+                runStarts = Arrays.copyOf(runStarts, numRuns * 2);
+                runLengths = Arrays.copyOf(runLengths, numRuns * 2);
+                runLabels = Arrays.copyOf(runLabels, numRuns * 2);
+            }
+            runStarts[numRuns] = start;
+            runLengths[numRuns] = length;
+            runLabels[numRuns] = label;
+            numRuns++;
+        }
+
+        private void addRow(int[] labels) {
+            int start = 0;
+            while (start < rowLength) {
+                int end = start + 1;
+                while (end < rowLength && labels[end] == labels[start]) {
+                    end++;
+                }
+                addRun(start, end - start, labels[start]);
+                start = end;
+            }
+            endRow();
+        }
+
+        private void endRow() {
+            row++;
+            rowOffsets[row] = numRuns;
+        }
+
+        private RunLengthLabelMap build() {
+            return new RunLengthLabelMap(dimensions, rowOffsets, Arrays.copyOf(runStarts, numRuns), Arrays.copyOf(runLengths, numRuns),
+                    Arrays.copyOf(runLabels, numRuns));
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package de.mpicbg.scf.imgtools.image.filter;
+
+import de.mpicbg.scf.imgtools.image.neighborhood.ImageConnectivity;
+import de.mpicbg.scf.imgtools.image.neighborhood.ImageConnectivity.Connectivity;
+import java.util.Arrays;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.IntType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.util.Intervals;
+
+/**
+ * Connected component labeling of binary images in any number of dimensions: every connected region of pixels which are not zero gets its own label.
+ * Labels are numbered from 1 in the order in which their first pixel appears in flat iteration order.
+ * <p>
+ * The labeling takes two passes over a flat int array. The first pass assigns provisional labels: a pixel takes the label of its already visited
+ * neighbours, given by the half neighbourhood ImageConnectivity.Connectivity.LEXICO_FACE or LEXICO_FULL, and the labels of all these neighbours are merged
+ * in a union-find structure (union by rank, path halving). The second pass replaces every provisional label by the sequential label of its set. The
+ * runtime is linear in the number of pixels and independent of the shape of the components.
+ * <p>
+ * The flat array holds one int per pixel, so images with more than Integer.MAX_VALUE pixels are not supported. labelComponents() labels this array in
+ * place and wraps it as label map (4 bytes per pixel); labelComponentsUnsignedShort() copies the labels into a 16 bit label map afterwards, so that both
+ * arrays are held at the same time (6 bytes per pixel).
+ * <p>
+ * Usage:
+ * <pre>
+ * Img&lt;IntType&gt; labelMap = ConnectedComponentLabeling.labelComponents(binaryImage, Connectivity.FULL);
+ * </pre>
+ * <p>
+ * Date: October 2026
+ * <p>
+ * Copyright 2026 Max Planck Institute of Molecular Cell Biology and Genetics,
+ * Dresden, Germany
+ * <p>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+public class ConnectedComponentLabeling {
+
+    /**
+     * Label all connected components of a binary image.
+     *
+     * @param binaryImage  image whose pixels, which are not zero, are labelled; may be bit packed (see BinaryImageUtilities)
+     * @param connectivity Connectivity.FACE (or LEXICO_FACE): pixels sharing a face are connected; Connectivity.FULL (or LEXICO_FULL): pixels sharing a
+     *                     face, an edge or a corner are connected
+     * @param <T>          type of the binary image
+     * @return new 32 bit label map of the same size
+     */
+    public static <T extends RealType<T>> Img<IntType> labelComponents(RandomAccessibleInterval<T> binaryImage, Connectivity connectivity) {
+        long[] dimensions = getDimensions(binaryImage);
+        int[] labels = DistanceTransform.readLabels(binaryImage);
+        labelComponents(labels, dimensions, connectivity, labels);
+        return ArrayImgs.ints(labels, dimensions);
+    }
+
+    /**
+     * Label all connected components of a binary image into a 16 bit label map, see labelComponents(RandomAccessibleInterval, Connectivity).
+     *
+     * @param binaryImage  image whose pixels, which are not zero, are labelled; may be bit packed (see BinaryImageUtilities)
+     * @param connectivity Connectivity.FACE (or LEXICO_FACE) or Connectivity.FULL (or LEXICO_FULL)
+     * @param <T>          type of the binary image
+     * @return new 16 bit label map of the same size
+     * @throws IllegalArgumentException if there are more than 65535 components
+     */
+    public static <T extends RealType<T>> Img<UnsignedShortType> labelComponentsUnsignedShort(RandomAccessibleInterval<T> binaryImage,
+                                                                                             Connectivity connectivity) {
+        long[] dimensions = getDimensions(binaryImage);
+        int[] labels = DistanceTransform.readLabels(binaryImage);
+        int numComponents = labelComponents(labels, dimensions, connectivity, labels);
+        if (numComponents > 0xffff) {
+            throw new IllegalArgumentException("The image contains " + numComponents + " components, which do not fit into 16 bit.");
+        }
+        short[] shortLabels = new short[labels.length];
+        for (int i = 0; i < labels.length; i++) {
+            shortLabels[i] = (short) labels[i];
+        }
+        return ArrayImgs.unsignedShorts(shortLabels, dimensions);
+    }
+
+    /**
+     * @return dimensions of the image, which must not have more than Integer.MAX_VALUE pixels
+     */
+    private static long[] getDimensions(RandomAccessibleInterval<?> image) {
+        if (Intervals.numElements(image) > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Connected component labeling supports images with at most " + Integer.MAX_VALUE + " pixels.");
+        }
+        return Intervals.dimensionsAsLongArray(image);
+    }
+
+    /**
+     * Label all connected components of a binary image given as flat array.
+     *
+     * @param values       pixels in flat iteration order; all pixels which are not zero are labelled
+     * @param dimensions   dimensions of the image
+     * @param connectivity Connectivity.FACE (or LEXICO_FACE) or Connectivity.FULL (or LEXICO_FULL), see labelComponents(RandomAccessibleInterval,
+     *                     Connectivity)
+     * @param labels       array of the same size to fill with the labels of all pixels, may be the values array itself
+     * @return number of components
+     */
+    public static int labelComponents(int[] values, long[] dimensions, Connectivity connectivity, int[] labels) {
+        Connectivity halfNeighbourhood;
+        if (connectivity == Connectivity.FACE || connectivity == Connectivity.LEXICO_FACE) {
+            halfNeighbourhood = Connectivity.LEXICO_FACE;
+        } else {
+            halfNeighbourhood = Connectivity.LEXICO_FULL;
+        }
+        long[][] neighbours = ImageConnectivity.getConnectivityPos(dimensions.length, halfNeighbourhood);
+        int[] offsets = ImageConnectivity.getIdxOffsetToCenterPix(neighbours, dimensions);
+
+        // first pass: provisional labels; parents[l] is the parent of provisional label l in the union-find forest
+        int[] parents = new int[64];
+        byte[] ranks = new byte[64];
+        int numProvisional = 0;
+        long[] position = new long[dimensions.length];
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                DistanceTransform.nextPosition(position, dimensions);
+            }
+            if (values[i] == 0) {
+                labels[i] = 0;
+                continue;
+            }
+            int label = 0;
+            for (int n = 0; n < offsets.length; n++) {
+                // neighbours were visited before, so labels already holds their provisional label
+                if (DistanceTransform.isInside(position, neighbours[n], dimensions) && labels[i + offsets[n]] != 0) {
+                    int neighbourLabel = labels[i + offsets[n]];
+                    if (label == 0) {
+                        label = neighbourLabel;
+                    } else if (neighbourLabel != label) {
+                        union(parents, ranks, label, neighbourLabel);
+                    }
+                }
+            }
+            if (label == 0) {
+                numProvisional++;
+                if (numProvisional == parents.length) {
+                    parents = Arrays.copyOf(parents, parents.length * 2);
+                    ranks = Arrays.copyOf(ranks, ranks.length * 2);
+                }
+                parents[numProvisional] = numProvisional;
+                label = numProvisional;
+            }
+            labels[i] = label;
+        }
+
+        // sequential labels in the order of the smallest provisional label of every set, which is the order of the first pixels
+        int[] sequentialLabels = new int[numProvisional + 1];
+        int numComponents = 0;
+        for (int l = 1; l <= numProvisional; l++) {
+            int root = find(parents, l);
+            if (sequentialLabels[root] == 0) {
+                numComponents++;
+                sequentialLabels[root] = numComponents;
+            }
+            sequentialLabels[l] = sequentialLabels[root];
+        }
+
+        // second pass
+        for (int i = 0; i < labels.length; i++) {
+            labels[i] = sequentialLabels[labels[i]];
+        }
+        return numComponents;
+    }
+
+    /**
+     * @return root of the set of the label; the path to the root is halved on the way
+     */
+    private static int find(int[] parents, int label) {
+        while (parents[label] != label) {
+            parents[label] = parents[parents[label]];
+            label = parents[label];
+        }
+        return label;
+    }
+
+    /**
+     * Merge the sets of two labels; the root of lower rank is attached to the root of higher rank.
+     */
+    private static void union(int[] parents, byte[] ranks, int label, int otherLabel) {
+        int root = find(parents, label);
+        int otherRoot = find(parents, otherLabel);
+        if (root == otherRoot) {
+            return;
+        }
+        if (ranks[root] < ranks[otherRoot]) {
+            parents[root] = otherRoot;
+        } else if (ranks[root] > ranks[otherRoot]) {
+            parents[otherRoot] = root;
+        } else {
+            parents[otherRoot] = root;
+            ranks[root]++;
+        }
+    }
+}
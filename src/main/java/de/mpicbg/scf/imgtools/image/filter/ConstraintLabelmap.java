@@ -1,7 +1,11 @@
 package de.mpicbg.scf.imgtools.image.filter;
 
+import de.mpicbg.scf.imgtools.image.access.PrimitiveRowAccess;
+import de.mpicbg.scf.imgtools.number.analyse.image.FeatureCondition;
 import de.mpicbg.scf.imgtools.number.analyse.image.LabelAnalyser;
 import de.mpicbg.scf.imgtools.number.analyse.image.LabelAnalyser.Feature;
+import de.mpicbg.scf.imgtools.number.analyse.image.LabelCensus;
+import de.mpicbg.scf.imgtools.number.analyse.image.SortedFeatureIndex;
 import de.mpicbg.scf.imgtools.ui.DebugHelper;
 import de.mpicbg.scf.imgtools.ui.ImageJUtilities;
 import ij.IJ;
@@ -9,12 +13,24 @@ import ij.ImagePlus;
 import ij.measure.Calibration;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.EnumSet;
 import net.imglib2.Cursor;
+import net.imglib2.FinalInterval;
 import net.imglib2.Interval;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.converter.Converter;
+import net.imglib2.converter.Converters;
 import net.imglib2.img.Img;
 import net.imglib2.img.display.imagej.ImageJFunctions;
 import net.imglib2.type.numeric.RealType;
 import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Intervals;
+import net.imglib2.util.Util;
+import net.imglib2.view.Views;
+import net.imglib2.view.composite.Composite;
 
 /**
  * This class is intended to provide functionalities for filtering objects in a
@@ -22,6 +38,10 @@ import net.imglib2.type.numeric.real.FloatType;
  * has to fulfill so that it may stay in the map. All objects which do not
  * fulfill the criteria, will be set to background ( = 0 ).
  * <p>
+ * Label maps which are larger than the memory can be processed in streaming mode, see ConstraintLabelmap(PlaneSupplier, long[], double[]): all labels
+ * are measured plane by plane in a first pass; in a second pass, writeResult() relabels plane by plane and hands the planes over to a consumer. Only one
+ * plane and the per-label tables are held in memory.
+ * <p>
  * Example code can be found in the ConstraintLabelMapTest class
  * <p>
  * /**
@@ -62,8 +82,17 @@ public class ConstraintLabelmap<I extends RealType<I>, F extends RealType<F>> {
     // optional input variables
     private boolean applyCheckOverLapWithOtherLabelMap = false;
     private Img<I> mustBeWithInLabelMap = null;
+    private Img<I> overlapMask = null;
     private Img<F> signalImage = null;
+
+    // streaming mode
+    private PlaneSupplier<I> labelPlanes = null;
+    private PlaneSupplier<F> signalPlanes = null;
+    private PlaneSupplier<I> overlapMaskPlanes = null;
+    private long[] dimensions = null;
     private boolean keepIds = false;
+    private int numThreads = 1;
+    private boolean sparseLabelIds = false;
 
     // output variables
     private int[] dims = null;
@@ -72,6 +101,73 @@ public class ConstraintLabelmap<I extends RealType<I>, F extends RealType<F>> {
 
     private int remainingCount = 0;
 
+    // feature cache: measurements are reused as long as label map, signal image, voxel size and sparse mode are unchanged and all needed features were
+    // measured. Changing thresholds or keepIds then only repeats the relabelling.
+    private LabelAnalyser<I, F> cachedAnalyser = null;
+    private EnumSet<Feature> cachedFeatures = null;
+    private Img<F> cachedSignalImage = null;
+    private Img<I> cachedOverlapMask = null;
+    private PlaneSupplier<F> cachedSignalPlanes = null;
+    private PlaneSupplier<I> cachedOverlapMaskPlanes = null;
+    private double[] cachedVoxelSize = null;
+    private boolean cachedSparseLabelIds = false;
+    private Img<I> cachedMask = null;
+    private int cachedMaskedNumLabels = 0;
+    private final EnumMap<Feature, SortedFeatureIndex> sortedIndices = new EnumMap<Feature, SortedFeatureIndex>(Feature.class);
+
+    // incremental update: output value per label of the current result
+    private boolean incrementalUpdate = false;
+    private int[] previousOutputValues = null;
+
+    // output mode and what is needed to create the result lazily
+    private OutputMode outputMode = OutputMode.COPY;
+    private LabelCensus resultCensus = null;
+    private int[] resultOutputValues = null;
+
+    /**
+     * Delivers the planes of an image in streaming mode, e.g. by reading them from disk.
+     *
+     * @param <T> pixel type
+     */
+    public interface PlaneSupplier<T> {
+        /**
+         * @param z index of the plane
+         * @return 2D image of the plane; every call should deliver a new image, because it may be modified.
+         */
+        Img<T> getPlane(int z);
+    }
+
+    /**
+     * Receives the planes of the result in streaming mode, e.g. to write them to disk.
+     *
+     * @param <T> pixel type
+     */
+    public interface PlaneConsumer<T> {
+        /**
+         * @param z     index of the plane
+         * @param plane 2D image of the plane
+         */
+        void consumePlane(int z, Img<T> plane);
+    }
+
+    /**
+     * Defines where the result is written to.
+     */
+    public enum OutputMode {
+        /**
+         * The result is a filtered copy of the label map (default).
+         */
+        COPY,
+        /**
+         * The label map given in the constructor is rewritten. No copy is made; after getResult(), all measurements refer to the rewritten label map.
+         */
+        IN_PLACE,
+        /**
+         * getResultView() delivers a view on the label map which applies the relabelling while reading. The copy is made in getResult() only.
+         */
+        VIEW
+    }
+
     private class Constraint {
         // input variables
         public final LabelAnalyser.Feature feature;
@@ -91,6 +187,7 @@ public class ConstraintLabelmap<I extends RealType<I>, F extends RealType<F>> {
     }
 
     private final ArrayList<Constraint> constraintList = new ArrayList<Constraint>();
+    private final ArrayList<FeatureCondition> conditionList = new ArrayList<FeatureCondition>();
     private final double[] voxelSize;
 
     /**
@@ -106,6 +203,21 @@ public class ConstraintLabelmap<I extends RealType<I>, F extends RealType<F>> {
         this.voxelSize = voxelSize;
     }
 
+    /**
+     * Streaming mode for label maps which do not fit into memory. Instead of getResult(), call writeResult(). Every plane is read twice: once for the
+     * measurements and once for relabelling.
+     *
+     * @param labelPlanes supplier of the planes of the label map
+     * @param dimensions  dimensions of the label map: width, height and number of planes
+     * @param voxelSize   array with voxel size information
+     */
+    public ConstraintLabelmap(PlaneSupplier<I> labelPlanes, long[] dimensions, double[] voxelSize) {
+        this.labelMap = null;
+        this.labelPlanes = labelPlanes;
+        this.dimensions = dimensions.clone();
+        this.voxelSize = voxelSize;
+    }
+
     /**
      * internal handler, which is called as soon as a request to the processed
      * labelmap from outside comes.
@@ -115,83 +227,420 @@ public class ConstraintLabelmap<I extends RealType<I>, F extends RealType<F>> {
             return;
         }
 
-        resultingLabelMap = labelMap.copy();
+        // do measurements according to the list of constraints. All labels are measured in a single sweep.
+        EnumSet<Feature> measurements = EnumSet.noneOf(Feature.class);
+        for (Constraint constraint : constraintList) {
+            measurements.add(constraint.feature);
+        }
+        for (FeatureCondition condition : conditionList) {
+            measurements.addAll(condition.getFeatures());
+        }
+        if (labelMap == null && applyCheckOverLapWithOtherLabelMap) {
+            throw new IllegalStateException("Masking is not supported in streaming mode, use setOverlapMaskPlanes() and constrain OVERLAP_FRACTION instead.");
+        }
+        LabelAnalyser<I, F> lpa = getAnalyser(measurements);
+        LabelCensus census = lpa.getCensus();
+
+        // nr of initial labels; the census of the analyser's sweep already delivers it unless the label map is masked
+        int numLabels;
+        if (sparseLabelIds) {
+            numLabels = census.getNumIndices();
+        } else if (this.applyCheckOverLapWithOtherLabelMap) {
+            numLabels = getMaskedNumLabels();
+        } else {
+            numLabels = census.getMaxLabel();
+        }
+        DebugHelper.print(this, "There were " + numLabels + " objects before  filtering ()");
+
+        int[] outputValues = evaluateConstraints(lpa, census, numLabels);
+        resultCensus = census;
+        resultOutputValues = outputValues;
+
+        // actually change the label map, depending on the output mode. In streaming mode, the planes are relabelled in writeResult() only, as in VIEW
+        // mode.
+        switch (labelMap == null ? OutputMode.VIEW : outputMode) {
+            case COPY:
+                // in incremental mode, the previous result is patched instead of copying the label map again
+                boolean patch = incrementalUpdate && previousOutputValues != null && resultingLabelMap != null && previousOutputValues.length == numLabels;
+                if (!patch || !patchChangedLabels(census, previousOutputValues, outputValues)) {
+                    resultingLabelMap = createMaskedCopy();
+                    relabel(resultingLabelMap, census, outputValues);
+                }
+                previousOutputValues = incrementalUpdate ? outputValues : null;
+                break;
+            case IN_PLACE:
+                resultingLabelMap = labelMap;
+                if (this.applyCheckOverLapWithOtherLabelMap) {
+                    ImageFilterUtilities.maskImage(resultingLabelMap, mustBeWithInLabelMap, false);
+                }
+                relabel(resultingLabelMap, census, outputValues);
+                // the measurements describe the label map before it was rewritten
+                clearFeatureCache();
+                break;
+            case VIEW:
+                // the image is created in getResult() only
+                resultingLabelMap = null;
+                break;
+        }
 
+        resultValid = true;
+        DebugHelper.print(this, "There were " + (remainingCount) + " objects after filtering");
+    }
+
+    private Img<I> createMaskedCopy() {
+        Img<I> copy = labelMap.copy();
         if (this.applyCheckOverLapWithOtherLabelMap) {
-            resultingLabelMap = ImageFilterUtilities.maskImage(resultingLabelMap, mustBeWithInLabelMap);
+            copy = ImageFilterUtilities.maskImage(copy, mustBeWithInLabelMap, false);
         }
+        return copy;
+    }
 
-        Cursor<I> cursor = resultingLabelMap.cursor();
+    /**
+     * @return highest label id in the label map which has at least one pixel inside the mask; the label map is not copied for that.
+     */
+    private int getMaskedNumLabels() {
+        if (cachedMask != mustBeWithInLabelMap) {
+            int maxLabel = 0;
+            Cursor<I> cursor = Views.flatIterable(labelMap).cursor();
+            Cursor<I> maskCursor = Views.flatIterable(mustBeWithInLabelMap).cursor();
+            while (cursor.hasNext() && maskCursor.hasNext()) {
+                int value = (int) cursor.next().getRealFloat();
+                if (maskCursor.next().getRealDouble() != 0 && value > maxLabel) {
+                    maxLabel = value;
+                }
+            }
+            cachedMaskedNumLabels = maxLabel;
+            cachedMask = mustBeWithInLabelMap;
+        }
+        return cachedMaskedNumLabels;
+    }
 
-        // nr of initial labels
-        long[] histogram = LabelAnalyser.getLabelsPixelCount(resultingLabelMap);
-        DebugHelper.print(this, "There were " + histogram.length + " objects before  filtering ()");
-        if (histogram.length == 0) {
-            return;
+    /**
+     * Go through all entries in the list of constraints and decide which objects can stay. Every constraint is a range query on the sorted index of its
+     * feature, so only the labels inside the range are visited. Labels with a NaN value are never rejected, as before.
+     *
+     * @param lpa       analyser with all features of the constraints
+     * @param census    census of the label map
+     * @param numLabels number of entries to decide on
+     * @return for every entry the value it gets in the result, 0 for removed labels
+     */
+    private int[] evaluateConstraints(LabelAnalyser<I, F> lpa, LabelCensus census, int numLabels) {
+        int[] passedConstraints = new int[numLabels];
+        for (Constraint constraint : constraintList) {
+            SortedFeatureIndex index = getSortedIndex(lpa, constraint.feature);
+            int from = index.lowerBound(constraint.lowerThreshold);
+            int to = Math.max(from, index.upperBound(constraint.upperThreshold));
+
+            int passed = 0;
+            for (int position = from; position < to; position++) {
+                int i = index.getIndexAt(position);
+                if (i < numLabels) {
+                    passedConstraints[i]++;
+                    passed++;
+                }
+            }
+            for (int position = index.getNumValid(); position < index.size(); position++) {
+                int i = index.getIndexAt(position);
+                if (i < numLabels) {
+                    passedConstraints[i]++;
+                    passed++;
+                }
+            }
+            constraint.affectedLabelCount = numLabels - passed;
         }
-        int[] newLabels = new int[histogram.length];
 
-        // counter starts with 1 to skip the background
-        int labelCount = 1;
-        newLabels[0] = 0;
-
-        // do measurements according to the list of constraints
-        LabelAnalyser<I, F> lpa = null;
-        if (constraintList.size() > 0) {
-            Feature[] measurements = new Feature[constraintList.size()];
-            for (int i = 0; i < measurements.length; i++) {
-                measurements[i] = constraintList.get(i).feature;
+        // conditions are evaluated column-wise for all labels at once
+        if (!conditionList.isEmpty()) {
+            EnumMap<Feature, double[]> features = new EnumMap<Feature, double[]>(Feature.class);
+            for (FeatureCondition condition : conditionList) {
+                for (Feature feature : condition.getFeatures()) {
+                    features.put(feature, lpa.getFeatures(feature));
+                }
+            }
+            for (FeatureCondition condition : conditionList) {
+                boolean[] passed = condition.evaluate(features, numLabels);
+                for (int i = 0; i < numLabels; i++) {
+                    if (passed[i]) {
+                        passedConstraints[i]++;
+                    }
+                }
             }
+        }
 
-            lpa = new LabelAnalyser<I, F>(labelMap, voxelSize, measurements);
-            if (this.signalImage != null) {
-                lpa.setSignalImage(signalImage);
+        // counter starts with 1 to skip the background
+        int labelCount = 1;
+        int[] outputValues = new int[numLabels];
+        for (int i = 0; i < numLabels; i++) {
+            if (passedConstraints[i] == constraintList.size() + conditionList.size()) {
+                outputValues[i] = keepIds ? census.getLabelId(i) : labelCount;
+                labelCount++;
             }
         }
+        remainingCount = labelCount - 1;
+        return outputValues;
+    }
 
-        // Go through all entries in the list of constraints and decide if the object can stay.
-        for (int i = 0; i < histogram.length; i++) {
-            boolean keepObject = true;
+    private SortedFeatureIndex getSortedIndex(LabelAnalyser<I, F> lpa, Feature feature) {
+        SortedFeatureIndex index = sortedIndices.get(feature);
+        if (index == null) {
+            index = new SortedFeatureIndex(lpa.getFeatures(feature));
+            sortedIndices.put(feature, index);
+        }
+        return index;
+    }
 
-            if (lpa != null) {
-                for (int c = 0; c < this.constraintList.size(); c++) {
-                    Constraint constraint = constraintList.get(c);
-                    double value = lpa.getFeatures(constraint.feature)[i];
+    /**
+     * Write the output values into the (copy of the original) label map.
+     *
+     * @param target       label map or plane to be relabelled
+     * @param census       census of the label map
+     * @param outputValues new value for every entry, 0 for removed labels
+     */
+    private void relabel(Img<I> target, LabelCensus census, int[] outputValues) {
+        if (sparseLabelIds) {
+            relabelSparse(target, census, outputValues);
+            return;
+        }
 
-                    if (value < constraint.lowerThreshold || value > constraint.upperThreshold) {
-                        constraint.affectedLabelCount++;
-                        keepObject = false;
-                    }
+        int numLabels = outputValues.length;
+        PrimitiveRowAccess rows = PrimitiveRowAccess.wrap(target);
+        if (rows != null) {
+            int[] lut = new int[numLabels + 1];
+            System.arraycopy(outputValues, 0, lut, 1, numLabels);
+            for (long row = 0; row < rows.getNumRows(); row++) {
+                rows.applyLut(row, lut);
+            }
+        } else {
+            Cursor<I> cursor = target.cursor();
+            while (cursor.hasNext()) {
+                int val = (int) cursor.next().getRealFloat();
+                if (val > 0 && val - 1 < numLabels && outputValues[val - 1] != val) {
+                    cursor.get().setReal(outputValues[val - 1]);
                 }
             }
+        }
+    }
 
-            if (keepObject) {
-                newLabels[i] = labelCount;
-                labelCount++;
-            } else {
-                newLabels[i] = 0;
+    /**
+     * Update the previous result for all labels whose output value changed, e.g. because a threshold was moved. Only the bounding boxes of these labels
+     * are visited.
+     *
+     * @param census         census of the label map
+     * @param previousValues output values of the previous result
+     * @param outputValues   new output values
+     * @return false, if the bounding boxes together are larger than the image; the caller should relabel everything then.
+     */
+    private boolean patchChangedLabels(LabelCensus census, int[] previousValues, int[] outputValues) {
+        int changedCount = 0;
+        int[] changed = new int[outputValues.length];
+        long patchSize = 0;
+        for (int i = 0; i < outputValues.length; i++) {
+            int labelId = census.getLabelId(i);
+            if (previousValues[i] != outputValues[i] && census.isPresent(labelId)) {
+                changed[changedCount] = i;
+                changedCount++;
+                patchSize += Intervals.numElements(census.getBoundingInterval(labelId));
             }
         }
+        DebugHelper.print(this, "Patching " + changedCount + " labels");
+        if (patchSize > Intervals.numElements(labelMap)) {
+            return false;
+        }
 
-        // actually change the (copy of the original) label map
-        while (cursor.hasNext()) {
-            int val = (int) cursor.next().getRealFloat();
-            if (val > 0 && val - 1 < newLabels.length) {
-                if (keepIds) {
-                    if (newLabels[val - 1] == 0) {
-                        cursor.get().setReal(0);
+        RandomAccess<I> resultAccess = resultingLabelMap.randomAccess();
+        RandomAccess<I> maskAccess = applyCheckOverLapWithOtherLabelMap ? mustBeWithInLabelMap.randomAccess() : null;
+        for (int c = 0; c < changedCount; c++) {
+            int i = changed[c];
+            int labelId = census.getLabelId(i);
+            Cursor<I> cursor = Views.interval(labelMap, census.getBoundingInterval(labelId)).localizingCursor();
+            while (cursor.hasNext()) {
+                if ((int) cursor.next().getRealFloat() != labelId) {
+                    continue;
+                }
+                if (maskAccess != null) {
+                    maskAccess.setPosition(cursor);
+                    if (maskAccess.get().getRealDouble() == 0) {
+                        continue;
                     }
-                } else {
-                    cursor.get().setReal(newLabels[val - 1]);
                 }
+                resultAccess.setPosition(cursor);
+                resultAccess.get().setReal(outputValues[i]);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Deliver an analyser which has measured at least the given features, either from the cache or by measuring all labels again. If the cache is
+     * still valid except for missing features, the new analyser measures the union of cached and requested features in one sweep, so that switching
+     * between constraints does not measure again.
+     *
+     * @param measurements features needed by the constraints
+     * @return label analyser with valid measurements
+     */
+    private LabelAnalyser<I, F> getAnalyser(EnumSet<Feature> measurements) {
+        boolean sameInput = cachedAnalyser != null && cachedSignalImage == signalImage && cachedOverlapMask == overlapMask
+                && cachedSignalPlanes == signalPlanes && cachedOverlapMaskPlanes == overlapMaskPlanes
+                && Arrays.equals(cachedVoxelSize, voxelSize) && cachedSparseLabelIds == sparseLabelIds;
+        if (sameInput && cachedFeatures.containsAll(measurements)) {
+            return cachedAnalyser;
+        }
+
+        EnumSet<Feature> features = EnumSet.copyOf(measurements);
+        if (sameInput) {
+            features.addAll(cachedFeatures);
+        }
+
+        LabelAnalyser<I, F> lpa;
+        if (labelMap == null) {
+            lpa = measurePlanes(features);
+        } else {
+            lpa = new LabelAnalyser<I, F>(labelMap, voxelSize, features);
+            lpa.setNumThreads(numThreads);
+            lpa.setSparseLabelIds(sparseLabelIds);
+            if (this.signalImage != null) {
+                lpa.setSignalImage(signalImage);
+            }
+            if (this.overlapMask != null) {
+                lpa.setOverlapMask(overlapMask);
             }
         }
 
-        resultValid = true;
-        remainingCount = labelCount - 1;
-        DebugHelper.print(this, "There were " + (remainingCount) + " objects after filtering");
+        cachedAnalyser = lpa;
+        sortedIndices.clear();
+        previousOutputValues = null;
+        cachedFeatures = features;
+        cachedSignalImage = signalImage;
+        cachedOverlapMask = overlapMask;
+        cachedSignalPlanes = signalPlanes;
+        cachedOverlapMaskPlanes = overlapMaskPlanes;
+        cachedVoxelSize = voxelSize == null ? null : voxelSize.clone();
+        cachedSparseLabelIds = sparseLabelIds;
+        return lpa;
+    }
+
+    /**
+     * Streaming mode: measure the label map plane by plane.
+     *
+     * @param features features to be measured
+     * @return label analyser with valid measurements
+     */
+    private LabelAnalyser<I, F> measurePlanes(EnumSet<Feature> features) {
+        LabelAnalyser<I, F> lpa = new LabelAnalyser<I, F>(new FinalInterval(dimensions), voxelSize, features);
+        lpa.setSparseLabelIds(sparseLabelIds);
+        for (int z = 0; z < getNumPlanes(); z++) {
+            long[] offset = new long[dimensions.length];
+            if (dimensions.length > 2) {
+                offset[2] = z;
+            }
+            lpa.addBlock(offset, labelPlanes.getPlane(z), signalPlanes == null ? null : signalPlanes.getPlane(z),
+                    overlapMaskPlanes == null ? null : overlapMaskPlanes.getPlane(z));
+        }
+        lpa.getCensus();
+        return lpa;
+    }
+
+    private int getNumPlanes() {
+        return dimensions.length > 2 ? (int) dimensions[2] : 1;
+    }
+
+    /**
+     * Streaming mode: relabel the label map plane by plane and hand every plane over to the consumer in ascending order. The measurements are taken
+     * before in a separate pass, unless they are still cached from a previous call.
+     *
+     * @param consumer receiver of the resulting planes
+     */
+    public void writeResult(PlaneConsumer<I> consumer) {
+        if (labelMap != null) {
+            throw new IllegalStateException("writeResult() is only available in streaming mode, use getResult() instead.");
+        }
+        apply();
+
+        for (int z = 0; z < getNumPlanes(); z++) {
+            Img<I> plane = labelPlanes.getPlane(z);
+            relabel(plane, resultCensus, resultOutputValues);
+            consumer.consumePlane(z, plane);
+        }
     }
 
+    /**
+     * Forget all cached measurements. Measurements are cached as long as the same label map, signal image and voxel size are used. Call this method, if
+     * the pixels of the label map, the signal image or the mask were changed since the last call to getResult().
+     */
+    public void clearFeatureCache() {
+        cachedAnalyser = null;
+        sortedIndices.clear();
+        previousOutputValues = null;
+        cachedFeatures = null;
+        cachedSignalImage = null;
+        cachedOverlapMask = null;
+        cachedSignalPlanes = null;
+        cachedOverlapMaskPlanes = null;
+        cachedVoxelSize = null;
+        cachedMask = null;
+        resultValid = false;
+    }
+
+    /**
+     * Remove all constraints, e.g. to apply different thresholds. Measurements are kept in the cache, so the next call to getResult() only relabels.
+     */
+    public void clearConstraints() {
+        constraintList.clear();
+        conditionList.clear();
+        resultValid = false;
+    }
+
+    /**
+     * Relabel the result in sparse mode, where newValues is indexed by the dense index of the census instead of label id - 1. A look-up table over all
+     * label ids would be as large as the highest id, therefore the new label is determined through the index map of the census. Consecutive pixels
+     * mostly carry the same label, so the last translation is reused.
+     *
+     * @param target    label map or plane to be relabelled
+     * @param census    census of the label map with sparse label ids
+     * @param newValues new value per dense index, 0 for removed labels
+     */
+    private void relabelSparse(Img<I> target, LabelCensus census, int[] newValues) {
+        PrimitiveRowAccess rows = PrimitiveRowAccess.wrap(target);
+        if (rows != null) {
+            int[] row = new int[rows.getRowLength()];
+            for (long r = 0; r < rows.getNumRows(); r++) {
+                rows.readRow(r, row);
+                boolean changed = false;
+                int lastValue = 0;
+                int lastNewValue = 0;
+                for (int x = 0; x < row.length; x++) {
+                    int value = row[x];
+                    if (value != lastValue) {
+                        int index = census.getIndex(value);
+                        lastValue = value;
+                        lastNewValue = index < 0 ? value : newValues[index];
+                    }
+                    if (lastNewValue != value) {
+                        row[x] = lastNewValue;
+                        changed = true;
+                    }
+                }
+                if (changed) {
+                    rows.writeRow(r, row);
+                }
+            }
+        } else {
+            Cursor<I> cursor = target.cursor();
+            int lastValue = 0;
+            int lastNewValue = 0;
+            while (cursor.hasNext()) {
+                int value = (int) cursor.next().getRealFloat();
+                if (value != lastValue) {
+                    int index = census.getIndex(value);
+                    lastValue = value;
+                    lastNewValue = index < 0 ? value : newValues[index];
+                }
+                if (lastNewValue != value) {
+                    cursor.get().setReal(lastNewValue);
+                }
+            }
+        }
+    }
 
     /**
      * Set a (binary) mask, only pixels != 0 will be kept in the processed label map
@@ -201,11 +650,45 @@ public class ConstraintLabelmap<I extends RealType<I>, F extends RealType<F>> {
     public void setMustOverLapWithOtherLabelMap(ImagePlus otherLabelMap) {
         applyCheckOverLapWithOtherLabelMap = true;
         mustBeWithInLabelMap = ImageJFunctions.wrapReal(otherLabelMap);
+        previousOutputValues = null;
+        resultValid = false;
+    }
+
+    /**
+     * Set a (binary) mask for the features OVERLAP_VOXELS and OVERLAP_FRACTION. In contrast to setMustOverLapWithOtherLabelMap(), no pixels are removed;
+     * whole labels are kept or removed by constraints on their overlap with the mask, e.g. addConstraint(Feature.OVERLAP_FRACTION, 0.6, 1) keeps all
+     * labels which lie at least by 60% inside the mask. The overlap is counted in the same sweep as all other features.
+     *
+     * @param mask image of the same size as the label map, pixels != 0 are inside the mask
+     */
+    public void setOverlapMask(ImagePlus mask) {
+        overlapMask = ImageJFunctions.wrapReal(mask);
+        resultValid = false;
+    }
+
+    /**
+     * Streaming mode: mask for the features OVERLAP_VOXELS and OVERLAP_FRACTION, see setOverlapMask().
+     *
+     * @param overlapMaskPlanes supplier of the planes of the mask
+     */
+    public void setOverlapMaskPlanes(PlaneSupplier<I> overlapMaskPlanes) {
+        this.overlapMaskPlanes = overlapMaskPlanes;
         resultValid = false;
     }
 
 
 
+    /**
+     * add a condition for filtering the label map, e.g. combining several features with or() or comparing ratios of features. Labels are kept if they
+     * fulfil all constraints and all conditions.
+     *
+     * @param condition condition every remaining label has to fulfil
+     */
+    public void addConstraint(FeatureCondition condition) {
+        conditionList.add(condition);
+        resultValid = false;
+    }
+
     /**
      * add a constraint for filtering the label map.
      *
@@ -214,6 +697,9 @@ public class ConstraintLabelmap<I extends RealType<I>, F extends RealType<F>> {
      * @param upperThreshold What is the maximum value that is allowed to keep the label?
      */
     public void addConstraint(LabelAnalyser.Feature measurement, double lowerThreshold, double upperThreshold) {
+        if (measurement == Feature.BBOX) {
+            throw new IllegalArgumentException("Bounding boxes have more than one value per label and can not be constrained by thresholds.");
+        }
         Constraint c = new Constraint(measurement, lowerThreshold, upperThreshold);
         constraintList.add(c);
         resultValid = false;
@@ -228,6 +714,16 @@ public class ConstraintLabelmap<I extends RealType<I>, F extends RealType<F>> {
         resultValid = false;
     }
 
+    /**
+     * Streaming mode: signal image, see setSignalImage().
+     *
+     * @param signalPlanes supplier of the planes of the signal image
+     */
+    public void setSignalPlanes(PlaneSupplier<F> signalPlanes) {
+        this.signalPlanes = signalPlanes;
+        resultValid = false;
+    }
+
     /**
      * If this parameter is set to true, constrainting means setting deleted labels to zero and keeping the IDs of all other labels. Example:
      * <p>
@@ -242,18 +738,140 @@ public class ConstraintLabelmap<I extends RealType<I>, F extends RealType<F>> {
         resultValid = false;
     }
 
+    /**
+     * Handle label maps with large, sparse ids: only present labels are measured and relabelling uses a map instead of a look-up table over all ids.
+     * Without keepIds, the remaining labels are numbered consecutively in ascending order of their original ids; ids which are not present in the label
+     * map are not counted. See LabelAnalyser.setSparseLabelIds().
+     *
+     * @param sparseLabelIds default: false
+     */
+    public void setSparseLabelIds(boolean sparseLabelIds) {
+        this.sparseLabelIds = sparseLabelIds;
+        resultValid = false;
+    }
+
+    /**
+     * In incremental mode, the result of the previous call to getResult() is updated instead of being created again: after changing thresholds or
+     * keepIds, only the labels whose value in the result changes are rewritten, visiting their bounding boxes only. This allows interactive filtering of
+     * large label maps. Note that the image returned earlier by getResult() is changed then.
+     *
+     * @param incrementalUpdate default: false
+     */
+    public void setIncrementalUpdate(boolean incrementalUpdate) {
+        this.incrementalUpdate = incrementalUpdate;
+        previousOutputValues = null;
+        resultValid = false;
+    }
+
+    /**
+     * Set the number of threads used for measuring the labels.
+     *
+     * @param numThreads default: 1
+     */
+    public void setNumThreads(int numThreads) {
+        this.numThreads = numThreads;
+        resultValid = false;
+    }
+
     /**
      * Deliver resulting label map and Img of given type
      *
      * @return filtered / constrained label map
      */
     public Img<I> getResult() {
+        if (labelMap == null) {
+            throw new IllegalStateException("In streaming mode, the result is delivered by writeResult().");
+        }
 
         apply();
 
+        if (resultingLabelMap == null) {
+            // materialize the view
+            resultingLabelMap = createMaskedCopy();
+            relabel(resultingLabelMap, resultCensus, resultOutputValues);
+        }
         return resultingLabelMap;
     }
 
+    /**
+     * Deliver the resulting label map without forcing a copy: in VIEW mode, a read-only view on the label map is returned, which looks up the new value
+     * of every pixel while reading. In the other modes, the result image is returned.
+     *
+     * @return filtered / constrained label map
+     */
+    public RandomAccessibleInterval<I> getResultView() {
+        if (labelMap == null) {
+            throw new IllegalStateException("In streaming mode, the result is delivered by writeResult().");
+        }
+
+        apply();
+
+        if (resultingLabelMap != null) {
+            return resultingLabelMap;
+        }
+
+        final LabelCensus census = resultCensus;
+        final int[] outputValues = resultOutputValues;
+        final boolean sparse = sparseLabelIds;
+        I type = Util.getTypeFromInterval(labelMap).createVariable();
+
+        if (!applyCheckOverLapWithOtherLabelMap) {
+            return Converters.convert(labelMap, new Converter<I, I>() {
+                @Override
+                public void convert(I input, I output) {
+                    output.setReal(getOutputValue((int) input.getRealFloat(), census, outputValues, sparse));
+                }
+            }, type);
+        }
+
+        // label map and mask are stacked, so that every pixel of the view can read both
+        @SuppressWarnings("unchecked")
+        RandomAccessibleInterval<I> stack = Views.stack(labelMap, mustBeWithInLabelMap);
+        return Converters.convert(Views.collapse(stack), new Converter<Composite<I>, I>() {
+            @Override
+            public void convert(Composite<I> input, I output) {
+                if (input.get(1).getRealDouble() == 0) {
+                    output.setReal(0);
+                } else {
+                    output.setReal(getOutputValue((int) input.get(0).getRealFloat(), census, outputValues, sparse));
+                }
+            }
+        }, type);
+    }
+
+    private static int getOutputValue(int value, LabelCensus census, int[] outputValues, boolean sparse) {
+        if (sparse) {
+            int index = census.getIndex(value);
+            return index < 0 ? value : outputValues[index];
+        }
+        if (value > 0 && value <= outputValues.length) {
+            return outputValues[value - 1];
+        }
+        return value;
+    }
+
+    /**
+     * @param outputMode default: COPY
+     */
+    public void setOutputMode(OutputMode outputMode) {
+        this.outputMode = outputMode;
+        previousOutputValues = null;
+        resultingLabelMap = null;
+        resultValid = false;
+    }
+
+    /**
+     * Return the number of labels which did not fulfil a condition or one of its clauses. In contrast to getAffectedObjectsCount(Feature), this works
+     * for every clause, also if several clauses use the same feature.
+     *
+     * @param condition a condition given to addConstraint(FeatureCondition) or any of its clauses
+     * @return number of rejected labels
+     */
+    public long getAffectedObjectsCount(FeatureCondition condition) {
+        apply();
+        return condition.getRejectedCount();
+    }
+
     /**
      * Return the number of labels which were removed because a certain constraint was not fulfilled
      *
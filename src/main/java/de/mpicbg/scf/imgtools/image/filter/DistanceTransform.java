@@ -0,0 +1,460 @@
+package de.mpicbg.scf.imgtools.image.filter;
+
+import de.mpicbg.scf.imgtools.image.access.BinaryImageUtilities;
+import de.mpicbg.scf.imgtools.image.access.PrimitiveRowAccess;
+import net.imglib2.Cursor;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
+
+/**
+ * Exact Euclidean distance transform of label maps in linear time, following the separable algorithm of Felzenszwalb and Huttenlocher (Distance
+ * Transforms of Sampled Functions, 2012): the squared distance is determined along the first axis and then refined axis by axis by the lower envelope of
+ * parabolas. The cost is independent of any radius and the voxel size is taken into account in every axis.
+ * <p>
+ * In contrast to the transform of binary images, every pixel gets the distance to the nearest pixel with a different label. Along every axis, each run of
+ * equal labels is transformed separately, bounded by its neighbouring pixels of different labels; pixels beyond a run never deliver a smaller distance than
+ * these. The area outside the image counts as background (label 0). Erosion of a label map and dilation of a binary image are thresholds of this distance,
+ * see LabelmapMathematicalMorphology.
+ * <p>
+ * Date: October 2026
+ * <p>
+ * Copyright 2026 Max Planck Institute of Molecular Cell Biology and Genetics,
+ * Dresden, Germany
+ * <p>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+public class DistanceTransform {
+
+    /**
+     * @param labelMap  label map or binary image; values are truncated to integers
+     * @param voxelSize size of a pixel in every dimension, may be null for isotropic pixels of size 1
+     * @param <T>       type of the label map
+     * @return squared distance of every pixel to the nearest pixel with a different label, in the units of the voxel size; positive infinity, if there is
+     * no such pixel
+     */
+    public static <T extends RealType<T>> Img<FloatType> getSquaredDistanceToOtherLabels(RandomAccessibleInterval<T> labelMap, double[] voxelSize) {
+        long[] dimensions = Intervals.dimensionsAsLongArray(labelMap);
+        float[] distances = getSquaredDistanceToOtherLabels(readLabels(labelMap), dimensions, voxelSize);
+        return ArrayImgs.floats(distances, dimensions);
+    }
+
+    /**
+     * @param labels     labels of all pixels in flat iteration order
+     * @param dimensions dimensions of the label map
+     * @param voxelSize  size of a pixel in every dimension, may be null for isotropic pixels of size 1
+     * @return squared distance of every pixel to the nearest pixel with a different label in flat iteration order
+     */
+    public static float[] getSquaredDistanceToOtherLabels(int[] labels, long[] dimensions, double[] voxelSize) {
+        float[] distances = new float[labels.length];
+        getSquaredDistanceToOtherLabels(labels, dimensions, voxelSize, distances);
+        return distances;
+    }
+
+    /**
+     * Distance transform into a given array, see getSquaredDistanceToOtherLabels(int[], long[], double[]). Both arrays may be larger than the label map;
+     * only the first pixels are used.
+     *
+     * @param labels     labels of all pixels in flat iteration order
+     * @param dimensions dimensions of the label map
+     * @param voxelSize  size of a pixel in every dimension, may be null for isotropic pixels of size 1
+     * @param distances  array to fill with the squared distance of every pixel to the nearest pixel with a different label
+     */
+    public static void getSquaredDistanceToOtherLabels(int[] labels, long[] dimensions, double[] voxelSize, float[] distances) {
+        int numPixels = numPixels(dimensions);
+
+        int maxLength = 1;
+        for (long dimension : dimensions) {
+            maxLength = (int) Math.max(maxLength, dimension);
+        }
+        int[] lineLabels = new int[maxLength];
+        double[] lineValues = new double[maxLength];
+        double[] lineResult = new double[maxLength];
+        double[] sitePositions = new double[maxLength + 2];
+        double[] siteValues = new double[maxLength + 2];
+        double[] borders = new double[maxLength + 3];
+
+        int stride = 1;
+        for (int d = 0; d < dimensions.length; d++) {
+            int length = (int) dimensions[d];
+            double factor = voxelSize != null && d < voxelSize.length ? voxelSize[d] : 1;
+            int numLines = numPixels / length;
+            for (int line = 0; line < numLines; line++) {
+                int start = (line / stride) * stride * length + line % stride;
+                for (int i = 0; i < length; i++) {
+                    lineLabels[i] = labels[start + i * stride];
+                    // before the first axis, no pixel of a different label is known
+                    lineValues[i] = d == 0 ? Double.POSITIVE_INFINITY : distances[start + i * stride];
+                }
+                transformLine(lineLabels, lineValues, length, factor, lineResult, sitePositions, siteValues, borders);
+                for (int i = 0; i < length; i++) {
+                    distances[start + i * stride] = (float) lineResult[i];
+                }
+            }
+            stride *= length;
+        }
+    }
+
+    /**
+     * Feature transform: determine for every pixel the nearest labelled pixel (label != 0) and its label. Labelled pixels are their own nearest pixel.
+     * The runtime is linear in the number of pixels. If several labelled pixels are equally near, one of them is chosen deterministically.
+     *
+     * @param labels        labels of all pixels in flat iteration order
+     * @param dimensions    dimensions of the label map
+     * @param voxelSize     size of a pixel in every dimension, may be null for isotropic pixels of size 1
+     * @param nearestLabels array of the same size as labels, which is filled with the label of the nearest labelled pixel, or 0 if there is none
+     * @return squared distance of every pixel to the nearest labelled pixel in flat iteration order; positive infinity, if there is none
+     */
+    public static float[] getSquaredDistanceToLabels(int[] labels, long[] dimensions, double[] voxelSize, int[] nearestLabels) {
+        float[] distances = new float[labels.length];
+        getSquaredDistanceToLabels(labels, dimensions, voxelSize, nearestLabels, distances);
+        return distances;
+    }
+
+    /**
+     * Feature transform into given arrays, see getSquaredDistanceToLabels(int[], long[], double[], int[]). All arrays may be larger than the label map;
+     * only the first pixels are used.
+     *
+     * @param labels        labels of all pixels in flat iteration order
+     * @param dimensions    dimensions of the label map
+     * @param voxelSize     size of a pixel in every dimension, may be null for isotropic pixels of size 1
+     * @param nearestLabels array to fill with the label of the nearest labelled pixel, may be the labels array itself
+     * @param distances     array to fill with the squared distance of every pixel to the nearest labelled pixel
+     */
+    public static void getSquaredDistanceToLabels(int[] labels, long[] dimensions, double[] voxelSize, int[] nearestLabels, float[] distances) {
+        int numPixels = numPixels(dimensions);
+
+        int maxLength = 1;
+        for (long dimension : dimensions) {
+            maxLength = (int) Math.max(maxLength, dimension);
+        }
+        double[] lineValues = new double[maxLength];
+        int[] lineFeatures = new int[maxLength];
+        double[] lineResult = new double[maxLength];
+        int[] lineResultFeatures = new int[maxLength];
+        double[] sitePositions = new double[maxLength];
+        double[] siteValues = new double[maxLength];
+        int[] siteFeatures = new int[maxLength];
+        double[] borders = new double[maxLength + 1];
+
+        int stride = 1;
+        for (int d = 0; d < dimensions.length; d++) {
+            int length = (int) dimensions[d];
+            double factor = voxelSize != null && d < voxelSize.length ? voxelSize[d] : 1;
+            int numLines = numPixels / length;
+            for (int line = 0; line < numLines; line++) {
+                int start = (line / stride) * stride * length + line % stride;
+                for (int i = 0; i < length; i++) {
+                    if (d == 0) {
+                        int label = labels[start + i * stride];
+                        lineValues[i] = label != 0 ? 0 : Double.POSITIVE_INFINITY;
+                        lineFeatures[i] = label;
+                    } else {
+                        lineValues[i] = distances[start + i * stride];
+                        lineFeatures[i] = nearestLabels[start + i * stride];
+                    }
+                }
+                transformLine(lineValues, lineFeatures, length, factor, lineResult, lineResultFeatures, sitePositions, siteValues, siteFeatures,
+                        borders);
+                for (int i = 0; i < length; i++) {
+                    distances[start + i * stride] = (float) lineResult[i];
+                    nearestLabels[start + i * stride] = lineResultFeatures[i];
+                }
+            }
+            stride *= length;
+        }
+    }
+
+    private static int numPixels(long[] dimensions) {
+        int numPixels = 1;
+        for (long dimension : dimensions) {
+            numPixels *= (int) dimension;
+        }
+        return numPixels;
+    }
+
+    /**
+     * Transform a whole line: for every pixel, the minimum of (distance along the line)^2 + value over all pixels of the line, together with the feature of
+     * the minimal pixel.
+     */
+    private static void transformLine(double[] values, int[] features, int length, double factor, double[] result, int[] resultFeatures,
+                                      double[] sitePositions, double[] siteValues, int[] siteFeatures, double[] borders) {
+        // lower envelope of the parabolas of all sites, sorted by position
+        int k = -1;
+        for (int q = 0; q < length; q++) {
+            double value = values[q];
+            if (value == Double.POSITIVE_INFINITY) {
+                continue;
+            }
+            double position = q * factor;
+            if (k < 0) {
+                k = 0;
+                sitePositions[0] = position;
+                siteValues[0] = value;
+                siteFeatures[0] = features[q];
+                borders[0] = Double.NEGATIVE_INFINITY;
+                borders[1] = Double.POSITIVE_INFINITY;
+                continue;
+            }
+            double intersection = intersect(position, value, sitePositions[k], siteValues[k]);
+            while (intersection <= borders[k]) {
+                k--;
+                intersection = intersect(position, value, sitePositions[k], siteValues[k]);
+            }
+            k++;
+            sitePositions[k] = position;
+            siteValues[k] = value;
+            siteFeatures[k] = features[q];
+            borders[k] = intersection;
+            borders[k + 1] = Double.POSITIVE_INFINITY;
+        }
+
+        // read the envelope
+        if (k < 0) {
+            for (int p = 0; p < length; p++) {
+                result[p] = Double.POSITIVE_INFINITY;
+                resultFeatures[p] = 0;
+            }
+            return;
+        }
+        int site = 0;
+        for (int p = 0; p < length; p++) {
+            double position = p * factor;
+            while (borders[site + 1] < position) {
+                site++;
+            }
+            double delta = position - sitePositions[site];
+            result[p] = delta * delta + siteValues[site];
+            resultFeatures[p] = siteFeatures[site];
+        }
+    }
+
+    /**
+     * Transform a line run by run: for every pixel, the minimum of (distance along the line)^2 + value over all pixels of the same run and the pixels
+     * bounding the run, whose value is 0.
+     */
+    private static void transformLine(int[] labels, double[] values, int length, double factor, double[] result, double[] sitePositions,
+                                      double[] siteValues, double[] borders) {
+        int runStart = 0;
+        while (runStart < length) {
+            int label = labels[runStart];
+            int runEnd = runStart + 1;
+            while (runEnd < length && labels[runEnd] == label) {
+                runEnd++;
+            }
+
+            // lower envelope of the parabolas of all sites, sorted by position
+            int k = -1;
+            for (int q = runStart - 1; q <= runEnd; q++) {
+                double value;
+                if (q == runStart - 1 || q == runEnd) {
+                    // pixel of a different label; outside the image, only runs of background are not bounded
+                    boolean inside = q >= 0 && q < length;
+                    if (!inside && label == 0) {
+                        continue;
+                    }
+                    value = 0;
+                } else {
+                    value = values[q];
+                    if (value == Double.POSITIVE_INFINITY) {
+                        continue;
+                    }
+                }
+                double position = q * factor;
+                if (k < 0) {
+                    k = 0;
+                    sitePositions[0] = position;
+                    siteValues[0] = value;
+                    borders[0] = Double.NEGATIVE_INFINITY;
+                    borders[1] = Double.POSITIVE_INFINITY;
+                    continue;
+                }
+                // remove all parabolas which are hidden by the new one; the first one is bounded by -infinity and always stays
+                double intersection = intersect(position, value, sitePositions[k], siteValues[k]);
+                while (intersection <= borders[k]) {
+                    k--;
+                    intersection = intersect(position, value, sitePositions[k], siteValues[k]);
+                }
+                k++;
+                sitePositions[k] = position;
+                siteValues[k] = value;
+                borders[k] = intersection;
+                borders[k + 1] = Double.POSITIVE_INFINITY;
+            }
+
+            // read the envelope
+            if (k < 0) {
+                for (int p = runStart; p < runEnd; p++) {
+                    result[p] = Double.POSITIVE_INFINITY;
+                }
+            } else {
+                int site = 0;
+                for (int p = runStart; p < runEnd; p++) {
+                    double position = p * factor;
+                    while (borders[site + 1] < position) {
+                        site++;
+                    }
+                    double delta = position - sitePositions[site];
+                    result[p] = delta * delta + siteValues[site];
+                }
+            }
+            runStart = runEnd;
+        }
+    }
+
+    /**
+     * @return position where the parabolas (x - position)^2 + value of two sites intersect
+     */
+    private static double intersect(double position, double value, double otherPosition, double otherValue) {
+        return ((value + position * position) - (otherValue + otherPosition * otherPosition)) / (2 * position - 2 * otherPosition);
+    }
+
+    /**
+     * @param img label map
+     * @param <T> type of the label map
+     * @return values of all pixels truncated to int in flat iteration order
+     */
+    static <T extends RealType<T>> int[] readLabels(RandomAccessibleInterval<T> img) {
+        return readLabels(img, img);
+    }
+
+    /**
+     * @param img      label map
+     * @param interval part of the label map to read
+     * @param <T>      type of the label map
+     * @return values of all pixels within the interval truncated to int in flat iteration order
+     */
+    static <T extends RealType<T>> int[] readLabels(RandomAccessibleInterval<T> img, Interval interval) {
+        long numPixels = Intervals.numElements(interval);
+        if (numPixels > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Images with more than " + Integer.MAX_VALUE + " pixels are not supported.");
+        }
+        int[] labels = new int[(int) numPixels];
+        readLabels(img, interval, labels);
+        return labels;
+    }
+
+    /**
+     * @param img      label map
+     * @param interval part of the label map to read
+     * @param labels   array with at least as many elements as the interval to fill with the values of all pixels within the interval truncated to int in
+     *                 flat iteration order
+     * @param <T>      type of the label map
+     */
+    static <T extends RealType<T>> void readLabels(RandomAccessibleInterval<T> img, Interval interval, int[] labels) {
+        // whole rows can be copied from the primitive arrays
+        boolean wholeRows = interval.min(0) == img.min(0) && interval.max(0) == img.max(0);
+        if (wholeRows && BinaryImageUtilities.isBitPacked(img)) {
+            long[] words = BinaryImageUtilities.getWords(img);
+            int rowLength = (int) img.dimension(0);
+            long[] position = Intervals.minAsLongArray(interval);
+            int offset = 0;
+            do {
+                long index = 0;
+                long stride = 1;
+                for (int d = 0; d < position.length; d++) {
+                    index += (position[d] - img.min(d)) * stride;
+                    stride *= img.dimension(d);
+                }
+                for (int x = 0; x < rowLength; x++) {
+                    labels[offset + x] = (int) ((words[(int) ((index + x) >>> 6)] >>> ((index + x) & 63)) & 1);
+                }
+                offset += rowLength;
+            } while (PrimitiveRowAccess.nextRow(position, interval));
+            return;
+        }
+        PrimitiveRowAccess rows = PrimitiveRowAccess.wrap(img);
+        if (rows != null && wholeRows) {
+            int[] row = new int[rows.getRowLength()];
+            long[] position = Intervals.minAsLongArray(interval);
+            int offset = 0;
+            do {
+                rows.readRow(rows.getRowIndex(position), row);
+                System.arraycopy(row, 0, labels, offset, row.length);
+                offset += row.length;
+            } while (PrimitiveRowAccess.nextRow(position, interval));
+            return;
+        }
+
+        Cursor<T> cursor = Views.flatIterable(Views.interval(img, interval)).cursor();
+        int i = 0;
+        while (cursor.hasNext()) {
+            labels[i] = (int) cursor.next().getRealDouble();
+            i++;
+        }
+    }
+
+    /**
+     * Move a position one pixel forward in flat iteration order.
+     */
+    static void nextPosition(long[] position, long[] dimensions) {
+        for (int d = 0; d < position.length; d++) {
+            position[d]++;
+            if (position[d] < dimensions[d]) {
+                return;
+            }
+            position[d] = 0;
+        }
+    }
+
+    /**
+     * Move a position one pixel backward in flat iteration order.
+     */
+    static void previousPosition(long[] position, long[] dimensions) {
+        for (int d = 0; d < position.length; d++) {
+            position[d]--;
+            if (position[d] >= 0) {
+                return;
+            }
+            position[d] = dimensions[d] - 1;
+        }
+    }
+
+    /**
+     * Determine the position of a pixel from its index in flat iteration order.
+     */
+    static void getPosition(long index, long[] dimensions, long[] position) {
+        for (int d = 0; d < position.length; d++) {
+            position[d] = index % dimensions[d];
+            index /= dimensions[d];
+        }
+    }
+
+    /**
+     * @return true, if the position moved by the offset is inside the image
+     */
+    static boolean isInside(long[] position, long[] offset, long[] dimensions) {
+        for (int d = 0; d < position.length; d++) {
+            long p = position[d] + offset[d];
+            if (p < 0 || p >= dimensions[d]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -1,5 +1,7 @@
 package de.mpicbg.scf.imgtools.image.filter;
 
+import de.mpicbg.scf.imgtools.image.access.BinaryImageUtilities;
+import de.mpicbg.scf.imgtools.image.access.PrimitiveRowAccess;
 import ij.ImagePlus;
 import ij.gui.Roi;
 import ij.process.ImageProcessor;
@@ -9,6 +11,7 @@ import net.imglib2.IterableInterval;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.img.Img;
 import net.imglib2.type.numeric.RealType;
+import net.imglib2.util.Intervals;
 import net.imglib2.view.Views;
 
 /**
@@ -58,6 +61,30 @@ public class ImageFilterUtilities {
         if (makeCopy) {
             img = img.copy();
         }
+
+        // fast path for ArrayImgs and PlanarImgs of the same size, masked by an image of the same kind or a bit packed binary image
+        PrimitiveRowAccess imgRows = PrimitiveRowAccess.wrap(img);
+        if (imgRows != null && mask instanceof RandomAccessibleInterval && Intervals.equalDimensions(img, mask)) {
+            PrimitiveRowAccess maskRows = PrimitiveRowAccess.wrap((RandomAccessibleInterval<?>) mask);
+            if (maskRows != null) {
+                double[] maskRow = new double[maskRows.getRowLength()];
+                for (long row = 0; row < imgRows.getNumRows(); row++) {
+                    maskRows.readRow(row, maskRow);
+                    imgRows.maskRow(row, maskRow);
+                }
+                return img;
+            }
+            if (BinaryImageUtilities.isBitPacked((RandomAccessibleInterval<?>) mask)) {
+                long[] words = BinaryImageUtilities.getWords((RandomAccessibleInterval<?>) mask);
+                double[] maskRow = new double[imgRows.getRowLength()];
+                for (long row = 0; row < imgRows.getNumRows(); row++) {
+                    BinaryImageUtilities.readBits(words, row * maskRow.length, maskRow, maskRow.length);
+                    imgRows.maskRow(row, maskRow);
+                }
+                return img;
+            }
+        }
+
         Cursor<T> cursor = img.cursor();
 
         Cursor<S> maskCursor = mask.cursor();
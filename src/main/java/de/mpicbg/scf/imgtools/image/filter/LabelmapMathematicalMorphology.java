@@ -1,19 +1,40 @@
 package de.mpicbg.scf.imgtools.image.filter;
 
+import de.mpicbg.scf.imgtools.image.access.BinaryImageUtilities;
+import de.mpicbg.scf.imgtools.image.access.PrimitiveRowAccess;
+import de.mpicbg.scf.imgtools.image.access.RunLengthLabelMap;
+import de.mpicbg.scf.imgtools.image.neighborhood.ImageConnectivity;
+import de.mpicbg.scf.imgtools.image.neighborhood.ImageConnectivity.Connectivity;
 import de.mpicbg.scf.imgtools.ui.visualisation.ProgressDialog;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 import net.imglib2.Cursor;
 import net.imglib2.Interval;
 import net.imglib2.RandomAccess;
-import net.imglib2.RandomAccessibleInterval;
-import net.imglib2.algorithm.neighborhood.Neighborhood;
-import net.imglib2.algorithm.neighborhood.RectangleShape;
-import net.imglib2.algorithm.neighborhood.RectangleShape.NeighborhoodsIterableInterval;
 import net.imglib2.img.Img;
 import net.imglib2.type.numeric.RealType;
-import net.imglib2.view.ExtendedRandomAccessibleInterval;
+import net.imglib2.util.Intervals;
 import net.imglib2.view.Views;
 
 /**
+ * Erosion and dilation with a radius and a voxel size are thresholds of the Euclidean distance transform (see DistanceTransform): the structuring element
+ * is a sphere, which respects anisotropic voxel sizes. Erosion and dilation with a distance in pixels use a box as structuring element and are computed by
+ * separable minimum and maximum filters (see MinMaxFilter). In both cases the runtime is independent of the margin size.
+ * <p>
+ * Both are local operations, so the image is processed in tiles with a halo of the margin size (see TiledExecutor). All methods with a number of
+ * threads process the tiles in parallel and write them directly into the output image. The opening erodes and dilates every tile (with a halo of twice
+ * the margin size) in buffers of the tile size and writes the masked label map once, so only the output image is allocated at full size. The scratch
+ * buffers of all tiles in flight together take at most 0.2 bytes per pixel of the label map (at least 16 MB): tiles shrink with growing margins and
+ * per-tile buffers are reused by every thread, so the peak memory of the tiled methods is the input plus the output plus this budget, independent of the
+ * number of threads. The markers of replaced pixels are stored bit packed.
+ * <p>
+ * The closing dilates all labels without merging them and erodes the result in the same way in one tiled pass; pixels which are labelled before keep
+ * their label. Hole filling and reconstruction are not local, they process the whole label map (or, for hole filling slice by slice, every slice as a
+ * tile) in a single pass with a queue of pixels.
+ * <p>
+ * All methods accept bit packed binary images (see BinaryImageUtilities), which are read word by word.
+ * <p>
  * Author: Robert Haase, Scientific Computing Facility, MPI-CBG Dresden,
  * rhaase@mpi-cbg.de
  * Date: July 2017
@@ -56,30 +77,250 @@ public class LabelmapMathematicalMorphology {
      * @return the opened label map
      */
     public static <T extends RealType<T>> Img<T> openingLabelMap(Img<T> labelMap, int distanceInPixels) {
+        return openingLabelMap(labelMap, distanceInPixels, 1);
+    }
+
+    /**
+     * apply opening to a label map in parallel, see openingLabelMap(Img, int).
+     *
+     * @param labelMap         an image where the grey value represents the class to which a
+     *                         pixel belongs to
+     * @param distanceInPixels margin size to erode and afterwards dilate
+     * @param numThreads       number of threads to use
+     * @param <T>              type of the image
+     * @return the opened label map
+     */
+    public static <T extends RealType<T>> Img<T> openingLabelMap(Img<T> labelMap, int distanceInPixels, int numThreads) {
+        long[] halo = new long[labelMap.numDimensions()];
+        final int[] radius = new int[halo.length];
+        for (int d = 0; d < halo.length; d++) {
+            halo[d] = Math.min(labelMap.dimension(d), 2L * distanceInPixels);
+            radius[d] = distanceInPixels;
+        }
+
         ProgressDialog.reset();
         ProgressDialog.setStatusText("Apply opening...");
-        Img<T> res = LabelmapMathematicalMorphology.erodeLabelMap(labelMap, distanceInPixels);
-        ProgressDialog.setProgress(0.25);
-        if (ProgressDialog.wasCancelled()) {
-            return null;
+        Img<T> result = filterTiles(labelMap, halo, numThreads, true, 8, new TileFilter() {
+            @Override
+            public void filter(TileBuffers buffers, int numPixels, long[] dimensions, Interval extendedTile) {
+                // erosion: keep all labelled pixels whose box contains no other value
+                int[] labels = buffers.labels;
+                int[] kept = buffers.values();
+                MinMaxFilter.getMinimum(labels, dimensions, radius, 0, kept);
+                MinMaxFilter.getMaximum(labels, dimensions, radius, 0, labels);
+                for (int i = 0; i < numPixels; i++) {
+                    kept[i] = kept[i] != 0 && kept[i] == labels[i] ? 1 : 0;
+                }
+                // dilation: keep all pixels whose box contains a kept pixel
+                MinMaxFilter.getMaximum(kept, dimensions, radius, 0, labels);
+                for (int i = 0; i < numPixels; i++) {
+                    if (labels[i] == 0) {
+                        buffers.setReplaced(i);
+                    }
+                    labels[i] = 0;
+                }
+            }
+        });
+        ProgressDialog.finish();
+
+        return result;
+    }
+
+    /**
+     * apply opening with a spherical structuring element to a label map, see erodeLabelMap(Img, double, double[]).
+     *
+     * @param labelMap  an image where the grey value represents the class to which a
+     *                  pixel belongs to
+     * @param radius    margin size to erode and afterwards dilate, in the units of the voxel size
+     * @param voxelSize size of a pixel in every dimension, may be null for isotropic pixels of size 1
+     * @param <T>       type of the image
+     * @return the opened label map
+     */
+    public static <T extends RealType<T>> Img<T> openingLabelMap(Img<T> labelMap, double radius, double[] voxelSize) {
+        return openingLabelMap(labelMap, radius, voxelSize, 1);
+    }
+
+    /**
+     * apply opening with a spherical structuring element to a label map in parallel, see openingLabelMap(Img, double, double[]).
+     *
+     * @param labelMap   an image where the grey value represents the class to which a
+     *                   pixel belongs to
+     * @param radius     margin size to erode and afterwards dilate, in the units of the voxel size
+     * @param voxelSize  size of a pixel in every dimension, may be null for isotropic pixels of size 1
+     * @param numThreads number of threads to use
+     * @param <T>        type of the image
+     * @return the opened label map
+     */
+    public static <T extends RealType<T>> Img<T> openingLabelMap(Img<T> labelMap, double radius, final double[] voxelSize, int numThreads) {
+        long[] halo = getSphereHalo(labelMap, radius, voxelSize);
+        for (int d = 0; d < halo.length; d++) {
+            halo[d] = Math.min(labelMap.dimension(d), 2 * halo[d]);
         }
+        final float squaredRadius = (float) (radius * radius);
 
-        Img<T> bin = LabelmapMathematicalMorphology.binarizeLabelMap(res);
-        ProgressDialog.setProgress(0.5);
-        if (ProgressDialog.wasCancelled()) {
-            return null;
+        ProgressDialog.reset();
+        ProgressDialog.setStatusText("Apply opening...");
+        Img<T> result = filterTiles(labelMap, halo, numThreads, true, 8, new TileFilter() {
+            @Override
+            public void filter(TileBuffers buffers, int numPixels, long[] dimensions, Interval extendedTile) {
+                // erosion: keep all labelled pixels which are further away from other labels than the radius
+                int[] labels = buffers.labels;
+                float[] distances = buffers.distances();
+                DistanceTransform.getSquaredDistanceToOtherLabels(labels, dimensions, voxelSize, distances);
+                for (int i = 0; i < numPixels; i++) {
+                    labels[i] = labels[i] != 0 && distances[i] > squaredRadius ? 1 : 0;
+                }
+                // dilation: keep all pixels which are kept or not further away from a kept pixel than the radius
+                DistanceTransform.getSquaredDistanceToOtherLabels(labels, dimensions, voxelSize, distances);
+                for (int i = 0; i < numPixels; i++) {
+                    if (labels[i] == 0 && distances[i] > squaredRadius) {
+                        buffers.setReplaced(i);
+                    }
+                    labels[i] = 0;
+                }
+            }
+        });
+        ProgressDialog.finish();
+
+        return result;
+    }
+
+    /**
+     * apply closing to a label map: all labels are dilated with a box of the given radius without merging them and afterwards eroded again. Gaps and
+     * holes which are narrower than the box are filled with the surrounding label; gaps between different labels stay background. Labelled pixels are not
+     * changed.
+     *
+     * @param labelMap         an image where the grey value represents the class to which a
+     *                         pixel belongs to
+     * @param distanceInPixels margin size to dilate and afterwards erode
+     * @param <T>              type of the image
+     * @return the closed label map
+     */
+    public static <T extends RealType<T>> Img<T> closingLabelMap(Img<T> labelMap, int distanceInPixels) {
+        return closingLabelMap(labelMap, distanceInPixels, 1);
+    }
+
+    /**
+     * apply closing to a label map in parallel, see closingLabelMap(Img, int).
+     *
+     * @param labelMap         an image where the grey value represents the class to which a
+     *                         pixel belongs to
+     * @param distanceInPixels margin size to dilate and afterwards erode
+     * @param numThreads       number of threads to use
+     * @param <T>              type of the image
+     * @return the closed label map
+     */
+    public static <T extends RealType<T>> Img<T> closingLabelMap(Img<T> labelMap, int distanceInPixels, int numThreads) {
+        long[] halo = new long[labelMap.numDimensions()];
+        final int[] radius = new int[halo.length];
+        for (int d = 0; d < halo.length; d++) {
+            halo[d] = Math.min(labelMap.dimension(d), 2L * distanceInPixels);
+            radius[d] = distanceInPixels;
         }
 
-        Img<T> binDil = LabelmapMathematicalMorphology.dilateBinaryImage(bin, distanceInPixels);
-        ProgressDialog.setProgress(0.75);
-        if (ProgressDialog.wasCancelled()) {
-            return null;
+        ProgressDialog.reset();
+        ProgressDialog.setStatusText("Apply closing...");
+        Img<T> result = filterTiles(labelMap, halo, numThreads, true, 12, new TileFilter() {
+            @Override
+            public void filter(TileBuffers buffers, int numPixels, long[] dimensions, Interval extendedTile) {
+                // dilation: background pixels get the label, if it is the only label within the box
+                int[] labels = buffers.labels;
+                int[] dilated = buffers.values();
+                int[] maximum = buffers.moreValues();
+                for (int i = 0; i < numPixels; i++) {
+                    dilated[i] = labels[i] != 0 ? labels[i] : Integer.MAX_VALUE;
+                }
+                MinMaxFilter.getMinimum(dilated, dimensions, radius, Integer.MAX_VALUE, dilated);
+                MinMaxFilter.getMaximum(labels, dimensions, radius, 0, maximum);
+                for (int i = 0; i < numPixels; i++) {
+                    if (labels[i] != 0) {
+                        dilated[i] = labels[i];
+                    } else {
+                        dilated[i] = dilated[i] == maximum[i] ? maximum[i] : 0;
+                        if (dilated[i] != 0) {
+                            buffers.setReplaced(i);
+                        }
+                    }
+                }
+                // erosion: keep all dilated pixels whose box contains no other value
+                MinMaxFilter.getMinimum(dilated, dimensions, radius, 0, labels);
+                MinMaxFilter.getMaximum(dilated, dimensions, radius, 0, maximum);
+                for (int i = 0; i < numPixels; i++) {
+                    if (labels[i] != maximum[i]) {
+                        buffers.clearReplaced(i);
+                    }
+                    labels[i] = dilated[i];
+                }
+            }
+        });
+        ProgressDialog.finish();
+
+        return result;
+    }
+
+    /**
+     * apply closing with a spherical structuring element to a label map: all labels are dilated without merging them (see dilateLabelMap(Img, double,
+     * double[])) and afterwards eroded (see erodeLabelMap(Img, double, double[])). Labelled pixels are not changed.
+     *
+     * @param labelMap  an image where the grey value represents the class to which a
+     *                  pixel belongs to
+     * @param radius    margin size to dilate and afterwards erode, in the units of the voxel size
+     * @param voxelSize size of a pixel in every dimension, may be null for isotropic pixels of size 1
+     * @param <T>       type of the image
+     * @return the closed label map
+     */
+    public static <T extends RealType<T>> Img<T> closingLabelMap(Img<T> labelMap, double radius, double[] voxelSize) {
+        return closingLabelMap(labelMap, radius, voxelSize, 1);
+    }
+
+    /**
+     * apply closing with a spherical structuring element to a label map in parallel, see closingLabelMap(Img, double, double[]).
+     *
+     * @param labelMap   an image where the grey value represents the class to which a
+     *                   pixel belongs to
+     * @param radius     margin size to dilate and afterwards erode, in the units of the voxel size
+     * @param voxelSize  size of a pixel in every dimension, may be null for isotropic pixels of size 1
+     * @param numThreads number of threads to use
+     * @param <T>        type of the image
+     * @return the closed label map
+     */
+    public static <T extends RealType<T>> Img<T> closingLabelMap(Img<T> labelMap, double radius, final double[] voxelSize, int numThreads) {
+        long[] halo = getSphereHalo(labelMap, radius, voxelSize);
+        for (int d = 0; d < halo.length; d++) {
+            halo[d] = Math.min(labelMap.dimension(d), 2 * halo[d]);
         }
+        final float squaredRadius = (float) (radius * radius);
 
-        Img<T> ret = ImageFilterUtilities.maskImage(labelMap, binDil);
+        ProgressDialog.reset();
+        ProgressDialog.setStatusText("Apply closing...");
+        Img<T> result = filterTiles(labelMap, halo, numThreads, true, 12, new TileFilter() {
+            @Override
+            public void filter(TileBuffers buffers, int numPixels, long[] dimensions, Interval extendedTile) {
+                // dilation: background pixels get the nearest label within the radius
+                int[] labels = buffers.labels;
+                int[] dilated = buffers.values();
+                float[] distances = buffers.distances();
+                DistanceTransform.getSquaredDistanceToLabels(labels, dimensions, voxelSize, dilated, distances);
+                for (int i = 0; i < numPixels; i++) {
+                    if (distances[i] > squaredRadius) {
+                        dilated[i] = 0;
+                    } else if (labels[i] == 0) {
+                        buffers.setReplaced(i);
+                    }
+                }
+                // erosion: keep all dilated pixels which are further away from other values than the radius
+                DistanceTransform.getSquaredDistanceToOtherLabels(dilated, dimensions, voxelSize, distances);
+                for (int i = 0; i < numPixels; i++) {
+                    if (distances[i] <= squaredRadius) {
+                        buffers.clearReplaced(i);
+                    }
+                    labels[i] = dilated[i];
+                }
+            }
+        });
         ProgressDialog.finish();
 
-        return ret;
+        return result;
     }
 
     /**
@@ -117,7 +358,49 @@ public class LabelmapMathematicalMorphology {
      * @return the dilated binary image.
      */
     public static <T extends RealType<T>> Img<T> dilateBinaryImage(Img<T> labelMap, int distanceInPixels) {
-        return LabelmapMathematicalMorphology.erodeOrDilate(labelMap, distanceInPixels, 1);
+        return dilateBinaryImage(labelMap, distanceInPixels, 1);
+    }
+
+    /**
+     * Dilate a binary image with unknown dimension s in parallel.
+     *
+     * @param labelMap         an image where the grey value represents the class to which a
+     *                         pixel belongs to
+     * @param distanceInPixels margin size to erode or dilate
+     * @param numThreads       number of threads to use
+     * @param <T>              type of the image
+     * @return the dilated binary image.
+     */
+    public static <T extends RealType<T>> Img<T> dilateBinaryImage(Img<T> labelMap, int distanceInPixels, int numThreads) {
+        return LabelmapMathematicalMorphology.erodeOrDilate(labelMap, distanceInPixels, 1, numThreads);
+    }
+
+    /**
+     * Dilate a binary image with a spherical structuring element: every background pixel whose Euclidean distance to the foreground is not larger
+     * than the radius is set to 1. The runtime does not depend on the radius, see DistanceTransform.
+     *
+     * @param binaryImage image where all pixels != 0 are foreground
+     * @param radius      margin size to dilate, in the units of the voxel size
+     * @param voxelSize   size of a pixel in every dimension, may be null for isotropic pixels of size 1
+     * @param <T>         type of the image
+     * @return the dilated binary image.
+     */
+    public static <T extends RealType<T>> Img<T> dilateBinaryImage(Img<T> binaryImage, double radius, double[] voxelSize) {
+        return dilateBinaryImage(binaryImage, radius, voxelSize, 1);
+    }
+
+    /**
+     * Dilate a binary image with a spherical structuring element in parallel, see dilateBinaryImage(Img, double, double[]).
+     *
+     * @param binaryImage image where all pixels != 0 are foreground
+     * @param radius      margin size to dilate, in the units of the voxel size
+     * @param voxelSize   size of a pixel in every dimension, may be null for isotropic pixels of size 1
+     * @param numThreads  number of threads to use
+     * @param <T>         type of the image
+     * @return the dilated binary image.
+     */
+    public static <T extends RealType<T>> Img<T> dilateBinaryImage(Img<T> binaryImage, double radius, double[] voxelSize, int numThreads) {
+        return thresholdDistances(binaryImage, radius, voxelSize, false, numThreads);
     }
 
     /**
@@ -127,14 +410,655 @@ public class LabelmapMathematicalMorphology {
      * @return a new eroded label map
      */
     public static <T extends RealType<T>> Img<T> erodeLabelMap(Img<T> labelMap, int distanceInPixels) {
-        return LabelmapMathematicalMorphology.erodeOrDilate(labelMap, distanceInPixels, 0);
+        return erodeLabelMap(labelMap, distanceInPixels, 1);
+    }
+
+    /**
+     * @param labelMap         image of a label map to erode
+     * @param distanceInPixels distance in pixels
+     * @param numThreads       number of threads to use
+     * @param <T>              type of the image
+     * @return a new eroded label map
+     */
+    public static <T extends RealType<T>> Img<T> erodeLabelMap(Img<T> labelMap, int distanceInPixels, int numThreads) {
+        return LabelmapMathematicalMorphology.erodeOrDilate(labelMap, distanceInPixels, 0, numThreads);
+    }
+
+    /**
+     * Erode all labels of a label map with a spherical structuring element: every pixel whose Euclidean distance to a pixel of another label (or the
+     * background or the outside of the image) is not larger than the radius is set to 0. The runtime does not depend on the radius, see
+     * DistanceTransform.
+     *
+     * @param labelMap  image of a label map to erode
+     * @param radius    margin size to erode, in the units of the voxel size
+     * @param voxelSize size of a pixel in every dimension, may be null for isotropic pixels of size 1
+     * @param <T>       type of the image
+     * @return a new eroded label map
+     */
+    public static <T extends RealType<T>> Img<T> erodeLabelMap(Img<T> labelMap, double radius, double[] voxelSize) {
+        return erodeLabelMap(labelMap, radius, voxelSize, 1);
+    }
+
+    /**
+     * Erode all labels of a label map with a spherical structuring element in parallel, see erodeLabelMap(Img, double, double[]).
+     *
+     * @param labelMap   image of a label map to erode
+     * @param radius     margin size to erode, in the units of the voxel size
+     * @param voxelSize  size of a pixel in every dimension, may be null for isotropic pixels of size 1
+     * @param numThreads number of threads to use
+     * @param <T>        type of the image
+     * @return a new eroded label map
+     */
+    public static <T extends RealType<T>> Img<T> erodeLabelMap(Img<T> labelMap, double radius, double[] voxelSize, int numThreads) {
+        return thresholdDistances(labelMap, radius, voxelSize, true, numThreads);
+    }
+
+    /**
+     * Erode all labels of a label map layer by layer, starting at their boundaries: see erodeLabelMapFromBoundary(Img, int, Connectivity). With full
+     * connectivity, the result equals erodeLabelMap(Img, int).
+     *
+     * @param labelMap         image of a label map to erode
+     * @param distanceInPixels number of layers to remove
+     * @param <T>              type of the image
+     * @return a new eroded label map
+     */
+    public static <T extends RealType<T>> Img<T> erodeLabelMapFromBoundary(Img<T> labelMap, int distanceInPixels) {
+        return erodeLabelMapFromBoundary(labelMap, distanceInPixels, Connectivity.FULL);
+    }
+
+    /**
+     * Erode all labels of a label map layer by layer, starting at their boundaries. The label map is run-length encoded (see RunLengthLabelMap) and the
+     * first layer is derived from the runs: the ends of every run and all pixels of a run whose neighbouring rows are not covered by a run of the same
+     * label. Every further layer consists of the remaining labelled neighbours of the previous layer, which are looked up in the runs. The output is a copy
+     * of the label map in which the removed pixels are set to 0 row by row.
+     * <p>
+     * Apart from encoding and copying the label map, the work is proportional to the number of runs plus the number of removed pixels; interior pixels of
+     * the labels are never visited. Besides the runs and the removed pixels, one bit per pixel marks the removed pixels.
+     *
+     * @param labelMap         image of a label map to erode
+     * @param distanceInPixels number of layers to remove
+     * @param connectivity     neighbourhood of a pixel: Connectivity.FULL removes a box of the given radius (as erodeLabelMap(Img, int)),
+     *                         Connectivity.FACE a diamond
+     * @param <T>              type of the image
+     * @return a new eroded label map
+     */
+    public static <T extends RealType<T>> Img<T> erodeLabelMapFromBoundary(Img<T> labelMap, int distanceInPixels, Connectivity connectivity) {
+        if (connectivity != Connectivity.FULL && connectivity != Connectivity.FACE) {
+            throw new IllegalArgumentException("Only full and face connectivity are supported.");
+        }
+        Img<T> output = labelMap.copy();
+        if (distanceInPixels <= 0) {
+            return output;
+        }
+        int numDimensions = labelMap.numDimensions();
+        long[] dimensions = Intervals.dimensionsAsLongArray(labelMap);
+        int rowLength = (int) dimensions[0];
+        long[][] neighbours = ImageConnectivity.getConnectivityPos(numDimensions, connectivity);
+        long[] offsets = new long[neighbours.length];
+        for (int n = 0; n < neighbours.length; n++) {
+            long stride = 1;
+            for (int d = 0; d < numDimensions; d++) {
+                offsets[n] += neighbours[n][d] * stride;
+                stride *= dimensions[d];
+            }
+        }
+        RunLengthLabelMap runs = RunLengthLabelMap.fromImage(labelMap);
+        RemovedPixels removed = new RemovedPixels(Intervals.numElements(labelMap));
+
+        // neighbouring rows: distinct offsets in the dimensions 1 to n-1, each with the range of offsets along the row which occur together with it
+        long[][] rowNeighbours = new long[neighbours.length][];
+        int[] minShifts = new int[neighbours.length];
+        int[] maxShifts = new int[neighbours.length];
+        int numRowNeighbours = 0;
+        for (long[] neighbour : neighbours) {
+            long[] rowNeighbour = Arrays.copyOfRange(neighbour, 1, numDimensions);
+            boolean sameRow = true;
+            for (long offset : rowNeighbour) {
+                sameRow = sameRow && offset == 0;
+            }
+            if (sameRow) {
+                continue;
+            }
+            int r = 0;
+            while (r < numRowNeighbours && !Arrays.equals(rowNeighbours[r], rowNeighbour)) {
+                r++;
+            }
+            if (r == numRowNeighbours) {
+                rowNeighbours[r] = rowNeighbour;
+                minShifts[r] = (int) neighbour[0];
+                maxShifts[r] = (int) neighbour[0];
+                numRowNeighbours++;
+            }
+            minShifts[r] = (int) Math.min(minShifts[r], neighbour[0]);
+            maxShifts[r] = (int) Math.max(maxShifts[r], neighbour[0]);
+        }
+
+        // first layer: the ends of all runs and the pixels of a run which are not covered by a run of the same label in all neighbouring rows; a pixel
+        // x is covered by a run [start, end) of a neighbouring row, if x + shift lies within the run for all shifts, i.e. x in [start - minShift, end - maxShift)
+        long[] position = new long[numDimensions];
+        int[] neighbourRows = new int[numRowNeighbours];
+        int[] nextRuns = new int[numRowNeighbours];
+        for (int row = 0; row < runs.getNumRows(); row++) {
+            if (runs.getFirstRun(row) == runs.getFirstRun(row + 1)) {
+                continue;
+            }
+            DistanceTransform.getPosition((long) row * rowLength, dimensions, position);
+            for (int r = 0; r < numRowNeighbours; r++) {
+                neighbourRows[r] = getNeighbourRow(position, rowNeighbours[r], dimensions);
+                nextRuns[r] = neighbourRows[r] < 0 ? 0 : runs.getFirstRun(neighbourRows[r]);
+            }
+            long rowIndex = (long) row * rowLength;
+            for (int run = runs.getFirstRun(row); run < runs.getFirstRun(row + 1); run++) {
+                int label = runs.getRunLabel(run);
+                int start = runs.getRunStart(run);
+                int end = start + runs.getRunLength(run);
+                removed.addRange(rowIndex, start, start + 1);
+                removed.addRange(rowIndex, end - 1, end);
+                for (int r = 0; r < numRowNeighbours; r++) {
+                    if (neighbourRows[r] < 0) {
+                        removed.addRange(rowIndex, start, end);
+                        continue;
+                    }
+                    int lastRun = runs.getFirstRun(neighbourRows[r] + 1);
+                    while (nextRuns[r] < lastRun
+                            && runs.getRunStart(nextRuns[r]) + runs.getRunLength(nextRuns[r]) - maxShifts[r] <= start) {
+                        nextRuns[r]++;
+                    }
+                    int x = start;
+                    for (int other = nextRuns[r]; x < end && other < lastRun && runs.getRunStart(other) - minShifts[r] < end; other++) {
+                        int coveredStart = runs.getRunStart(other) - minShifts[r];
+                        int coveredEnd = runs.getRunStart(other) + runs.getRunLength(other) - maxShifts[r];
+                        if (runs.getRunLabel(other) != label || coveredEnd <= coveredStart) {
+                            continue;
+                        }
+                        if (coveredStart > x) {
+                            removed.addRange(rowIndex, x, Math.min(coveredStart, end));
+                        }
+                        x = Math.max(x, coveredEnd);
+                    }
+                    if (x < end) {
+                        removed.addRange(rowIndex, x, end);
+                    }
+                }
+            }
+        }
+
+        // further layers: the remaining labelled neighbours of the previous layer, in FIFO order
+        long[] neighbourPosition = new long[numDimensions];
+        int layerStart = 0;
+        for (int layer = 1; layer < distanceInPixels && layerStart < removed.size; layer++) {
+            int layerEnd = removed.size;
+            for (int f = layerStart; f < layerEnd; f++) {
+                long index = removed.indices[f];
+                DistanceTransform.getPosition(index, dimensions, position);
+                for (int n = 0; n < neighbours.length; n++) {
+                    if (!DistanceTransform.isInside(position, neighbours[n], dimensions) || removed.contains(index + offsets[n])) {
+                        continue;
+                    }
+                    for (int d = 0; d < numDimensions; d++) {
+                        neighbourPosition[d] = position[d] + neighbours[n][d];
+                    }
+                    if (runs.getLabel(neighbourPosition) != 0) {
+                        removed.add(index + offsets[n]);
+                    }
+                }
+            }
+            layerStart = layerEnd;
+        }
+
+        // clear the removed pixels in the copy, row by row where possible
+        Arrays.sort(removed.indices, 0, removed.size);
+        PrimitiveRowAccess outputRows = PrimitiveRowAccess.wrap(output);
+        if (outputRows != null) {
+            double[] maskRow = new double[rowLength];
+            Arrays.fill(maskRow, 1);
+            int f = 0;
+            while (f < removed.size) {
+                long row = removed.indices[f] / rowLength;
+                int first = f;
+                for (; f < removed.size && removed.indices[f] / rowLength == row; f++) {
+                    maskRow[(int) (removed.indices[f] % rowLength)] = 0;
+                }
+                outputRows.maskRow(row, maskRow);
+                for (int g = first; g < f; g++) {
+                    maskRow[(int) (removed.indices[g] % rowLength)] = 1;
+                }
+            }
+        } else {
+            RandomAccess<T> randomAccess = output.randomAccess();
+            for (int f = 0; f < removed.size; f++) {
+                DistanceTransform.getPosition(removed.indices[f], dimensions, position);
+                randomAccess.setPosition(position);
+                randomAccess.get().setZero();
+            }
+        }
+        return output;
+    }
+
+    /**
+     * @param position    position of a row
+     * @param rowNeighbour offset to a neighbouring row in the dimensions 1 to n-1
+     * @param dimensions  dimensions of the label map
+     * @return index of the neighbouring row in flat iteration order or -1, if it is outside the label map
+     */
+    private static int getNeighbourRow(long[] position, long[] rowNeighbour, long[] dimensions) {
+        long row = 0;
+        long stride = 1;
+        for (int d = 1; d < dimensions.length; d++) {
+            long p = position[d] + rowNeighbour[d - 1];
+            if (p < 0 || p >= dimensions[d]) {
+                return -1;
+            }
+            row += p * stride;
+            stride *= dimensions[d];
+        }
+        return (int) row;
+    }
+
+    /**
+     * Fill the holes of all labels, see fillHolesLabelMap(Img, boolean).
+     *
+     * @param labelMap image of a label map
+     * @param <T>      type of the image
+     * @return a new label map with filled holes
+     */
+    public static <T extends RealType<T>> Img<T> fillHolesLabelMap(Img<T> labelMap) {
+        return fillHolesLabelMap(labelMap, false);
+    }
+
+    /**
+     * Fill the holes of all labels in a single pass, see fillHolesLabelMap(Img, boolean, int).
+     *
+     * @param labelMap     image of a label map
+     * @param sliceBySlice true: fill holes in every 2D slice (the first two dimensions) separately; false: fill holes in all dimensions
+     * @param <T>          type of the image
+     * @return a new label map with filled holes
+     */
+    public static <T extends RealType<T>> Img<T> fillHolesLabelMap(Img<T> labelMap, boolean sliceBySlice) {
+        return fillHolesLabelMap(labelMap, sliceBySlice, 1);
+    }
+
+    /**
+     * Fill the holes of all labels in a single pass. A hole is a connected region of background pixels (face connectivity), which does not touch the
+     * border of the image and whose neighbours all belong to the same label; it gets this label. Regions which touch several labels, for example the gap
+     * between a label and another label enclosed by it, stay background. Every background pixel is visited once, independent of the number of labels.
+     * <p>
+     * Slice by slice, every 2D slice is an independent tile of TiledExecutor with buffers of the slice size (4 bytes per pixel plus one bit for the
+     * visited pixels), and the slices are processed in parallel. Otherwise the whole label map is one tile. The filled pixels are written row by row.
+     *
+     * @param labelMap     image of a label map
+     * @param sliceBySlice true: fill holes in every 2D slice (the first two dimensions) separately; false: fill holes in all dimensions
+     * @param numThreads   number of threads to use; only slices are processed in parallel
+     * @param <T>          type of the image
+     * @return a new label map with filled holes
+     */
+    public static <T extends RealType<T>> Img<T> fillHolesLabelMap(final Img<T> labelMap, boolean sliceBySlice, int numThreads) {
+        final Img<T> output = labelMap.copy();
+        final PrimitiveRowAccess outputRows = PrimitiveRowAccess.wrap(output);
+        long[] tileSize = Intervals.dimensionsAsLongArray(labelMap);
+        if (sliceBySlice) {
+            for (int d = 2; d < tileSize.length; d++) {
+                tileSize[d] = 1;
+            }
+        }
+        final int holeDimensions = sliceBySlice ? Math.min(2, tileSize.length) : tileSize.length;
+        TiledExecutor executor = new TiledExecutor(labelMap, new long[labelMap.numDimensions()]);
+        executor.setTileSize(tileSize);
+        executor.setNumThreads(numThreads);
+        executor.run(new TiledExecutor.TileOperation() {
+            @Override
+            public void process(Interval tile, Interval extendedTile) {
+                int[] labels = DistanceTransform.readLabels(labelMap, tile);
+                if (fillHoles(labels, Arrays.copyOf(Intervals.dimensionsAsLongArray(tile), holeDimensions))) {
+                    writeFilledTile(output, outputRows, tile, labels);
+                }
+            }
+        });
+        return output;
+    }
+
+    /**
+     * Fill the holes of all labels in a flat array, see fillHolesLabelMap(Img, boolean, int).
+     *
+     * @param labels     labels of all pixels in flat iteration order; holes are filled in place
+     * @param dimensions dimensions of the label map
+     * @return true, if at least one hole was filled
+     */
+    private static boolean fillHoles(int[] labels, long[] dimensions) {
+        long[][] neighbours = ImageConnectivity.getConnectivityPos(dimensions.length, Connectivity.FACE);
+        int[] offsets = ImageConnectivity.getIdxOffsetToCenterPix(neighbours, dimensions);
+        long[] visited = new long[(labels.length + 63) >>> 6];
+        int[] region = new int[64];
+        long[] position = new long[dimensions.length];
+        boolean filled = false;
+        for (int start = 0; start < labels.length; start++) {
+            if (labels[start] != 0 || (visited[start >>> 6] & (1L << start)) != 0) {
+                continue;
+            }
+            // collect the background region of the start pixel and the labels around it; -1 stands for several labels
+            visited[start >>> 6] |= 1L << start;
+            region[0] = start;
+            int regionSize = 1;
+            boolean touchesBorder = false;
+            int surroundingLabel = 0;
+            for (int r = 0; r < regionSize; r++) {
+                int i = region[r];
+                DistanceTransform.getPosition(i, dimensions, position);
+                for (int n = 0; n < offsets.length; n++) {
+                    if (!DistanceTransform.isInside(position, neighbours[n], dimensions)) {
+                        touchesBorder = true;
+                        continue;
+                    }
+                    int neighbour = i + offsets[n];
+                    int label = labels[neighbour];
+                    if (label == 0) {
+                        if ((visited[neighbour >>> 6] & (1L << neighbour)) == 0) {
+                            visited[neighbour >>> 6] |= 1L << neighbour;
+                            if (regionSize == region.length) {
+                                region = Arrays.copyOf(region, region.length * 2);
+                            }
+                            region[regionSize] = neighbour;
+                            regionSize++;
+                        }
+                    } else if (surroundingLabel == 0) {
+                        surroundingLabel = label;
+                    } else if (surroundingLabel != label) {
+                        surroundingLabel = -1;
+                    }
+                }
+            }
+
+            if (!touchesBorder && surroundingLabel > 0) {
+                for (int r = 0; r < regionSize; r++) {
+                    labels[region[r]] = surroundingLabel;
+                }
+                filled = true;
+            }
+        }
+        return filled;
+    }
+
+    /**
+     * Write the filled labels of a tile into the background pixels of the output, row by row where possible.
+     *
+     * @param output     copy of the label map
+     * @param outputRows row access to the output or null
+     * @param tile       tile containing complete rows
+     * @param labels     labels of the tile in flat iteration order
+     */
+    private static <T extends RealType<T>> void writeFilledTile(Img<T> output, PrimitiveRowAccess outputRows, Interval tile, int[] labels) {
+        int rowLength = (int) tile.dimension(0);
+        if (outputRows != null) {
+            int[] row = new int[rowLength];
+            long[] position = Intervals.minAsLongArray(tile);
+            int offset = 0;
+            do {
+                System.arraycopy(labels, offset, row, 0, rowLength);
+                outputRows.fillZeros(outputRows.getRowIndex(position), row);
+                offset += rowLength;
+            } while (PrimitiveRowAccess.nextRow(position, tile));
+            return;
+        }
+        Cursor<T> cursor = Views.flatIterable(Views.interval(output, tile)).cursor();
+        for (int i = 0; i < labels.length; i++) {
+            T value = cursor.next();
+            if (value.getRealDouble() == 0) {
+                value.setReal(labels[i]);
+            }
+        }
+    }
+
+    /**
+     * Morphological reconstruction by dilation of a marker within a label map, with full connectivity: see reconstructLabelMap(Img, Img, Connectivity).
+     *
+     * @param labelMap image of a label map to reconstruct
+     * @param marker   image of the same size; all pixels which are not zero are seeds
+     * @param <T>      type of the label map
+     * @param <M>      type of the marker
+     * @return a new label map containing the reconstructed labels
+     */
+    public static <T extends RealType<T>, M extends RealType<M>> Img<T> reconstructLabelMap(Img<T> labelMap, Img<M> marker) {
+        return reconstructLabelMap(labelMap, marker, Connectivity.FULL);
+    }
+
+    /**
+     * Morphological reconstruction by dilation of a marker within a label map, for all labels in a single pass: every labelled pixel is kept, if it is
+     * connected to a marker pixel by a path of pixels of its own label; all other pixels are set to 0. Touching labels do not grow into each other.
+     * <p>
+     * The reconstruction uses the hybrid algorithm of Vincent (1993): a raster scan and an anti-raster scan propagate the marker along the scan direction,
+     * and pixels at which the propagation could continue against the scan direction are queued during the second scan. The queue is then processed in
+     * FIFO order. Most pixels are finished by the two scans, so the queue stays short.
+     *
+     * @param labelMap     image of a label map to reconstruct
+     * @param marker       image of the same size; all pixels which are not zero are seeds
+     * @param connectivity neighbourhood of a pixel, Connectivity.FULL or Connectivity.FACE
+     * @param <T>          type of the label map
+     * @param <M>          type of the marker
+     * @return a new label map containing the reconstructed labels
+     */
+    public static <T extends RealType<T>, M extends RealType<M>> Img<T> reconstructLabelMap(Img<T> labelMap, Img<M> marker, Connectivity connectivity) {
+        if (connectivity != Connectivity.FULL && connectivity != Connectivity.FACE) {
+            throw new IllegalArgumentException("Only full and face connectivity are supported.");
+        }
+        if (!Intervals.equalDimensions(labelMap, marker)) {
+            throw new IllegalArgumentException("The marker must have the same size as the label map.");
+        }
+        long[] dimensions = Intervals.dimensionsAsLongArray(labelMap);
+        long[][] neighbours = ImageConnectivity.getConnectivityPos(dimensions.length, connectivity);
+        int[] offsets = ImageConnectivity.getIdxOffsetToCenterPix(neighbours, dimensions);
+        int[] labels = DistanceTransform.readLabels(labelMap);
+        int[] reconstructed = DistanceTransform.readLabels(marker);
+        for (int i = 0; i < labels.length; i++) {
+            reconstructed[i] = reconstructed[i] != 0 ? labels[i] : 0;
+        }
+
+        // raster scan: propagate from the neighbours before the pixel
+        long[] position = new long[dimensions.length];
+        for (int i = 0; i < labels.length; i++) {
+            if (i > 0) {
+                DistanceTransform.nextPosition(position, dimensions);
+            }
+            if (labels[i] != 0 && reconstructed[i] == 0) {
+                for (int n = 0; n < offsets.length; n++) {
+                    if (offsets[n] < 0 && DistanceTransform.isInside(position, neighbours[n], dimensions) && reconstructed[i + offsets[n]] == labels[i]) {
+                        reconstructed[i] = labels[i];
+                        break;
+                    }
+                }
+            }
+        }
+
+        // anti-raster scan: propagate from the neighbours after the pixel and queue pixels, which could propagate backwards
+        int[] queue = new int[64];
+        int queueEnd = 0;
+        for (int i = labels.length - 1; i >= 0; i--) {
+            if (i < labels.length - 1) {
+                DistanceTransform.previousPosition(position, dimensions);
+            }
+            if (labels[i] == 0) {
+                continue;
+            }
+            if (reconstructed[i] == 0) {
+                for (int n = 0; n < offsets.length; n++) {
+                    if (offsets[n] > 0 && DistanceTransform.isInside(position, neighbours[n], dimensions) && reconstructed[i + offsets[n]] == labels[i]) {
+                        reconstructed[i] = labels[i];
+                        break;
+                    }
+                }
+            }
+            if (reconstructed[i] != 0) {
+                for (int n = 0; n < offsets.length; n++) {
+                    if (offsets[n] > 0 && DistanceTransform.isInside(position, neighbours[n], dimensions) && reconstructed[i + offsets[n]] == 0
+                            && labels[i + offsets[n]] == labels[i]) {
+                        if (queueEnd == queue.length) {
+                            queue = Arrays.copyOf(queue, queue.length * 2);
+                        }
+                        queue[queueEnd] = i;
+                        queueEnd++;
+                        break;
+                    }
+                }
+            }
+        }
+
+        // FIFO propagation; every pixel is queued at most once more
+        for (int q = 0; q < queueEnd; q++) {
+            int i = queue[q];
+            DistanceTransform.getPosition(i, dimensions, position);
+            for (int n = 0; n < offsets.length; n++) {
+                int neighbour = i + offsets[n];
+                if (DistanceTransform.isInside(position, neighbours[n], dimensions) && reconstructed[neighbour] == 0 && labels[neighbour] == labels[i]) {
+                    reconstructed[neighbour] = labels[i];
+                    if (queueEnd == queue.length) {
+                        queue = Arrays.copyOf(queue, queue.length * 2);
+                    }
+                    queue[queueEnd] = neighbour;
+                    queueEnd++;
+                }
+            }
+        }
+
+        // clear the pixels which were not reconstructed, row by row where possible
+        Img<T> output = labelMap.copy();
+        PrimitiveRowAccess outputRows = PrimitiveRowAccess.wrap(output);
+        if (outputRows != null) {
+            int rowLength = outputRows.getRowLength();
+            double[] maskRow = new double[rowLength];
+            for (long row = 0; row < outputRows.getNumRows(); row++) {
+                int offset = (int) (row * rowLength);
+                for (int x = 0; x < rowLength; x++) {
+                    maskRow[x] = labels[offset + x] != 0 && reconstructed[offset + x] == 0 ? 0 : 1;
+                }
+                outputRows.maskRow(row, maskRow);
+            }
+        } else {
+            Cursor<T> cursor = Views.flatIterable(output).cursor();
+            for (int i = 0; i < labels.length; i++) {
+                T value = cursor.next();
+                if (labels[i] != 0 && reconstructed[i] == 0) {
+                    value.setZero();
+                }
+            }
+        }
+        return output;
+    }
+
+    /**
+     * Grow all labels of a label map into the background without merging them: every background pixel whose Euclidean distance to the nearest labelled
+     * pixel is not larger than the radius gets the label of the nearest labelled pixel. Labelled pixels are not changed. The nearest labels are
+     * determined by a feature transform (see DistanceTransform.getSquaredDistanceToLabels()), so the runtime does not depend on the radius.
+     *
+     * @param labelMap  image of a label map to dilate
+     * @param radius    margin size to dilate, in the units of the voxel size
+     * @param voxelSize size of a pixel in every dimension, may be null for isotropic pixels of size 1
+     * @param <T>       type of the image
+     * @return a new dilated label map
+     */
+    public static <T extends RealType<T>> Img<T> dilateLabelMap(Img<T> labelMap, double radius, double[] voxelSize) {
+        return dilateLabelMap(labelMap, radius, voxelSize, 1);
+    }
+
+    /**
+     * Grow all labels of a label map into the background without merging them in parallel, see dilateLabelMap(Img, double, double[]).
+     *
+     * @param labelMap   image of a label map to dilate
+     * @param radius     margin size to dilate, in the units of the voxel size
+     * @param voxelSize  size of a pixel in every dimension, may be null for isotropic pixels of size 1
+     * @param numThreads number of threads to use
+     * @param <T>        type of the image
+     * @return a new dilated label map
+     */
+    public static <T extends RealType<T>> Img<T> dilateLabelMap(Img<T> labelMap, double radius, double[] voxelSize, int numThreads) {
+        return dilateLabelMap(labelMap, radius, voxelSize, null, numThreads);
+    }
+
+    /**
+     * Grow all labels of a label map into the background without merging them, but only into pixels which are not zero in the mask, for example to grow
+     * nuclei into the cytoplasm of a cell mask. Distances are measured in a straight line, also across pixels outside the mask. See
+     * dilateLabelMap(Img, double, double[]).
+     *
+     * @param labelMap   image of a label map to dilate
+     * @param radius     margin size to dilate, in the units of the voxel size
+     * @param voxelSize  size of a pixel in every dimension, may be null for isotropic pixels of size 1
+     * @param mask       image of the same size as the label map; background pixels are only labelled where the mask is not zero. May be null.
+     * @param numThreads number of threads to use
+     * @param <T>        type of the image
+     * @param <M>        type of the mask
+     * @return a new dilated label map
+     */
+    public static <T extends RealType<T>, M extends RealType<M>> Img<T> dilateLabelMap(Img<T> labelMap, double radius, final double[] voxelSize,
+                                                                                       final Img<M> mask, int numThreads) {
+        if (mask != null && !Intervals.equalDimensions(labelMap, mask)) {
+            throw new IllegalArgumentException("The mask must have the same size as the label map.");
+        }
+        long[] halo = getSphereHalo(labelMap, radius, voxelSize);
+        final float squaredRadius = (float) (radius * radius);
+
+        return filterTiles(labelMap, halo, numThreads, false, 12, new TileFilter() {
+            @Override
+            public void filter(TileBuffers buffers, int numPixels, long[] dimensions, Interval extendedTile) {
+                int[] labels = buffers.labels;
+                for (int i = 0; i < numPixels; i++) {
+                    if (labels[i] == 0) {
+                        buffers.setReplaced(i);
+                    }
+                }
+                float[] distances = buffers.distances();
+                DistanceTransform.getSquaredDistanceToLabels(labels, dimensions, voxelSize, labels, distances);
+                int[] maskValues = null;
+                if (mask != null) {
+                    maskValues = buffers.values();
+                    DistanceTransform.readLabels(mask, extendedTile, maskValues);
+                }
+                for (int i = 0; i < numPixels; i++) {
+                    if (distances[i] > squaredRadius || (maskValues != null && maskValues[i] == 0)) {
+                        buffers.clearReplaced(i);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Erosion and dilation as thresholds of the distance to the nearest pixel with a different value. Within a tile extended by a halo of the radius, all
+     * distances up to the radius are exact, because the tile border is further away than the radius.
+     *
+     * @param labelMap   an image where the grey value represents the class to which a
+     *                   pixel belongs to
+     * @param radius     margin size to erode or dilate
+     * @param voxelSize  size of a pixel in every dimension, may be null
+     * @param erode      true: set all labelled pixels within the margin to 0; false: set all background pixels within the margin to 1
+     * @param numThreads number of threads to use
+     * @return eroded/dilated label map
+     */
+    private static <T extends RealType<T>> Img<T> thresholdDistances(Img<T> labelMap, double radius, final double[] voxelSize, final boolean erode,
+                                                                     int numThreads) {
+        long[] halo = getSphereHalo(labelMap, radius, voxelSize);
+        final float squaredRadius = (float) (radius * radius);
+
+        final int valueToWrite = erode ? 0 : 1;
+        return filterTiles(labelMap, halo, numThreads, false, 8, new TileFilter() {
+            @Override
+            public void filter(TileBuffers buffers, int numPixels, long[] dimensions, Interval extendedTile) {
+                int[] labels = buffers.labels;
+                float[] distances = buffers.distances();
+                DistanceTransform.getSquaredDistanceToOtherLabels(labels, dimensions, voxelSize, distances);
+                for (int i = 0; i < numPixels; i++) {
+                    if (distances[i] <= squaredRadius && (labels[i] != 0) == erode) {
+                        buffers.setReplaced(i);
+                    }
+                    labels[i] = valueToWrite;
+                }
+            }
+        });
     }
 
     /**
      * This function allows to erode or dilate binary images. Furthermore,
-     * erosion of label maps is possible. Dilation makes no real sense.
+     * erosion of label maps is possible. Dilation makes no real sense, see dilateLabelMap() instead.
      * <p>
-     * Taken and adapted from http://fiji.sc/ImgLib2_Examples Example4B
+     * A pixel is at the edge of its label, if the box around it contains any other value, which is the case exactly if the minimum and the maximum of the
+     * box differ. Pixels outside the image are 0.
      *
      * @param labelMap         an image where the grey value represents the class to which a
      *                         pixel belongs to
@@ -142,73 +1066,296 @@ public class LabelmapMathematicalMorphology {
      * @param valueToWrite     all pixels which are within this margin (at the boundary of
      *                         the object) will be set to this value. To apply erosion, enter
      *                         0. To apply dilation, enter 1.
+     * @param numThreads       number of threads to use
      * @return eroded/dilated label map
      */
-    private static <T extends RealType<T>> Img<T> erodeOrDilate(Img<T> labelMap, int distanceInPixels, int valueToWrite) {
-        ExtendedRandomAccessibleInterval<T, Img<T>> extsource = Views.extendZero(labelMap);
-        RandomAccessibleInterval<T> source = Views.interval(extsource, labelMap);
+    private static <T extends RealType<T>> Img<T> erodeOrDilate(Img<T> labelMap, int distanceInPixels, final int valueToWrite, int numThreads) {
+        long[] halo = new long[labelMap.numDimensions()];
+        final int[] radius = new int[halo.length];
+        for (int d = 0; d < halo.length; d++) {
+            halo[d] = Math.min(labelMap.dimension(d), distanceInPixels);
+            radius[d] = distanceInPixels;
+        }
+
+        return filterTiles(labelMap, halo, numThreads, false, 8, new TileFilter() {
+            @Override
+            public void filter(TileBuffers buffers, int numPixels, long[] dimensions, Interval extendedTile) {
+                int[] labels = buffers.labels;
+                int[] minimum = buffers.values();
+                MinMaxFilter.getMinimum(labels, dimensions, radius, 0, minimum);
+                MinMaxFilter.getMaximum(labels, dimensions, radius, 0, labels);
+                for (int i = 0; i < numPixels; i++) {
+                    if (minimum[i] != labels[i]) {
+                        buffers.setReplaced(i);
+                    }
+                    labels[i] = valueToWrite;
+                }
+            }
+        });
+    }
+
+    /**
+     * @return number of pixels per dimension, which covers the radius
+     */
+    private static long[] getSphereHalo(Interval interval, double radius, double[] voxelSize) {
+        long[] halo = new long[interval.numDimensions()];
+        for (int d = 0; d < halo.length; d++) {
+            double factor = voxelSize != null && d < voxelSize.length ? voxelSize[d] : 1;
+            halo[d] = (long) Math.min(interval.dimension(d), Math.ceil(radius / factor));
+        }
+        return halo;
+    }
 
-        // Create a new image for the output
-        RandomAccessibleInterval<T> output = labelMap.copy();
+    /**
+     * Decides per tile, which pixels are replaced and by which value.
+     */
+    private interface TileFilter {
+        /**
+         * @param buffers      scratch of the tile: buffers.labels holds the labels of the extended tile in flat iteration order. The new values of all
+         *                     replaced pixels have to be stored there and the replaced pixels marked by buffers.setReplaced(). All other arrays of the
+         *                     buffers may be used freely.
+         * @param numPixels    number of pixels of the extended tile; the arrays of the buffers may be larger
+         * @param dimensions   dimensions of the extended tile
+         * @param extendedTile position of the extended tile within the label map
+         */
+        void filter(TileBuffers buffers, int numPixels, long[] dimensions, Interval extendedTile);
+    }
 
-        // define an interval that is one pixel smaller on each side in each
-        // dimension, so that the search in the 8-neighborhood (3x3x3...x3)
-        // never goes outside of the defined interval
-        Interval interval = source;
+    /**
+     * Pixels removed by erodeLabelMapFromBoundary(): their indices in flat iteration order in the order of removal and one bit per pixel for the lookup.
+     */
+    private static class RemovedPixels {
+        private final long[] bits;
+        private long[] indices = new long[64];
+        private int size = 0;
 
-        // create a view on the source with this interval
-        source = Views.interval(source, interval);
+        private RemovedPixels(long numPixels) {
+            if ((numPixels + 63) >>> 6 > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Images with more than " + ((long) Integer.MAX_VALUE << 6) + " pixels are not supported.");
+            }
+            bits = new long[(int) ((numPixels + 63) >>> 6)];
+        }
 
-        // create a Cursor that iterates over the source and checks in a
-        // 8-neighborhood if it is a minima
-        final Cursor<T> center = Views.iterable(labelMap).cursor();
+        private boolean contains(long index) {
+            return (bits[(int) (index >>> 6)] & (1L << index)) != 0;
+        }
 
-        // instantiate a RectangleShape to access rectangular local
-        // neighborhoods of radius 1 (that is 3x3x...x3 neighborhoods),
-        // skipping the center pixel (this corresponds to an
-        // 8-neighborhood in 2d or 26-neighborhood in 3d, ...)
-        final RectangleShape shape = new RectangleShape(distanceInPixels, true);
+        private void add(long index) {
+            if (contains(index)) {
+                return;
+            }
+            bits[(int) (index >>> 6)] |= 1L << index;
+            if (size == indices.length) {
+                indices = Arrays.copyOf(indices, indices.length * 2);
+            }
+            indices[size] = index;
+            size++;
+        }
 
         /**
-         * TODO> Handle other shapes!
+         * Add the pixels start to end - 1 of a row.
          */
-        NeighborhoodsIterableInterval<T> nhi = shape.neighborhoods(labelMap);
+        private void addRange(long rowIndex, int start, int end) {
+            for (int x = start; x < end; x++) {
+                add(rowIndex + x);
+            }
+        }
+    }
+
+    /**
+     * Scratch arrays for one tile at a time. They are reused for all tiles processed by one thread; arrays beyond the labels are allocated on first use.
+     */
+    private static class TileBuffers {
+        private final int capacity;
+        private final int[] labels;
+        private final long[] replace;
+        private int[] values = null;
+        private int[] moreValues = null;
+        private float[] distances = null;
+
+        private TileBuffers(int capacity) {
+            this.capacity = capacity;
+            labels = new int[capacity];
+            replace = new long[(capacity + 63) >>> 6];
+        }
 
-        RandomAccess<T> randomAccess = output.randomAccess();
+        private int[] values() {
+            if (values == null) {
+                values = new int[capacity];
+            }
+            return values;
+        }
+
+        private int[] moreValues() {
+            if (moreValues == null) {
+                moreValues = new int[capacity];
+            }
+            return moreValues;
+        }
+
+        private float[] distances() {
+            if (distances == null) {
+                distances = new float[capacity];
+            }
+            return distances;
+        }
 
-        // iterate over the set of neighborhoods in the image
-        for (final Neighborhood<T> localNeighborhood : nhi) {
-            // what is the value that we investigate?
-            // (the center cursor runs over the image in the same iteration
-            // order as neighborhood)
-            final T centerValue = center.next();
+        private void setReplaced(int i) {
+            replace[i >>> 6] |= 1L << i;
+        }
 
-            // keep this boolean true as long as no other value in the local
-            // neighborhood is larger or equal
-            boolean isAtEdge = false;
+        private void clearReplaced(int i) {
+            replace[i >>> 6] &= ~(1L << i);
+        }
 
-            for (final T value : localNeighborhood) {
-                try {
-                    if (centerValue.compareTo(value) != 0) {
-                        isAtEdge = true;
-                        break;
-                    }
-                } catch (ArrayIndexOutOfBoundsException e) {
+        private boolean isReplaced(int i) {
+            return (replace[i >>> 6] & (1L << i)) != 0;
+        }
+    }
+
+    /**
+     * Scratch memory of all tiles processed at the same time, in bytes per pixel of the label map; at least MIN_SCRATCH_BYTES.
+     */
+    private static final double SCRATCH_BYTES_PER_PIXEL = 0.2;
+    private static final long MIN_SCRATCH_BYTES = 16L << 20;
+
+    /**
+     * Number of extended tiles, which fit into the scratch budget at least. The tile size does not depend on the number of threads, so the results of
+     * parallel and serial runs are identical.
+     */
+    private static final int TILES_PER_BUDGET = 64;
+
+    /**
+     * Apply a tile filter to all tiles of a label map and write the result into a new image. Pixels, which are not replaced, are copied from the label map.
+     * <p>
+     * Peak memory is the output image plus the scratch of all tiles in flight, which is limited to SCRATCH_BYTES_PER_PIXEL bytes per pixel of the label
+     * map (at least MIN_SCRATCH_BYTES): starting from the default tiles of TiledExecutor, tiles are made smaller (but not smaller than the halo) until
+     * TILES_PER_BUDGET extended tiles fit, and at most as many tiles as fit are processed at the same time. Every thread reuses its scratch for all of its
+     * tiles.
+     *
+     * @param labelMap      label map to filter
+     * @param halo          size of the halo per dimension, see TiledExecutor
+     * @param numThreads    number of threads to use
+     * @param showProgress  true, if the progress is shown in the ProgressDialog, which also allows to cancel
+     * @param bytesPerPixel scratch the filter needs per pixel of the extended tile, including the labels
+     * @param filter        filter to apply to every tile
+     * @return filtered label map or null, if cancelled
+     */
+    private static <T extends RealType<T>> Img<T> filterTiles(final Img<T> labelMap, long[] halo, int numThreads, final boolean showProgress,
+                                                              int bytesPerPixel, final TileFilter filter) {
+        final Img<T> output = labelMap.factory().create(labelMap);
+        final boolean bitPacked = BinaryImageUtilities.isBitPacked(output);
+        TiledExecutor executor = new TiledExecutor(labelMap, halo);
 
+        // choose the tile size by the scratch budget; the replace bits add one byte per 8 pixels
+        long budget = Math.max(MIN_SCRATCH_BYTES, (long) (Intervals.numElements(labelMap) * SCRATCH_BYTES_PER_PIXEL));
+        double tileBytesPerPixel = bytesPerPixel + 0.125;
+        long[] tileSize = executor.getTileSize();
+        for (int d = 0; d < tileSize.length; d++) {
+            tileSize[d] = Math.min(tileSize[d], labelMap.dimension(d));
+        }
+        while (getExtendedTileSize(labelMap, tileSize, halo) * tileBytesPerPixel > budget / TILES_PER_BUDGET) {
+            // halve the largest tile dimension, but not below the halo; rows are split last
+            int shrink = -1;
+            for (int d = 1; d < tileSize.length; d++) {
+                if (tileSize[d] > Math.max(1, halo[d]) && (shrink < 0 || tileSize[d] > tileSize[shrink])) {
+                    shrink = d;
                 }
             }
+            if (shrink < 0 && tileSize[0] > Math.max(1, halo[0])) {
+                shrink = 0;
+            }
+            if (shrink < 0) {
+                break;
+            }
+            tileSize[shrink] = Math.max(Math.max(1, halo[shrink]), tileSize[shrink] / 2);
+        }
+        executor.setTileSize(tileSize);
+        final long extendedTileSize = getExtendedTileSize(labelMap, tileSize, halo);
+        if (extendedTileSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Tiles with more than " + Integer.MAX_VALUE + " pixels are not supported.");
+        }
+        executor.setNumThreads((int) Math.max(1, Math.min(numThreads, budget / (long) (extendedTileSize * tileBytesPerPixel))));
 
-            if (isAtEdge) {
-                // set the output cursor to the position of the input cursor
-                randomAccess.setPosition(center);
+        final ConcurrentLinkedQueue<TileBuffers> bufferPool = new ConcurrentLinkedQueue<TileBuffers>();
+        final int numTiles = executor.getTiles().size();
+        final AtomicInteger processedTiles = new AtomicInteger(0);
+        executor.run(new TiledExecutor.TileOperation() {
+            @Override
+            public void process(Interval tile, Interval extendedTile) {
+                if (showProgress && ProgressDialog.wasCancelled()) {
+                    return;
+                }
+                // at most one set of buffers per thread is created
+                TileBuffers buffers = bufferPool.poll();
+                if (buffers == null) {
+                    buffers = new TileBuffers((int) extendedTileSize);
+                }
+                int numPixels = (int) Intervals.numElements(extendedTile);
+                DistanceTransform.readLabels(labelMap, extendedTile, buffers.labels);
+                Arrays.fill(buffers.replace, 0, (numPixels + 63) >>> 6, 0);
+                filter.filter(buffers, numPixels, Intervals.dimensionsAsLongArray(extendedTile), extendedTile);
+
+                if (bitPacked) {
+                    // neighbouring tiles may share words of the output
+                    synchronized (output) {
+                        writeTile(labelMap, output, tile, extendedTile, buffers);
+                    }
+                } else {
+                    writeTile(labelMap, output, tile, extendedTile, buffers);
+                }
+                bufferPool.add(buffers);
 
-                // set the value of this pixel of the output image, every Type
-                // supports T.set( T type )
-                randomAccess.get().setReal(valueToWrite);
+                if (showProgress) {
+                    ProgressDialog.setProgress((double) processedTiles.incrementAndGet() / numTiles);
+                }
             }
+        });
+        if (showProgress && ProgressDialog.wasCancelled()) {
+            return null;
+        }
+        return output;
+    }
+
+    /**
+     * @return number of pixels of the largest extended tile
+     */
+    private static long getExtendedTileSize(Interval interval, long[] tileSize, long[] halo) {
+        long size = 1;
+        for (int d = 0; d < tileSize.length; d++) {
+            size *= Math.min(interval.dimension(d), tileSize[d] + 2 * halo[d]);
         }
+        return size;
+    }
 
-        return (Img<T>) output;
+    /**
+     * Copy a tile from the label map to the output and replace all pixels marked in the buffers by their new values.
+     */
+    private static <T extends RealType<T>> void writeTile(Img<T> labelMap, Img<T> output, Interval tile, Interval extendedTile, TileBuffers buffers) {
+        RandomAccess<T> input = labelMap.randomAccess();
+        RandomAccess<T> target = output.randomAccess();
+        long[] position = Intervals.minAsLongArray(tile);
+        int width = (int) tile.dimension(0);
+        do {
+            // index of the first pixel of the row within the extended tile
+            int index = 0;
+            int stride = 1;
+            for (int d = 0; d < position.length; d++) {
+                index += (position[d] - extendedTile.min(d)) * stride;
+                stride *= extendedTile.dimension(d);
+            }
+            input.setPosition(position);
+            target.setPosition(position);
+            for (int x = 0; x < width; x++) {
+                if (buffers.isReplaced(index + x)) {
+                    target.get().setReal(buffers.labels[index + x]);
+                } else {
+                    target.get().set(input.get());
+                }
+                input.fwd(0);
+                target.fwd(0);
+            }
+        } while (PrimitiveRowAccess.nextRow(position, tile));
     }
 
 }
@@ -0,0 +1,222 @@
+package de.mpicbg.scf.imgtools.image.filter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
+
+/**
+ * Runs a neighbourhood operation tile by tile, optionally in parallel. The image is split into tiles, which are extended by a halo on every side, so that
+ * every pixel of a tile sees its complete neighbourhood within the extended tile. The halo is clipped at the image border; handling the outside of the
+ * image is up to the operation. Tiles do not overlap, so operations can write the pixels of their tile into a shared output image without
+ * synchronisation, as long as the output image allows concurrent writes to different pixels (ArrayImg, PlanarImg and CellImg of all types except
+ * BitType and other types packing several pixels into one primitive value). Writes to bit packed images (see BinaryImageUtilities) have to be
+ * synchronised by the operation.
+ * <p>
+ * By default, tiles span the whole first dimension (rows are never split) and 64 pixels in all other dimensions. Tiles are processed on a ForkJoinPool
+ * with the given number of threads.
+ * <p>
+ * Usage:
+ * <pre>
+ * TiledExecutor executor = new TiledExecutor(image, new long[]{radius, radius, radius});
+ * executor.setNumThreads(numThreads);
+ * executor.run(new TiledExecutor.TileOperation() {
+ *     public void process(Interval tile, Interval extendedTile) {
+ *         // read extendedTile from the input, write tile to the output
+ *     }
+ * });
+ * </pre>
+ * <p>
+ * Date: October 2026
+ * <p>
+ * Copyright 2026 Max Planck Institute of Molecular Cell Biology and Genetics,
+ * Dresden, Germany
+ * <p>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+public class TiledExecutor {
+
+    /**
+     * Operation which is applied to every tile. It may be called from several threads at once.
+     */
+    public interface TileOperation {
+        /**
+         * @param tile         part of the image, which has to be processed
+         * @param extendedTile tile extended by the halo and clipped to the image
+         */
+        void process(Interval tile, Interval extendedTile);
+    }
+
+    private static final long DEFAULT_TILE_SIZE = 64;
+
+    private final Interval interval;
+    private final long[] halo;
+    private final long[] tileSize;
+    private int numThreads = 1;
+
+    /**
+     * @param interval image or interval to process
+     * @param halo     number of pixels each tile is extended by on both sides, per dimension; typically the radius of the structuring element
+     */
+    public TiledExecutor(Interval interval, long[] halo) {
+        if (halo.length != interval.numDimensions()) {
+            throw new IllegalArgumentException("A halo is needed for each of the " + interval.numDimensions() + " dimensions.");
+        }
+        this.interval = interval;
+        this.halo = halo.clone();
+        tileSize = new long[interval.numDimensions()];
+        tileSize[0] = interval.dimension(0);
+        for (int d = 1; d < tileSize.length; d++) {
+            tileSize[d] = DEFAULT_TILE_SIZE;
+        }
+    }
+
+    /**
+     * @param tileSize size of the tiles (without halo) per dimension
+     */
+    public void setTileSize(long[] tileSize) {
+        if (tileSize.length != this.tileSize.length) {
+            throw new IllegalArgumentException("A tile size is needed for each of the " + this.tileSize.length + " dimensions.");
+        }
+        for (int d = 0; d < tileSize.length; d++) {
+            this.tileSize[d] = Math.max(1, tileSize[d]);
+        }
+    }
+
+    /**
+     * @return size of the tiles (without halo) per dimension
+     */
+    public long[] getTileSize() {
+        return tileSize.clone();
+    }
+
+    /**
+     * @param numThreads default: 1
+     */
+    public void setNumThreads(int numThreads) {
+        this.numThreads = Math.max(1, numThreads);
+    }
+
+    /**
+     * @return all tiles covering the interval, without halo
+     */
+    public List<Interval> getTiles() {
+        int numDimensions = interval.numDimensions();
+        long[] numTiles = new long[numDimensions];
+        for (int d = 0; d < numDimensions; d++) {
+            numTiles[d] = (interval.dimension(d) + tileSize[d] - 1) / tileSize[d];
+        }
+
+        List<Interval> tiles = new ArrayList<Interval>();
+        long[] index = new long[numDimensions];
+        long[] min = new long[numDimensions];
+        long[] max = new long[numDimensions];
+        while (true) {
+            for (int d = 0; d < numDimensions; d++) {
+                min[d] = interval.min(d) + index[d] * tileSize[d];
+                max[d] = Math.min(interval.max(d), min[d] + tileSize[d] - 1);
+            }
+            tiles.add(new FinalInterval(min, max));
+
+            int d = 0;
+            while (d < numDimensions) {
+                index[d]++;
+                if (index[d] < numTiles[d]) {
+                    break;
+                }
+                index[d] = 0;
+                d++;
+            }
+            if (d == numDimensions) {
+                return tiles;
+            }
+        }
+    }
+
+    /**
+     * @param tile tile of the interval
+     * @return tile extended by the halo and clipped to the interval
+     */
+    public Interval getExtendedTile(Interval tile) {
+        int numDimensions = interval.numDimensions();
+        long[] min = new long[numDimensions];
+        long[] max = new long[numDimensions];
+        for (int d = 0; d < numDimensions; d++) {
+            min[d] = Math.max(interval.min(d), tile.min(d) - halo[d]);
+            max[d] = Math.min(interval.max(d), tile.max(d) + halo[d]);
+        }
+        return new FinalInterval(min, max);
+    }
+
+    /**
+     * Apply the operation to all tiles and return when all of them are done. Exceptions thrown by the operation are passed on.
+     *
+     * @param operation operation to apply
+     */
+    public void run(TileOperation operation) {
+        List<Interval> tiles = getTiles();
+        if (numThreads == 1 || tiles.size() == 1) {
+            for (Interval tile : tiles) {
+                operation.process(tile, getExtendedTile(tile));
+            }
+            return;
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(numThreads);
+        try {
+            pool.invoke(new TileTask(operation, tiles, 0, tiles.size()));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Processes a range of tiles by splitting it in halves until single tiles are left.
+     */
+    private class TileTask extends RecursiveAction {
+        private final TileOperation operation;
+        private final List<Interval> tiles;
+        private final int start;
+        private final int end;
+
+        private TileTask(TileOperation operation, List<Interval> tiles, int start, int end) {
+            this.operation = operation;
+            this.tiles = tiles;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start == 1) {
+                Interval tile = tiles.get(start);
+                operation.process(tile, getExtendedTile(tile));
+                return;
+            }
+            int middle = (start + end) / 2;
+            invokeAll(new TileTask(operation, tiles, start, middle), new TileTask(operation, tiles, middle, end));
+        }
+    }
+}
@@ -0,0 +1,345 @@
+package de.mpicbg.scf.imgtools.number.analyse.image;
+
+import de.mpicbg.scf.imgtools.number.analyse.image.LabelAnalyser.Feature;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Map;
+
+/**
+ * Boolean condition on the features of labels, e.g. to decide which labels are kept by ConstraintLabelmap. Conditions are built from ranges and
+ * comparisons of terms and combined with and(), or() and not(). Terms are features, constants and their ratios and products. Example, keeping all labels
+ * which are bright relative to their size or have a medium size, unless their mean signal is below 5:
+ * <p>
+ * and(or(greaterThan(Term.ratio(Term.of(Feature.MEAN), Term.of(Feature.AREA_VOLUME)), 0.01), inRange(Term.of(Feature.AREA_VOLUME), 5000, 10000)),
+ * not(lessThan(Term.of(Feature.MEAN), 5)))
+ * <p>
+ * A condition is evaluated for all labels at once: every term delivers a column with one value per label and every condition one column of booleans,
+ * which are combined in tight loops over primitive arrays. After an evaluation, every clause of the condition knows how many labels it rejected, see
+ * getRejectedCount().
+ * <p>
+ * As for ConstraintLabelmap.addConstraint(), comparisons are never false for NaN values, e.g. the mean signal of a label without pixels; not() negates
+ * this like any other result.
+ * <p>
+ * Date: October 2026
+ * <p>
+ * Copyright 2026 Max Planck Institute of Molecular Cell Biology and Genetics,
+ * Dresden, Germany
+ * <p>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+public abstract class FeatureCondition {
+    private long rejectedCount = 0;
+
+    /**
+     * Numeric term over the features of labels.
+     */
+    public abstract static class Term {
+        /**
+         * @param features all features measured, one value per label
+         * @param count    number of labels to evaluate
+         * @return one value per label; at least count elements, must not be changed by the caller
+         */
+        abstract double[] evaluate(Map<Feature, double[]> features, int count);
+
+        abstract void collectFeatures(EnumSet<Feature> target);
+
+        /**
+         * @param feature feature to be read
+         * @return term delivering the feature
+         */
+        public static Term of(final Feature feature) {
+            if (feature == Feature.BBOX) {
+                throw new IllegalArgumentException("Bounding boxes have more than one value per label and can not be used in terms.");
+            }
+            return new Term() {
+                @Override
+                double[] evaluate(Map<Feature, double[]> features, int count) {
+                    double[] values = features.get(feature);
+                    if (values == null) {
+                        throw new IllegalArgumentException("Feature " + feature.name() + " was not measured.");
+                    }
+                    return values;
+                }
+
+                @Override
+                void collectFeatures(EnumSet<Feature> target) {
+                    target.add(feature);
+                }
+            };
+        }
+
+        /**
+         * @param value constant value
+         * @return term delivering the value for every label
+         */
+        public static Term constant(final double value) {
+            return new Term() {
+                @Override
+                double[] evaluate(Map<Feature, double[]> features, int count) {
+                    double[] values = new double[count];
+                    Arrays.fill(values, value);
+                    return values;
+                }
+
+                @Override
+                void collectFeatures(EnumSet<Feature> target) {
+                }
+            };
+        }
+
+        /**
+         * @param numerator   dividend
+         * @param denominator divisor
+         * @return term delivering numerator / denominator for every label
+         */
+        public static Term ratio(final Term numerator, final Term denominator) {
+            return new Term() {
+                @Override
+                double[] evaluate(Map<Feature, double[]> features, int count) {
+                    double[] a = numerator.evaluate(features, count);
+                    double[] b = denominator.evaluate(features, count);
+                    double[] values = new double[count];
+                    for (int i = 0; i < count; i++) {
+                        values[i] = a[i] / b[i];
+                    }
+                    return values;
+                }
+
+                @Override
+                void collectFeatures(EnumSet<Feature> target) {
+                    numerator.collectFeatures(target);
+                    denominator.collectFeatures(target);
+                }
+            };
+        }
+
+        /**
+         * @param factor1 first factor
+         * @param factor2 second factor
+         * @return term delivering factor1 * factor2 for every label
+         */
+        public static Term product(final Term factor1, final Term factor2) {
+            return new Term() {
+                @Override
+                double[] evaluate(Map<Feature, double[]> features, int count) {
+                    double[] a = factor1.evaluate(features, count);
+                    double[] b = factor2.evaluate(features, count);
+                    double[] values = new double[count];
+                    for (int i = 0; i < count; i++) {
+                        values[i] = a[i] * b[i];
+                    }
+                    return values;
+                }
+
+                @Override
+                void collectFeatures(EnumSet<Feature> target) {
+                    factor1.collectFeatures(target);
+                    factor2.collectFeatures(target);
+                }
+            };
+        }
+    }
+
+    /**
+     * Evaluate the condition for all labels. Afterwards, this condition and all its clauses deliver the number of rejected labels.
+     *
+     * @param features all features measured, one value per label, e.g. LabelAnalyser.getFeatures() for every feature in getFeatures()
+     * @param count    number of labels to evaluate
+     * @return for every label, whether it fulfils the condition
+     */
+    public boolean[] evaluate(Map<Feature, double[]> features, int count) {
+        boolean[] result = evaluateColumn(features, count);
+        long rejected = 0;
+        for (int i = 0; i < count; i++) {
+            if (!result[i]) {
+                rejected++;
+            }
+        }
+        rejectedCount = rejected;
+        return result;
+    }
+
+    abstract boolean[] evaluateColumn(Map<Feature, double[]> features, int count);
+
+    abstract void collectFeatures(EnumSet<Feature> target);
+
+    /**
+     * @return all features the condition depends on
+     */
+    public EnumSet<Feature> getFeatures() {
+        EnumSet<Feature> features = EnumSet.noneOf(Feature.class);
+        collectFeatures(features);
+        return features;
+    }
+
+    /**
+     * @return number of labels for which this clause was false in the last evaluation
+     */
+    public long getRejectedCount() {
+        return rejectedCount;
+    }
+
+    /**
+     * @param term  term to be checked
+     * @param lower lower threshold, inclusive
+     * @param upper upper threshold, inclusive
+     * @return condition which is true if lower &lt;= term &lt;= upper
+     */
+    public static FeatureCondition inRange(final Term term, final double lower, final double upper) {
+        return new FeatureCondition() {
+            @Override
+            boolean[] evaluateColumn(Map<Feature, double[]> features, int count) {
+                double[] values = term.evaluate(features, count);
+                boolean[] result = new boolean[count];
+                for (int i = 0; i < count; i++) {
+                    double value = values[i];
+                    result[i] = !(value < lower || value > upper);
+                }
+                return result;
+            }
+
+            @Override
+            void collectFeatures(EnumSet<Feature> target) {
+                term.collectFeatures(target);
+            }
+        };
+    }
+
+    /**
+     * @param term      term to be checked
+     * @param threshold exclusive lower threshold
+     * @return condition which is true if term &gt; threshold
+     */
+    public static FeatureCondition greaterThan(final Term term, final double threshold) {
+        return new FeatureCondition() {
+            @Override
+            boolean[] evaluateColumn(Map<Feature, double[]> features, int count) {
+                double[] values = term.evaluate(features, count);
+                boolean[] result = new boolean[count];
+                for (int i = 0; i < count; i++) {
+                    result[i] = !(values[i] <= threshold);
+                }
+                return result;
+            }
+
+            @Override
+            void collectFeatures(EnumSet<Feature> target) {
+                term.collectFeatures(target);
+            }
+        };
+    }
+
+    /**
+     * @param term      term to be checked
+     * @param threshold exclusive upper threshold
+     * @return condition which is true if term &lt; threshold
+     */
+    public static FeatureCondition lessThan(final Term term, final double threshold) {
+        return new FeatureCondition() {
+            @Override
+            boolean[] evaluateColumn(Map<Feature, double[]> features, int count) {
+                double[] values = term.evaluate(features, count);
+                boolean[] result = new boolean[count];
+                for (int i = 0; i < count; i++) {
+                    result[i] = !(values[i] >= threshold);
+                }
+                return result;
+            }
+
+            @Override
+            void collectFeatures(EnumSet<Feature> target) {
+                term.collectFeatures(target);
+            }
+        };
+    }
+
+    /**
+     * @param operands conditions which all have to be fulfilled
+     * @return condition which is true if all operands are true
+     */
+    public static FeatureCondition and(final FeatureCondition... operands) {
+        return combine(operands, true);
+    }
+
+    /**
+     * @param operands conditions of which at least one has to be fulfilled
+     * @return condition which is true if any operand is true
+     */
+    public static FeatureCondition or(final FeatureCondition... operands) {
+        return combine(operands, false);
+    }
+
+    private static FeatureCondition combine(final FeatureCondition[] operands, final boolean all) {
+        if (operands.length == 0) {
+            throw new IllegalArgumentException("At least one condition is needed.");
+        }
+        return new FeatureCondition() {
+            @Override
+            boolean[] evaluateColumn(Map<Feature, double[]> features, int count) {
+                boolean[] result = operands[0].evaluate(features, count);
+                for (int o = 1; o < operands.length; o++) {
+                    boolean[] operand = operands[o].evaluate(features, count);
+                    if (all) {
+                        for (int i = 0; i < count; i++) {
+                            result[i] &= operand[i];
+                        }
+                    } else {
+                        for (int i = 0; i < count; i++) {
+                            result[i] |= operand[i];
+                        }
+                    }
+                }
+                return result;
+            }
+
+            @Override
+            void collectFeatures(EnumSet<Feature> target) {
+                for (FeatureCondition operand : operands) {
+                    operand.collectFeatures(target);
+                }
+            }
+        };
+    }
+
+    /**
+     * @param operand condition to be negated
+     * @return condition which is true if the operand is false
+     */
+    public static FeatureCondition not(final FeatureCondition operand) {
+        return new FeatureCondition() {
+            @Override
+            boolean[] evaluateColumn(Map<Feature, double[]> features, int count) {
+                boolean[] result = operand.evaluate(features, count);
+                for (int i = 0; i < count; i++) {
+                    result[i] = !result[i];
+                }
+                return result;
+            }
+
+            @Override
+            void collectFeatures(EnumSet<Feature> target) {
+                operand.collectFeatures(target);
+            }
+        };
+    }
+}
@@ -2,25 +2,30 @@ package de.mpicbg.scf.imgtools.number.analyse.image;
 
 import de.mpicbg.scf.imgtools.ui.DebugHelper;
 import java.util.Arrays;
+import java.util.EnumMap;
 import java.util.EnumSet;
 import net.imglib2.*;
-import net.imglib2.algorithm.stats.ComputeMinMax;
 import net.imglib2.img.Img;
-import net.imglib2.roi.Regions;
 import net.imglib2.roi.labeling.ImgLabeling;
-import net.imglib2.roi.labeling.LabelRegion;
-import net.imglib2.roi.labeling.LabelRegions;
 import net.imglib2.roi.labeling.LabelingType;
 import net.imglib2.type.numeric.RealType;
 import net.imglib2.type.numeric.integer.IntType;
-import net.imglib2.util.Intervals;
 import net.imglib2.util.Util;
 import net.imglib2.view.Views;
 
 /**
- * Update (2021-05) : Simplified LabelAnalyzer to only compute features that are needed on ConstraintLabelMap:
- *      Area/Volume and Mean
-*
+ * Measures features of all labels of a label map: area/volume, signal statistics (MEAN, MIN, MAX, SUM, STDDEV), centroids, bounding boxes, overlap with a
+ * mask and contact with the image border.
+ * <p>
+ * All requested features are determined in a single sweep through the label map (and signal image) by LabelMomentsAccumulator, so requesting more
+ * features does not add passes. Signal features (MEAN, MIN, MAX, SUM, STDDEV) need a signal image, overlap features (OVERLAP_VOXELS, OVERLAP_FRACTION) a
+ * mask, see setOverlapMask(). Centroids are given in the units of the voxel size.
+ * BBOX delivers for every label all minimum positions followed by all maximum positions in pixel coordinates. The TOUCHES_BORDER features are 1 for
+ * labels whose bounding box reaches the first or last pixel of the image in any axis (or in the given axis), 0 otherwise. Thus, objects touching the
+ * border in X and Y, but not in Z, are removed by constraining TOUCHES_BORDER_X and TOUCHES_BORDER_Y to [0, 0].
+ * <p>
+ * Label maps which do not fit into memory can be measured in streaming mode: the analyser is created with the dimensions of the label map only and the
+ * planes (or blocks) are fed one after the other through addBlock().
  * <p>
  * Example code can be found in LabelParticleAnalyserTest
  * <p>
@@ -62,7 +67,21 @@ import net.imglib2.view.Views;
 public class LabelAnalyser<I extends RealType<I>, F extends RealType<F>> {
     public enum Feature {
         AREA_VOLUME("Area / volume"),
-        MEAN("Mean average signal");
+        MEAN("Mean average signal"),
+        MIN("Minimum signal"),
+        MAX("Maximum signal"),
+        SUM("Sum of signal"),
+        STDDEV("Standard deviation of signal"),
+        CENTROID_X("Centroid X"),
+        CENTROID_Y("Centroid Y"),
+        CENTROID_Z("Centroid Z"),
+        BBOX("Bounding box"),
+        OVERLAP_VOXELS("Voxels overlapping the mask"),
+        OVERLAP_FRACTION("Fraction overlapping the mask"),
+        TOUCHES_BORDER("Touches the image border"),
+        TOUCHES_BORDER_X("Touches the image border in X"),
+        TOUCHES_BORDER_Y("Touches the image border in Y"),
+        TOUCHES_BORDER_Z("Touches the image border in Z");
 
         private final String name;
 
@@ -80,37 +99,116 @@ public class LabelAnalyser<I extends RealType<I>, F extends RealType<F>> {
     private EnumSet<Feature> whatToMeasure = null;
 
     private final Img<I> labelMap;
+    private final Interval bounds;
     private Img<F> signalMap;
+    private Img<? extends RealType<?>> overlapMask;
 
     private final double[] voxelSize;
 
+    private int numThreads = 1;
+    private boolean sparseLabelIds = false;
+
+    // streaming mode
+    private LabelMomentsAccumulator<I, F> streamingAccumulator = null;
+    private boolean streamingSignal = false;
+    private boolean streamingMask = false;
+
     // State:
     private boolean resultsValid = false;
 
     // Output:
     private int numLabels = 0;
+    private LabelCensus census = null;
 
-    private double[] volumes = null;
-    private double[] averages = null;
+    private final EnumMap<Feature, double[]> features = new EnumMap<Feature, double[]>(Feature.class);
 
 
     public LabelAnalyser(Img<I> labelMap, double[] voxelSize, Feature[] featuresToExtract) {
         this.labelMap = labelMap;
+        this.bounds = labelMap;
         this.whatToMeasure = EnumSet.copyOf(Arrays.asList(featuresToExtract));
         this.voxelSize = voxelSize;
     }
 
     public LabelAnalyser(Img<I> labelMap, double[] voxelSize, EnumSet<Feature> featuresToExtract) {
         this.labelMap = labelMap;
+        this.bounds = labelMap;
         this.whatToMeasure = featuresToExtract;
         this.voxelSize = voxelSize;
     }
 
+    /**
+     * Streaming mode: the label map is fed block by block through addBlock(), see LabelMomentsAccumulator.addBlock(). Features can be requested after
+     * the last block.
+     *
+     * @param bounds            interval of the complete label map
+     * @param voxelSize         array with voxel size information
+     * @param featuresToExtract features to be measured
+     */
+    public LabelAnalyser(Interval bounds, double[] voxelSize, EnumSet<Feature> featuresToExtract) {
+        this.labelMap = null;
+        this.bounds = new FinalInterval(bounds);
+        this.whatToMeasure = featuresToExtract;
+        this.voxelSize = voxelSize;
+    }
+
+    /**
+     * Measure a part of the label map in streaming mode. Only the per-label values are kept in memory, not the block.
+     *
+     * @param offset position of the first pixel of the block in the complete label map
+     * @param labels part of the label map, containing complete rows
+     * @param signal signal image of the same part or null; either given for all blocks or for none
+     * @param mask   overlap mask of the same part or null; either given for all blocks or for none
+     */
+    public void addBlock(long[] offset, Img<I> labels, Img<F> signal, Img<? extends RealType<?>> mask) {
+        if (labelMap != null) {
+            throw new IllegalStateException("Blocks can only be added in streaming mode.");
+        }
+        if (streamingAccumulator == null) {
+            streamingAccumulator = createAccumulator();
+        }
+        streamingSignal = needsSignal() && signal != null;
+        streamingMask = needsOverlapMask() && mask != null;
+        streamingAccumulator.addBlock(offset, labels, streamingSignal ? signal : null, streamingMask ? mask : null);
+    }
+
     public void setSignalImage(Img<F> signalImage) {
         this.signalMap = signalImage;
         resultsValid = false;
     }
 
+    /**
+     * The overlap features (OVERLAP_VOXELS, OVERLAP_FRACTION) count the pixels of every label where the mask is not zero.
+     *
+     * @param overlapMask binary image or label map, same size as the label map
+     */
+    public void setOverlapMask(Img<? extends RealType<?>> overlapMask) {
+        this.overlapMask = overlapMask;
+        resultsValid = false;
+    }
+
+
+    /**
+     * Measure all labels in parallel. The label map is split into slabs along its slowest axis, which are accumulated in separate threads and merged
+     * afterwards. See LabelMomentsAccumulator.setNumThreads() for details.
+     *
+     * @param numThreads default: 1
+     */
+    public void setNumThreads(int numThreads) {
+        this.numThreads = numThreads;
+        resultsValid = false;
+    }
+
+    /**
+     * Measure only labels which are present in the label map. Feature arrays then contain one entry per present label in ascending id order instead of
+     * one entry per id from 1 to the highest label id; getLabelIds() delivers the corresponding ids. See LabelMomentsAccumulator.setSparseLabelIds().
+     *
+     * @param sparseLabelIds default: false
+     */
+    public void setSparseLabelIds(boolean sparseLabelIds) {
+        this.sparseLabelIds = sparseLabelIds;
+        resultsValid = false;
+    }
 
     private void doFeatureExtaction() {
         if (resultsValid) {
@@ -119,78 +217,244 @@ public class LabelAnalyser<I extends RealType<I>, F extends RealType<F>> {
 
         // ------------------------
         // reset
-        volumes = null;
-        averages = null;
+        features.clear();
 
         // ------------------------------------------------------------------------------------
-        // Prepare: Get label map and signal image in ImgLib2 format, read out sizes, dimensions, number of labels
-        LabelRegions<Integer> regions = null;
+        // Prepare: Decide what the single sweep through the label map has to accumulate
+        LabelMomentsAccumulator<I, F> lma;
+        boolean hasSignal;
+        boolean hasMask;
+        if (labelMap == null) {
+            // streaming mode: all blocks were added already
+            if (streamingAccumulator == null) {
+                streamingAccumulator = createAccumulator();
+            }
+            lma = streamingAccumulator;
+            hasSignal = streamingSignal;
+            hasMask = streamingMask;
+        } else {
+            lma = createAccumulator();
+            hasSignal = signalMap != null && needsSignal();
+            hasMask = overlapMask != null && needsOverlapMask();
+            if (hasSignal) {
+                lma.setSignalImage(signalMap);
+            }
+            if (hasMask) {
+                lma.setOverlapMask(overlapMask);
+            }
+        }
 
-        Interval[] boundingIntervals = LabelAnalyser.getLabelsBoundingIntervals(labelMap);
+        census = lma.getCensus();
+        numLabels = census.getNumIndices();
 
-        int numDimensions = labelMap.numDimensions();
+        int numDimensions = bounds.numDimensions();
         DebugHelper.print(this, "numDimensions " + numDimensions);
         DebugHelper.print(this, "numLabels " + numLabels);
 
-        numLabels = boundingIntervals.length;
-
         // -------------------------------------------------------------
         // prepare: Create memory for all deserved parameters
-        if (whatToMeasure.contains(Feature.AREA_VOLUME)) {
-            volumes = new double[numLabels];
-        }
-        if (whatToMeasure.contains(Feature.MEAN)) {
-            averages = new double[numLabels];
+        for (Feature feature : whatToMeasure) {
+            features.put(feature, new double[feature == Feature.BBOX ? numLabels * 2 * numDimensions : numLabels]);
         }
+        double[] volumes = features.get(Feature.AREA_VOLUME);
+        double[] averages = features.get(Feature.MEAN);
+        double[] minima = features.get(Feature.MIN);
+        double[] maxima = features.get(Feature.MAX);
+        double[] sums = features.get(Feature.SUM);
+        double[] standardDeviations = features.get(Feature.STDDEV);
+        double[] centroidsX = features.get(Feature.CENTROID_X);
+        double[] centroidsY = features.get(Feature.CENTROID_Y);
+        double[] centroidsZ = features.get(Feature.CENTROID_Z);
+        double[] boundingBoxes = features.get(Feature.BBOX);
+        double[] overlapVoxels = features.get(Feature.OVERLAP_VOXELS);
+        double[] overlapFractions = features.get(Feature.OVERLAP_FRACTION);
+        double[][] touchesBorder = {features.get(Feature.TOUCHES_BORDER_X), features.get(Feature.TOUCHES_BORDER_Y), features.get(Feature.TOUCHES_BORDER_Z)};
+        double[] touchesAnyBorder = features.get(Feature.TOUCHES_BORDER);
 
         // ---------------------------------------------------------------------------------------
-        // Go through all labels and determine parameters (which were not determined so far)
+        // Go through all labels and collect parameters
         for (int i = 0; i < numLabels; i++) {
-            // TODO: since we only have volumes left for calculation could simplify the LabelMoments3D
-            LabelMoments3D<I, F> lm3d = new LabelMoments3D<I, F>(labelMap, i + 1, boundingIntervals[i], voxelSize, 2);
-
+            int labelId = census.getLabelId(i);
+            long voxelCount = census.getVoxelCount(labelId);
             if (volumes != null) {
-                volumes[i] = lm3d.getMoments()[0][0][0];
+                volumes[i] = voxelCount;
             }
 
-            if (signalMap != null) {
-                if (averages != null ) {
+            if (centroidsX != null) {
+                centroidsX[i] = lma.getMoment(labelId, 1, 0, 0) / voxelCount;
+            }
+            if (centroidsY != null) {
+                centroidsY[i] = lma.getMoment(labelId, 0, 1, 0) / voxelCount;
+            }
+            if (centroidsZ != null) {
+                centroidsZ[i] = lma.getMoment(labelId, 0, 0, 1) / voxelCount;
+            }
 
-                    if (averages != null) {
-                        double volume = lm3d.getMoments()[0][0][0];
-                        lm3d.setSignalImage(signalMap);
-                        averages[i] = lm3d.getMoments()[0][0][0] / volume;
-                    } else {
-                        lm3d.setSignalImage(signalMap);
+            if (voxelCount > 0 && (touchesAnyBorder != null || touchesBorder[0] != null || touchesBorder[1] != null || touchesBorder[2] != null)) {
+                long[] boundingBox = census.getBoundingBox(labelId);
+                for (int d = 0; d < numDimensions; d++) {
+                    if (boundingBox[d] == bounds.min(d) || boundingBox[numDimensions + d] == bounds.max(d)) {
+                        if (d < touchesBorder.length && touchesBorder[d] != null) {
+                            touchesBorder[d][i] = 1;
+                        }
+                        if (touchesAnyBorder != null) {
+                            touchesAnyBorder[i] = 1;
+                        }
                     }
                 }
+            }
 
-                if (regions != null) {
-                    LabelRegion<Integer> lr = regions.getLabelRegion(i + 1);
-                    IterableInterval<F> ii = Regions.sample(lr, signalMap);
+            if (boundingBoxes != null) {
+                long[] boundingBox = census.getBoundingBox(labelId);
+                for (int d = 0; d < boundingBox.length; d++) {
+                    boundingBoxes[i * boundingBox.length + d] = boundingBox[d];
+                }
+            }
 
-                    F min = signalMap.cursor().next().copy();
-                    F max = signalMap.cursor().next().copy();
+            if (hasSignal) {
+                if (averages != null) {
+                    averages[i] = lma.getSignalMoment(labelId, 0, 0, 0) / voxelCount;
+                }
+                if (minima != null) {
+                    minima[i] = lma.getSignalMinimum(labelId);
+                }
+                if (maxima != null) {
+                    maxima[i] = lma.getSignalMaximum(labelId);
+                }
+                if (sums != null) {
+                    sums[i] = lma.getSignalSum(labelId);
+                }
+                if (standardDeviations != null) {
+                    standardDeviations[i] = lma.getSignalStandardDeviation(labelId);
+                }
+            }
 
-                    ComputeMinMax<F> cmm = new ComputeMinMax<F>(ii, min, max);
-                    cmm.process();
+            if (hasMask) {
+                long overlap = lma.getOverlapVoxelCount(labelId);
+                if (overlapVoxels != null) {
+                    overlapVoxels[i] = overlap;
+                }
+                if (overlapFractions != null) {
+                    overlapFractions[i] = (double) overlap / voxelCount;
                 }
             }
         }
         resultsValid = true;
     }
 
+    private boolean needsSignalStatistics() {
+        return whatToMeasure.contains(Feature.MIN) || whatToMeasure.contains(Feature.MAX) || whatToMeasure.contains(Feature.SUM)
+                || whatToMeasure.contains(Feature.STDDEV);
+    }
+
+    private boolean needsSignal() {
+        return whatToMeasure.contains(Feature.MEAN) || needsSignalStatistics();
+    }
+
+    private boolean needsOverlapMask() {
+        return whatToMeasure.contains(Feature.OVERLAP_VOXELS) || whatToMeasure.contains(Feature.OVERLAP_FRACTION);
+    }
+
+    /**
+     * @return accumulator for the label map or, in streaming mode, for blocks of it, prepared for the requested features
+     */
+    private LabelMomentsAccumulator<I, F> createAccumulator() {
+        boolean centroids = whatToMeasure.contains(Feature.CENTROID_X) || whatToMeasure.contains(Feature.CENTROID_Y)
+                || whatToMeasure.contains(Feature.CENTROID_Z);
+
+        // Area/volume and mean only need the moment of order zero, centroids the moments of order one.
+        LabelMomentsAccumulator<I, F> lma;
+        if (labelMap == null) {
+            lma = new LabelMomentsAccumulator<I, F>(bounds, voxelSize, centroids ? 1 : 0);
+        } else {
+            lma = new LabelMomentsAccumulator<I, F>(labelMap, voxelSize, centroids ? 1 : 0);
+        }
+        lma.setNumThreads(numThreads);
+        lma.setSparseLabelIds(sparseLabelIds);
+        lma.setSignalStatistics(needsSignalStatistics());
+        return lma;
+    }
 
+
+    /**
+     * @return the number of labels, which equals the highest label id in the label map, or the number of present labels in sparse mode
+     */
+    public int getNumLabels() {
+        doFeatureExtaction();
+        return numLabels;
+    }
+
+    /**
+     * @return label ids corresponding to the entries of the feature arrays
+     */
+    public int[] getLabelIds() {
+        doFeatureExtaction();
+        return census.getLabelIds();
+    }
+
+    /**
+     * @return highest label id, pixel counts, bounding boxes and present label ids, which were determined in the same sweep as the features.
+     */
+    public LabelCensus getCensus() {
+        doFeatureExtaction();
+        return census;
+    }
+
+    /**
+     * @param measurement feature which was given in the constructor
+     * @return one value per label (see getLabelIds()) or null, if the feature was not requested. For BBOX, the array contains 2 * numDimensions values
+     * per label: all minimum positions followed by all maximum positions.
+     */
     public double[] getFeatures(Feature measurement) {
         doFeatureExtaction();
+        return features.get(measurement);
+    }
+
+    /**
+     * @return all requested features in a columnar table in double precision, see getFeatureTable(boolean)
+     */
+    public LabelFeatureTable getFeatureTable() {
+        return getFeatureTable(false);
+    }
+
+    /**
+     * Collect all requested features in a columnar table with one row per label and the label ids in the id column. Columns are named after the
+     * features (e.g. AREA_VOLUME); BBOX is split into one column per minimum and maximum position (BBOX_MIN_X, ..., BBOX_MAX_Z).
+     *
+     * @param singlePrecision store the columns as float[] to halve memory
+     * @return table of features
+     */
+    public LabelFeatureTable getFeatureTable(boolean singlePrecision) {
+        doFeatureExtaction();
+        LabelFeatureTable table = new LabelFeatureTable(census.getLabelIds());
+        for (Feature feature : features.keySet()) {
+            double[] values = features.get(feature);
+            if (feature == Feature.BBOX) {
+                int numDimensions = bounds.numDimensions();
+                for (int d = 0; d < 2 * numDimensions; d++) {
+                    double[] column = new double[numLabels];
+                    for (int i = 0; i < numLabels; i++) {
+                        column[i] = values[i * 2 * numDimensions + d];
+                    }
+                    String axis = d % numDimensions < 3 ? "XYZ".substring(d % numDimensions, d % numDimensions + 1) : "D" + (d % numDimensions);
+                    addColumn(table, (d < numDimensions ? "BBOX_MIN_" : "BBOX_MAX_") + axis, column, singlePrecision);
+                }
+            } else {
+                addColumn(table, feature.name(), values, singlePrecision);
+            }
+        }
+        return table;
+    }
 
-        switch (measurement) {
-            case AREA_VOLUME:
-                return volumes;
-            case MEAN:
-                return averages;
-           default:
-                return null;
+    private static void addColumn(LabelFeatureTable table, String name, double[] values, boolean singlePrecision) {
+        if (singlePrecision) {
+            float[] floatValues = new float[values.length];
+            for (int i = 0; i < values.length; i++) {
+                floatValues[i] = (float) values[i];
+            }
+            table.addColumn(name, floatValues);
+        } else {
+            table.addColumn(name, values);
         }
     }
 
@@ -203,86 +467,109 @@ public class LabelAnalyser<I extends RealType<I>, F extends RealType<F>> {
      * @return returns an array containing (int)max grey value elements.
      */
     public static <T extends RealType<T>> long[] getLabelsPixelCount(Img<T> img) {
+        return getLabelsPixelCount(img, 1);
+    }
 
-        Cursor<T> cursor = img.cursor();
-        int max = 0;
-        while (cursor.hasNext()) {
-            int val = (int) cursor.next().getRealFloat();
-            if (val > max) {
-                max = val;
-            }
-        }
-
-        long[] volumes = new long[max];
-        cursor.reset();
-        while (cursor.hasNext()) {
-            int val = (int) cursor.next().getRealFloat();
-            if (val > 0) {
-                volumes[val - 1]++;
-            }
-        }
+    /**
+     * Returns a histogram of all pixels in the image, see getLabelsPixelCount(Img). The image is processed in parallel.
+     *
+     * @param img        ImgLib2 Img to be processed.
+     * @param numThreads number of threads to use
+     * @param <T>        pixel type of the image
+     * @return returns an array containing (int)max grey value elements.
+     */
+    public static <T extends RealType<T>> long[] getLabelsPixelCount(Img<T> img, int numThreads) {
+        return getLabelsPixelCount(getLabelCensus(img, numThreads));
+    }
 
-        return volumes;
+    /**
+     * Returns the number of pixels of all labels from an existing census, see getLabelsPixelCount(Img). The label map is not read again.
+     *
+     * @param census census of the label map, see getLabelCensus()
+     * @return returns an array containing max label id elements.
+     */
+    public static long[] getLabelsPixelCount(LabelCensus census) {
+        return census.getVoxelCounts();
     }
 
 
     public static <T extends RealType<T>> long[][] getLabelsBoundingBoxes(Img<T> labelMap) {
-        Cursor<T> cursor = labelMap.cursor();
-        int max = 0;
-        while (cursor.hasNext()) {
-            int val = (int) cursor.next().getRealFloat();
-            if (val > max) {
-                max = val;
-            }
-        }
-
-        int numDimensions = labelMap.numDimensions();
+        return getLabelsBoundingBoxes(labelMap, 1);
+    }
 
-        long[][] minmaxintervals = new long[max][numDimensions * 2];
-        cursor.reset();
+    /**
+     * Determine the bounding boxes of all labels in a label map.
+     *
+     * @param labelMap   label map to be processed
+     * @param numThreads number of threads to use
+     * @param <T>        pixel type of the label map
+     * @return for every label id - 1 an array containing all minimum positions followed by all maximum positions
+     */
+    public static <T extends RealType<T>> long[][] getLabelsBoundingBoxes(Img<T> labelMap, int numThreads) {
+        return getLabelsBoundingBoxes(getLabelCensus(labelMap, numThreads));
+    }
 
-        boolean[] intervalInitialized = new boolean[max];
+    /**
+     * Determine the bounding boxes of all labels from an existing census, see getLabelsBoundingBoxes(Img, int). The label map is not read again.
+     *
+     * @param census census of the label map, see getLabelCensus()
+     * @return for every label id - 1 an array containing all minimum positions followed by all maximum positions
+     */
+    public static long[][] getLabelsBoundingBoxes(LabelCensus census) {
+        return census.getBoundingBoxes();
+    }
 
-        while (cursor.hasNext()) {
-            int idx = (int) cursor.next().getRealFloat() - 1;
-            if (idx >= 0) {
-                if (!intervalInitialized[idx]) {
-                    for (int d = 0; d < numDimensions; d++) {
-                        long position = cursor.getLongPosition(d);
-                        // min
-                        minmaxintervals[idx][d] = position;
-                        // max
-                        minmaxintervals[idx][d + numDimensions] = position;
-                    }
-                    intervalInitialized[idx] = true;
-                }
+    public static <T extends RealType<T>> Interval[] getLabelsBoundingIntervals(Img<T> labelMap) {
+        return getLabelsBoundingIntervals(labelMap, 1);
+    }
 
-                for (int d = 0; d < numDimensions; d++) {
-                    long position = cursor.getLongPosition(d);
-                    // min
-                    if (minmaxintervals[idx][d] > position) {
-                        minmaxintervals[idx][d] = position;
-                    }
-                    // max
-                    if (minmaxintervals[idx][d + numDimensions] < position) {
-                        minmaxintervals[idx][d + numDimensions] = position;
-                    }
-                }
-            }
-        }
+    public static <T extends RealType<T>> Interval[] getLabelsBoundingIntervals(Img<T> labelMap, int numThreads) {
+        return getLabelsBoundingIntervals(getLabelCensus(labelMap, numThreads));
+    }
 
-        return minmaxintervals;
+    /**
+     * Determine the bounding boxes of all labels as intervals from an existing census. The label map is not read again.
+     *
+     * @param census census of the label map, see getLabelCensus()
+     * @return for every label id - 1 the bounding interval
+     */
+    public static Interval[] getLabelsBoundingIntervals(LabelCensus census) {
+        return census.getBoundingIntervals();
     }
 
-    public static <T extends RealType<T>> Interval[] getLabelsBoundingIntervals(Img<T> labelMap) {
+    public static <T extends RealType<T>> LabelCensus getLabelCensus(Img<T> labelMap) {
+        return getLabelCensus(labelMap, 1);
+    }
 
-        long[][] boundingBoxes = LabelAnalyser.getLabelsBoundingBoxes(labelMap);
-        Interval[] intervals = new Interval[boundingBoxes.length];
+    /**
+     * Determine highest label id, pixel counts, bounding boxes and present label ids of a label map in a single sweep. If more than one of these values
+     * is needed, call this method once and read all of them from the census instead of calling getLabelsPixelCount(), getLabelsBoundingBoxes() etc.
+     * separately.
+     *
+     * @param labelMap   label map to be processed
+     * @param numThreads number of threads to use
+     * @param <T>        pixel type of the label map
+     * @return census of the label map
+     */
+    public static <T extends RealType<T>> LabelCensus getLabelCensus(Img<T> labelMap, int numThreads) {
+        return getLabelCensus(labelMap, numThreads, false);
+    }
 
-        for (int i = 0; i < intervals.length; i++) {
-            intervals[i] = Intervals.createMinMax(boundingBoxes[i]);
-        }
-        return intervals;
+    /**
+     * Determine the census of a label map, see getLabelCensus(Img, int). In sparse mode, only present label ids are stored, which keeps memory
+     * independent of the highest label id.
+     *
+     * @param labelMap       label map to be processed
+     * @param numThreads     number of threads to use
+     * @param sparseLabelIds store present label ids only
+     * @param <T>            pixel type of the label map
+     * @return census of the label map
+     */
+    public static <T extends RealType<T>> LabelCensus getLabelCensus(Img<T> labelMap, int numThreads, boolean sparseLabelIds) {
+        LabelMomentsAccumulator<T, T> lma = new LabelMomentsAccumulator<T, T>(labelMap, null, -1);
+        lma.setNumThreads(numThreads);
+        lma.setSparseLabelIds(sparseLabelIds);
+        return lma.getCensus();
     }
 
 
@@ -0,0 +1,266 @@
+package de.mpicbg.scf.imgtools.number.analyse.image;
+
+import java.util.Arrays;
+import net.imglib2.Interval;
+import net.imglib2.util.Intervals;
+
+/**
+ * Result of a single sweep through a label map: the highest label id, the number of pixels of every label, the bounding boxes of all labels and the set of
+ * label ids which are actually present. A census is delivered by LabelMomentsAccumulator.getCensus(), LabelAnalyser.getCensus() and
+ * LabelAnalyser.getLabelCensus(). The static helpers LabelAnalyser.getLabelsPixelCount(), getLabelsBoundingBoxes() and getLabelsBoundingIntervals() have
+ * overloads which take an existing census instead of reading the label map again.
+ * <p>
+ * Label ids are positive integers; 0 is background. Internally, all per-label values are stored by a dense index. In the default mode, the index is the
+ * label id - 1 and every id from 1 to the highest label id has an entry. In sparse mode (see LabelMomentsAccumulator.setSparseLabelIds()) only the ids
+ * which are present in the label map have an entry and the index is their rank in ascending id order. getIndex() and getLabelId() translate between both.
+ * Arrays delivered by the getIndexed...() methods are indexed by this dense index; all other arrays are indexed by label id - 1, analogous to
+ * LabelAnalyser.getLabelsPixelCount(), which means that they have as many elements as the highest label id also in sparse mode.
+ * <p>
+ * Date: October 2026
+ * <p>
+ * Copyright 2026 Max Planck Institute of Molecular Cell Biology and Genetics,
+ * Dresden, Germany
+ * <p>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+public class LabelCensus {
+    private final int numDimensions;
+    private final int maxLabel;
+    private final int numIndices;
+    private final LabelIndexMap indexMap;
+    private final long[] voxelCounts;
+    private final long[] boundingBoxes;
+    private int[] presentLabels = null;
+
+    /**
+     * @param numDimensions number of dimensions of the label map
+     * @param maxLabel      highest label id
+     * @param indexMap      map from label ids to dense indices in sparse mode, or null if the index is label id - 1
+     * @param numIndices    number of entries, maxLabel if indexMap is null
+     * @param voxelCounts   pixel count per index, at least numIndices elements
+     * @param boundingBoxes bounding boxes of all labels in a flat array: for every index all minimum positions followed by all maximum positions.
+     */
+    LabelCensus(int numDimensions, int maxLabel, LabelIndexMap indexMap, int numIndices, long[] voxelCounts, long[] boundingBoxes) {
+        this.numDimensions = numDimensions;
+        this.maxLabel = maxLabel;
+        this.indexMap = indexMap;
+        this.numIndices = numIndices;
+        this.voxelCounts = Arrays.copyOf(voxelCounts, numIndices);
+        this.boundingBoxes = Arrays.copyOf(boundingBoxes, numIndices * 2 * numDimensions);
+    }
+
+    /**
+     * @return number of dimensions of the label map
+     */
+    public int numDimensions() {
+        return numDimensions;
+    }
+
+    /**
+     * @return highest label id in the label map
+     */
+    public int getMaxLabel() {
+        return maxLabel;
+    }
+
+    /**
+     * @return true, if only present label ids have an entry
+     */
+    public boolean isSparse() {
+        return indexMap != null;
+    }
+
+    /**
+     * @return number of entries: the highest label id in the default mode, the number of present labels in sparse mode
+     */
+    public int getNumIndices() {
+        return numIndices;
+    }
+
+    /**
+     * @param labelId id of the label
+     * @return dense index of the label or -1, if the label has no entry
+     */
+    public int getIndex(int labelId) {
+        if (indexMap != null) {
+            return indexMap.get(labelId);
+        }
+        if (labelId < 1 || labelId > maxLabel) {
+            return -1;
+        }
+        return labelId - 1;
+    }
+
+    /**
+     * @param index dense index
+     * @return label id which belongs to the index
+     */
+    public int getLabelId(int index) {
+        if (indexMap != null) {
+            return indexMap.getLabelId(index);
+        }
+        return index + 1;
+    }
+
+    /**
+     * @return label ids of all entries, the array index corresponds to the dense index
+     */
+    public int[] getLabelIds() {
+        if (indexMap != null) {
+            return indexMap.getLabelIds();
+        }
+        int[] labelIds = new int[numIndices];
+        for (int i = 0; i < numIndices; i++) {
+            labelIds[i] = i + 1;
+        }
+        return labelIds;
+    }
+
+    /**
+     * @return all label ids with at least one pixel in ascending order
+     */
+    public int[] getPresentLabels() {
+        if (presentLabels == null) {
+            int count = 0;
+            for (long voxelCount : voxelCounts) {
+                if (voxelCount > 0) {
+                    count++;
+                }
+            }
+            presentLabels = new int[count];
+            count = 0;
+            for (int i = 0; i < numIndices; i++) {
+                if (voxelCounts[i] > 0) {
+                    presentLabels[count] = getLabelId(i);
+                    count++;
+                }
+            }
+        }
+        return presentLabels.clone();
+    }
+
+    /**
+     * @return number of label ids with at least one pixel
+     */
+    public int getNumPresentLabels() {
+        if (presentLabels == null) {
+            getPresentLabels();
+        }
+        return presentLabels.length;
+    }
+
+    /**
+     * @param labelId id of the label
+     * @return true, if the label has at least one pixel
+     */
+    public boolean isPresent(int labelId) {
+        return getVoxelCount(labelId) > 0;
+    }
+
+    /**
+     * @param labelId id of the label
+     * @return number of pixels of the label
+     */
+    public long getVoxelCount(int labelId) {
+        int index = getIndex(labelId);
+        if (index < 0) {
+            return 0;
+        }
+        return voxelCounts[index];
+    }
+
+    /**
+     * @return number of pixels per label id - 1, see LabelAnalyser.getLabelsPixelCount()
+     */
+    public long[] getVoxelCounts() {
+        if (indexMap == null) {
+            return voxelCounts.clone();
+        }
+        long[] result = new long[maxLabel];
+        for (int i = 0; i < numIndices; i++) {
+            result[indexMap.getLabelId(i) - 1] = voxelCounts[i];
+        }
+        return result;
+    }
+
+    /**
+     * @return number of pixels per dense index
+     */
+    public long[] getIndexedVoxelCounts() {
+        return voxelCounts.clone();
+    }
+
+    /**
+     * @param labelId id of the label
+     * @return array containing all minimum positions followed by all maximum positions of the label. Labels which are not present have a bounding box of
+     * zeros.
+     */
+    public long[] getBoundingBox(int labelId) {
+        int index = getIndex(labelId);
+        if (index < 0) {
+            return new long[2 * numDimensions];
+        }
+        return Arrays.copyOfRange(boundingBoxes, index * 2 * numDimensions, (index + 1) * 2 * numDimensions);
+    }
+
+    /**
+     * @return bounding boxes of all labels, see LabelAnalyser.getLabelsBoundingBoxes()
+     */
+    public long[][] getBoundingBoxes() {
+        long[][] result = new long[maxLabel][];
+        for (int i = 0; i < maxLabel; i++) {
+            result[i] = getBoundingBox(i + 1);
+        }
+        return result;
+    }
+
+    /**
+     * @return bounding boxes per dense index
+     */
+    public long[][] getIndexedBoundingBoxes() {
+        long[][] result = new long[numIndices][];
+        for (int i = 0; i < numIndices; i++) {
+            result[i] = Arrays.copyOfRange(boundingBoxes, i * 2 * numDimensions, (i + 1) * 2 * numDimensions);
+        }
+        return result;
+    }
+
+    /**
+     * @param labelId id of the label
+     * @return bounding box of the label as interval
+     */
+    public Interval getBoundingInterval(int labelId) {
+        return Intervals.createMinMax(getBoundingBox(labelId));
+    }
+
+    /**
+     * @return bounding boxes of all labels as intervals, see LabelAnalyser.getLabelsBoundingIntervals()
+     */
+    public Interval[] getBoundingIntervals() {
+        Interval[] intervals = new Interval[maxLabel];
+        for (int i = 0; i < maxLabel; i++) {
+            intervals[i] = getBoundingInterval(i + 1);
+        }
+        return intervals;
+    }
+}
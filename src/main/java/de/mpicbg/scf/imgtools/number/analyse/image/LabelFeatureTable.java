@@ -0,0 +1,378 @@
+package de.mpicbg.scf.imgtools.number.analyse.image;
+
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+
+/**
+ * Columnar table of label features: one column with label ids and one primitive column per feature. Columns are stored either as double[] or, to halve
+ * memory, as float[]. The arrays are handed out without copying; callers must not modify them.
+ * <p>
+ * Tables are exported without creating objects per row, either as CSV (header line with column names, one line per label) or as binary columnar dump.
+ * The binary format is little-endian:
+ * <pre>
+ * int32  magic number 0x4C465431 ("LFT1")
+ * int32  number of rows
+ * int32  number of feature columns
+ * for every feature column: int8 bytes per value (4 = float32, 8 = float64), int32 length of the name in bytes, name in UTF-8
+ * int32[number of rows] label ids
+ * for every feature column: float32 or float64[number of rows] values
+ * </pre>
+ * <p>
+ * A table of all requested features is delivered by LabelAnalyser.getFeatureTable().
+ * <p>
+ * Date: October 2026
+ * <p>
+ * Copyright 2026 Max Planck Institute of Molecular Cell Biology and Genetics,
+ * Dresden, Germany
+ * <p>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+public class LabelFeatureTable {
+    public static final String ID_COLUMN_NAME = "ID";
+    public static final int BINARY_MAGIC_NUMBER = 0x4C465431;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final int[] labelIds;
+    private final ArrayList<String> columnNames = new ArrayList<String>();
+    private final ArrayList<Object> columns = new ArrayList<Object>();
+
+    /**
+     * @param labelIds label id of every row; the array is used without copying
+     */
+    public LabelFeatureTable(int[] labelIds) {
+        this.labelIds = labelIds;
+    }
+
+    /**
+     * Add a column in double precision.
+     *
+     * @param name   name of the column
+     * @param values one value per row; the array is used without copying
+     */
+    public void addColumn(String name, double[] values) {
+        checkColumn(name, values.length);
+        columnNames.add(name);
+        columns.add(values);
+    }
+
+    /**
+     * Add a column in single precision.
+     *
+     * @param name   name of the column
+     * @param values one value per row; the array is used without copying
+     */
+    public void addColumn(String name, float[] values) {
+        checkColumn(name, values.length);
+        columnNames.add(name);
+        columns.add(values);
+    }
+
+    private void checkColumn(String name, int length) {
+        if (length != labelIds.length) {
+            throw new IllegalArgumentException("Column " + name + " has " + length + " values, but the table has " + labelIds.length + " rows.");
+        }
+        if (getColumnIndex(name) >= 0 || ID_COLUMN_NAME.equals(name)) {
+            throw new IllegalArgumentException("Column " + name + " exists already.");
+        }
+    }
+
+    /**
+     * @return number of rows, which is the number of labels
+     */
+    public int getNumRows() {
+        return labelIds.length;
+    }
+
+    /**
+     * @return number of feature columns, the id column is not counted
+     */
+    public int getNumColumns() {
+        return columns.size();
+    }
+
+    /**
+     * @return label id of every row
+     */
+    public int[] getLabelIds() {
+        return labelIds;
+    }
+
+    /**
+     * @param column index of the column
+     * @return name of the column
+     */
+    public String getColumnName(int column) {
+        return columnNames.get(column);
+    }
+
+    /**
+     * @param name name of the column
+     * @return index of the column or -1, if there is no such column
+     */
+    public int getColumnIndex(String name) {
+        return columnNames.indexOf(name);
+    }
+
+    /**
+     * @param column index of the column
+     * @return true, if the column is stored as float[]
+     */
+    public boolean isSinglePrecision(int column) {
+        return columns.get(column) instanceof float[];
+    }
+
+    /**
+     * @param column index of the column
+     * @return the values of the column or null, if the column is stored in single precision
+     */
+    public double[] getDoubleColumn(int column) {
+        Object values = columns.get(column);
+        return values instanceof double[] ? (double[]) values : null;
+    }
+
+    /**
+     * @param column index of the column
+     * @return the values of the column or null, if the column is stored in double precision
+     */
+    public float[] getFloatColumn(int column) {
+        Object values = columns.get(column);
+        return values instanceof float[] ? (float[]) values : null;
+    }
+
+    /**
+     * @param row    index of the row
+     * @param column index of the column
+     * @return the value in the given cell
+     */
+    public double getValue(int row, int column) {
+        Object values = columns.get(column);
+        if (values instanceof float[]) {
+            return ((float[]) values)[row];
+        }
+        return ((double[]) values)[row];
+    }
+
+    /**
+     * Write the table as CSV file.
+     *
+     * @param file target file
+     * @throws IOException if writing fails
+     */
+    public void writeCsv(File file) throws IOException {
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), UTF8);
+        try {
+            writeCsv(writer);
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Write the table as CSV: a header line with the column names followed by one line per label. Values are formatted like Double.toString() and
+     * Float.toString() respectively. The writer is flushed but not closed.
+     *
+     * @param writer target
+     * @throws IOException if writing fails
+     */
+    public void writeCsv(Writer writer) throws IOException {
+        BufferedWriter out = new BufferedWriter(writer, BUFFER_SIZE);
+
+        // one line is formatted into a reused builder, which is copied into a reused char array
+        StringBuilder line = new StringBuilder();
+        char[] chars = new char[256];
+
+        line.append(ID_COLUMN_NAME);
+        for (String name : columnNames) {
+            line.append(',').append(name);
+        }
+        line.append('\n');
+        chars = write(out, line, chars);
+
+        int numColumns = columns.size();
+        for (int row = 0; row < labelIds.length; row++) {
+            line.setLength(0);
+            line.append(labelIds[row]);
+            for (int column = 0; column < numColumns; column++) {
+                line.append(',');
+                Object values = columns.get(column);
+                if (values instanceof float[]) {
+                    line.append(((float[]) values)[row]);
+                } else {
+                    line.append(((double[]) values)[row]);
+                }
+            }
+            line.append('\n');
+            chars = write(out, line, chars);
+        }
+        out.flush();
+    }
+
+    private static char[] write(Writer out, StringBuilder line, char[] chars) throws IOException {
+        if (line.length() > chars.length) {
+            chars = new char[2 * line.length()];
+        }
+        line.getChars(0, line.length(), chars, 0);
+        out.write(chars, 0, line.length());
+        return chars;
+    }
+
+    /**
+     * Write the table in the binary columnar format.
+     *
+     * @param file target file
+     * @throws IOException if writing fails
+     */
+    public void writeBinary(File file) throws IOException {
+        OutputStream stream = new FileOutputStream(file);
+        try {
+            writeBinary(stream);
+        } finally {
+            stream.close();
+        }
+    }
+
+    /**
+     * Write the table in the binary columnar format, see class description. The stream is flushed but not closed.
+     *
+     * @param stream target
+     * @throws IOException if writing fails
+     */
+    public void writeBinary(OutputStream stream) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+        buffer.putInt(BINARY_MAGIC_NUMBER);
+        buffer.putInt(labelIds.length);
+        buffer.putInt(columns.size());
+        for (int column = 0; column < columns.size(); column++) {
+            byte[] name = columnNames.get(column).getBytes(UTF8);
+            ensureRemaining(stream, buffer, 5 + name.length);
+            buffer.put((byte) (isSinglePrecision(column) ? 4 : 8));
+            buffer.putInt(name.length);
+            buffer.put(name);
+        }
+
+        for (int id : labelIds) {
+            ensureRemaining(stream, buffer, 4);
+            buffer.putInt(id);
+        }
+        for (Object values : columns) {
+            if (values instanceof float[]) {
+                for (float value : (float[]) values) {
+                    ensureRemaining(stream, buffer, 4);
+                    buffer.putFloat(value);
+                }
+            } else {
+                for (double value : (double[]) values) {
+                    ensureRemaining(stream, buffer, 8);
+                    buffer.putDouble(value);
+                }
+            }
+        }
+
+        flush(stream, buffer);
+        stream.flush();
+    }
+
+    private static void ensureRemaining(OutputStream stream, ByteBuffer buffer, int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            flush(stream, buffer);
+            if (buffer.capacity() < bytes) {
+                throw new IOException("Entry of " + bytes + " bytes does not fit into the write buffer.");
+            }
+        }
+    }
+
+    private static void flush(OutputStream stream, ByteBuffer buffer) throws IOException {
+        stream.write(buffer.array(), 0, buffer.position());
+        buffer.clear();
+    }
+
+    /**
+     * Read a table which was written by writeBinary().
+     *
+     * @param stream source, which is not closed
+     * @return the table
+     * @throws IOException if reading fails or the stream does not contain a table
+     */
+    public static LabelFeatureTable readBinary(InputStream stream) throws IOException {
+        DataInputStream in = new DataInputStream(stream);
+        ByteBuffer header = read(in, 12);
+        if (header.getInt() != BINARY_MAGIC_NUMBER) {
+            throw new IOException("Stream does not contain a label feature table.");
+        }
+        int numRows = header.getInt();
+        int numColumns = header.getInt();
+
+        int[] bytesPerValue = new int[numColumns];
+        String[] names = new String[numColumns];
+        for (int column = 0; column < numColumns; column++) {
+            ByteBuffer columnHeader = read(in, 5);
+            bytesPerValue[column] = columnHeader.get();
+            byte[] name = new byte[columnHeader.getInt()];
+            in.readFully(name);
+            names[column] = new String(name, UTF8);
+        }
+
+        int[] labelIds = new int[numRows];
+        read(in, 4 * numRows).asIntBuffer().get(labelIds);
+        LabelFeatureTable table = new LabelFeatureTable(labelIds);
+        for (int column = 0; column < numColumns; column++) {
+            if (bytesPerValue[column] == 4) {
+                float[] values = new float[numRows];
+                read(in, 4 * numRows).asFloatBuffer().get(values);
+                table.addColumn(names[column], values);
+            } else if (bytesPerValue[column] == 8) {
+                double[] values = new double[numRows];
+                read(in, 8 * numRows).asDoubleBuffer().get(values);
+                table.addColumn(names[column], values);
+            } else {
+                throw new IOException("Unsupported value size " + bytesPerValue[column] + " of column " + names[column]);
+            }
+        }
+        return table;
+    }
+
+    private static ByteBuffer read(DataInputStream in, int bytes) throws IOException {
+        byte[] data = new byte[bytes];
+        try {
+            in.readFully(data);
+        } catch (EOFException e) {
+            throw new IOException("Stream ended before the label feature table was complete.", e);
+        }
+        return ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+    }
+}
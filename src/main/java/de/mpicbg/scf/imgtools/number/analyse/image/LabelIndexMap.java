@@ -0,0 +1,162 @@
+package de.mpicbg.scf.imgtools.number.analyse.image;
+
+import java.util.Arrays;
+
+/**
+ * Map from label ids to dense indices 0, 1, 2, ... in the order the ids were added. It is used for label maps with sparse ids (e.g. global track ids in
+ * the millions with only a few thousand labels present), where arrays indexed by label id - 1 would be mostly empty. Keys and indices are kept in
+ * primitive arrays with open addressing (linear probing), so no boxing takes place while sweeping through an image.
+ * <p>
+ * Only positive ids can be stored, 0 is background.
+ * <p>
+ * Date: October 2026
+ * <p>
+ * Copyright 2026 Max Planck Institute of Molecular Cell Biology and Genetics,
+ * Dresden, Germany
+ * <p>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+public class LabelIndexMap {
+    private static final int EMPTY = 0;
+
+    private int[] keys;
+    private int[] values;
+    private int[] ids;
+    private int size = 0;
+    private int mask;
+
+    public LabelIndexMap() {
+        this(16);
+    }
+
+    /**
+     * @param expectedSize number of ids which are expected to be added
+     */
+    public LabelIndexMap(int expectedSize) {
+        int capacity = 16;
+        while (capacity < 2 * expectedSize) {
+            capacity *= 2;
+        }
+        keys = new int[capacity];
+        values = new int[capacity];
+        ids = new int[Math.max(16, expectedSize)];
+        mask = capacity - 1;
+    }
+
+    /**
+     * @return number of ids in the map
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param labelId id of the label
+     * @return dense index of the label or -1, if the id was not added
+     */
+    public int get(int labelId) {
+        if (labelId <= 0) {
+            return -1;
+        }
+        int slot = slot(labelId);
+        while (keys[slot] != EMPTY) {
+            if (keys[slot] == labelId) {
+                return values[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Add an id to the map, if it is not in already.
+     *
+     * @param labelId id of the label, must be positive
+     * @return dense index of the label
+     */
+    public int add(int labelId) {
+        if (labelId <= 0) {
+            throw new IllegalArgumentException("Label id must be positive: " + labelId);
+        }
+        int slot = slot(labelId);
+        while (keys[slot] != EMPTY) {
+            if (keys[slot] == labelId) {
+                return values[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        int index = size;
+        keys[slot] = labelId;
+        values[slot] = index;
+        if (index == ids.length) {
+            ids = Arrays.copyOf(ids, ids.length * 2);
+        }
+        ids[index] = labelId;
+        size++;
+
+        // keep the load factor below 1/2
+        if (2 * size > keys.length) {
+            rehash(keys.length * 2);
+        }
+        return index;
+    }
+
+    /**
+     * @param index dense index
+     * @return label id which belongs to the index
+     */
+    public int getLabelId(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of range 0.." + (size - 1));
+        }
+        return ids[index];
+    }
+
+    /**
+     * @return all ids, the array index corresponds to the dense index
+     */
+    public int[] getLabelIds() {
+        return Arrays.copyOf(ids, size);
+    }
+
+    private int slot(int labelId) {
+        // Fibonacci hashing spreads consecutive ids over the table
+        int hash = labelId * 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+
+    private void rehash(int capacity) {
+        keys = new int[capacity];
+        values = new int[capacity];
+        mask = capacity - 1;
+        for (int index = 0; index < size; index++) {
+            int slot = slot(ids[index]);
+            while (keys[slot] != EMPTY) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = ids[index];
+            values[slot] = index;
+        }
+    }
+}
@@ -1,7 +1,5 @@
 package de.mpicbg.scf.imgtools.number.analyse.image;
 
-import Jama.EigenvalueDecomposition;
-import Jama.Matrix;
 import de.mpicbg.scf.imgtools.ui.DebugHelper;
 import net.imglib2.Cursor;
 import net.imglib2.Interval;
@@ -47,6 +45,8 @@ import net.imglib2.view.Views;
  * POSSIBILITY OF SUCH DAMAGE.
  */
 public class LabelMoments3D<T extends RealType<T>, U extends RealType<U>> {
+    private static final int MOMENT_DIMENSIONS = 3;
+
     private final Img<T> labelMap;
     private Img<U> signalMap;
     /* private double averageSignal = 0; */
@@ -89,7 +89,8 @@ public class LabelMoments3D<T extends RealType<T>, U extends RealType<U>> {
     }
 
     /**
-     * Actual calculation of the central moments (translation invariant moments)
+     * Actual calculation of the central moments (translation invariant moments). They are derived from the moments in closed form, see
+     * MomentUtilities.getCentralMoments(); the label map is not read again.
      *
      * @return 3D-Array containing (n+1)*(n+1)*(n+1) elements corresponding to the moments of the 3D object. n is the maximum order of moments to be calculated
      * (given in constructor)
@@ -101,10 +102,15 @@ public class LabelMoments3D<T extends RealType<T>, U extends RealType<U>> {
                 return null;
             }
 
-            double centerX = moments[1][0][0] / moments[0][0][0];
-            double centerY = moments[0][1][0] / moments[0][0][0];
-            double centerZ = moments[0][0][1] / moments[0][0][0];
-            translationalInvariantMoments = calculateMoments(centerX, centerY, centerZ);
+            double[] center = MomentUtilities.getCenter(moments);
+            if (center == null) {
+                center = new double[MOMENT_DIMENSIONS];
+            }
+            // positions are only shifted in dimensions the label map actually has
+            for (int d = labelMap.numDimensions(); d < MOMENT_DIMENSIONS; d++) {
+                center[d] = 0;
+            }
+            translationalInvariantMoments = MomentUtilities.getCentralMoments(moments, center);
         }
         return translationalInvariantMoments;
     }
@@ -112,21 +118,11 @@ public class LabelMoments3D<T extends RealType<T>, U extends RealType<U>> {
     /**
      * Calculate the eigen values
      *
-     * @return array with 3 elements representing the eigen values of the object describing its orientation
+     * @return array with 3 elements in ascending order representing the eigen values of the object describing its orientation
      */
     public double[] getEigenVector() {
         if (eigenvalues == null) {
-            double[][][] tim = getTranslationInvariantMoments();
-            if (tim == null || tim[0][0][0] == 0) {
-                return null;
-            }
-            double[][] covXYZ = {{tim[2][0][0] / tim[0][0][0], tim[1][1][0] / tim[0][0][0], tim[1][0][1] / tim[0][0][0]},
-                    {tim[1][1][0] / tim[0][0][0], tim[0][2][0] / tim[0][0][0], tim[0][1][1] / tim[0][0][0]},
-                    {tim[1][0][1] / tim[0][0][0], tim[0][1][1] / tim[0][0][0], tim[0][0][2] / tim[0][0][0]}};
-
-            Matrix covXYZMatrix = new Matrix(covXYZ);
-            EigenvalueDecomposition eigenvalueDecomposition = new EigenvalueDecomposition(covXYZMatrix);
-            eigenvalues = eigenvalueDecomposition.getRealEigenvalues();
+            eigenvalues = MomentUtilities.getCovarianceEigenvalues(getTranslationInvariantMoments());
         }
         return eigenvalues;
     }
@@ -0,0 +1,1163 @@
+package de.mpicbg.scf.imgtools.number.analyse.image;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import de.mpicbg.scf.imgtools.image.access.PrimitiveRowAccess;
+import net.imglib2.Cursor;
+import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
+import net.imglib2.img.Img;
+import net.imglib2.img.cell.AbstractCellImg;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
+
+/**
+ * This class calculates raw moments up to a given order for all labels of a label map at once. In contrast to LabelMoments3D, which scans the bounding box
+ * of a single label once per moment, the label map (and the optional signal image) is traversed exactly once. Thus, the computational cost is proportional
+ * to the number of pixels and independent of the number of labels.
+ * <p>
+ * The label map is processed row by row. ArrayImgs and PlanarImgs of common pixel types are read directly from their primitive arrays (see
+ * PrimitiveRowAccess), all other images through cursors. Along a row, successive pixels of the same label are summed up first and are added to the moments of that label
+ * when the label changes.
+ * <p>
+ * Besides moments, pixel counts and bounding boxes of all labels are determined in the same sweep. Optionally, the sweep runs in several threads, see
+ * setNumThreads().
+ * <p>
+ * For label maps which do not fit into memory, the streaming constructor takes only the dimensions of the label map. Its planes or blocks are fed one
+ * after the other through addBlock(); only the per-label values are kept in memory.
+ * <p>
+ * Moments are calculated in the first three dimensions (x, y, z). In 2D images, z is considered to be 0. The voxel size is taken into account while
+ * determining the position of a pixel.
+ * <p>
+ * Labels are expected to be positive integer numbers; 0 is background. Results are indexed by label id - 1, analogous to
+ * LabelAnalyser.getLabelsPixelCount(). For label maps with large, sparse ids see setSparseLabelIds().
+ * <p>
+ * Example code can be found in LabelAnalyserTest
+ * <p>
+ * Date: October 2026
+ * <p>
+ * Copyright 2026 Max Planck Institute of Molecular Cell Biology and Genetics,
+ * Dresden, Germany
+ * <p>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * @param <I> Type of the LabelMap
+ * @param <F> Type of the image where signal measures are performed on.
+ */
+public class LabelMomentsAccumulator<I extends RealType<I>, F extends RealType<F>> {
+    private static final int MOMENT_DIMENSIONS = 3;
+    private static final long SLAB_PIXELS = 1 << 16;
+
+    // Input:
+    private final Img<I> labelMap;
+    private final Interval bounds;
+    private Img<F> signalMap;
+    private Img<? extends RealType<?>> overlapMask;
+    private final double[] voxelSize;
+    private final int maxOrder;
+    private int numThreads = 1;
+    private boolean sparseLabelIds = false;
+    private boolean signalStatistics = false;
+
+    // State:
+    private boolean resultsValid = false;
+
+    // Output:
+    private Accumulator result = null;
+    private LabelCensus census = null;
+
+    /**
+     * @param labelMap  image with labelling information
+     * @param voxelSize array with voxel size information, may be null
+     * @param maxOrder  maximum order of moments to be calculated in each dimension. Enter -1 to determine pixel counts and bounding boxes only.
+     */
+    public LabelMomentsAccumulator(Img<I> labelMap, double[] voxelSize, int maxOrder) {
+        this.labelMap = labelMap;
+        this.bounds = labelMap;
+        this.voxelSize = voxelSize;
+        this.maxOrder = maxOrder;
+    }
+
+    /**
+     * Streaming mode: the label map is not given as a whole but block by block through addBlock(). Results can be requested after the last block.
+     *
+     * @param bounds    interval of the complete label map
+     * @param voxelSize array with voxel size information, may be null
+     * @param maxOrder  maximum order of moments to be calculated in each dimension. Enter -1 to determine pixel counts and bounding boxes only.
+     */
+    public LabelMomentsAccumulator(Interval bounds, double[] voxelSize, int maxOrder) {
+        this.labelMap = null;
+        this.bounds = new FinalInterval(bounds);
+        this.voxelSize = voxelSize;
+        this.maxOrder = maxOrder;
+    }
+
+    /**
+     * Accumulate a part of the label map in streaming mode. Blocks must contain complete rows and should not overlap; typically they are single planes or
+     * stacks of planes. Signal and mask are either given for all blocks or for none. Setting the number of threads has no effect in streaming mode.
+     *
+     * @param offset position of the first pixel of the block in the complete label map; dimensions missing in the block (e.g. z of a plane) are taken
+     *               from here
+     * @param labels part of the label map
+     * @param signal signal image of the same part or null
+     * @param mask   overlap mask of the same part or null, see setOverlapMask()
+     */
+    public void addBlock(long[] offset, Img<I> labels, Img<F> signal, Img<? extends RealType<?>> mask) {
+        if (labelMap != null) {
+            throw new IllegalStateException("Blocks can only be added in streaming mode.");
+        }
+        if (resultsValid) {
+            throw new IllegalStateException("Blocks can not be added after results were requested.");
+        }
+        if (labels.dimension(0) != bounds.dimension(0)) {
+            throw new IllegalArgumentException("Blocks must contain complete rows.");
+        }
+        if (result == null) {
+            result = new Accumulator(signal != null, mask != null);
+        }
+        result.addInterval(labels, signal, mask, labels, offset);
+    }
+
+    /**
+     * If a signal image is set, signal weighted moments are calculated in the same sweep in addition to the plain moments.
+     *
+     * @param signalImage image with grey values, same size as the label map
+     */
+    public void setSignalImage(Img<F> signalImage) {
+        this.signalMap = signalImage;
+        resultsValid = false;
+    }
+
+    /**
+     * If a mask is set, the pixels of every label which lie inside the mask (mask value != 0) are counted in the same sweep. See getOverlapVoxelCount().
+     *
+     * @param overlapMask binary image or label map, same size as the label map
+     */
+    public void setOverlapMask(Img<? extends RealType<?>> overlapMask) {
+        this.overlapMask = overlapMask;
+        resultsValid = false;
+    }
+
+    /**
+     * If enabled and a signal image is set, minimum, maximum, sum and standard deviation of the signal of every label are determined in the same sweep.
+     * The sum is accumulated with Kahan-Babuska compensation, the standard deviation with Welford's algorithm, so that large labels do not lose precision.
+     * Partial results of the slabs are merged with the pairwise update of Chan et al.
+     *
+     * @param signalStatistics default: false
+     */
+    public void setSignalStatistics(boolean signalStatistics) {
+        this.signalStatistics = signalStatistics;
+        resultsValid = false;
+    }
+
+    /**
+     * Set the number of threads used for the sweep. The label map is always split into the same slabs of about 65536 pixels along its slowest axis
+     * (whole cell rows for CellImgs), independent of the number of threads. The partial results of the slabs are merged pairwise along a binary tree of
+     * fixed shape over the slab indices. The threads take the slabs one after the other and only decide who computes a slab or a merge, so all results,
+     * including the floating point moments, are identical for any number of threads.
+     * <p>
+     * Every thread accumulates its slabs into an accumulator which it clears and reuses after merging it. Only partial results waiting for their sibling in
+     * the tree are kept; as the slabs are taken in order, these are at most a few per thread and tree level.
+     *
+     * @param numThreads default: 1
+     */
+    public void setNumThreads(int numThreads) {
+        this.numThreads = Math.max(1, numThreads);
+        resultsValid = false;
+    }
+
+    /**
+     * Store per-label values only for label ids which are present in the label map. The ids are collected into a LabelIndexMap while sweeping, so memory
+     * and time depend on the number of present labels instead of the highest label id. Use this mode for label maps with large, sparse ids. All results
+     * are still requested by the original label id; getLabelIds() delivers the present ids in ascending order.
+     *
+     * @param sparseLabelIds default: false
+     */
+    public void setSparseLabelIds(boolean sparseLabelIds) {
+        this.sparseLabelIds = sparseLabelIds;
+        resultsValid = false;
+    }
+
+    /**
+     * @return the highest label id found in the label map
+     */
+    public int getNumLabels() {
+        accumulate();
+        return result.maxLabel;
+    }
+
+    /**
+     * @return label ids of all entries in ascending order: 1 to the highest label id in the default mode, the present ids in sparse mode
+     */
+    public int[] getLabelIds() {
+        return getCensus().getLabelIds();
+    }
+
+    /**
+     * @return highest label id, pixel counts, bounding boxes and present label ids, which were determined in the same sweep as the moments.
+     */
+    public LabelCensus getCensus() {
+        accumulate();
+        if (census == null) {
+            census = new LabelCensus(bounds.numDimensions(), result.maxLabel, result.indexMap, result.numIndices, result.voxelCounts, result.boundingBoxes);
+        }
+        return census;
+    }
+
+    /**
+     * @return number of pixels per label. The array index corresponds to label id - 1.
+     */
+    public long[] getVoxelCounts() {
+        return getCensus().getVoxelCounts();
+    }
+
+    /**
+     * @return bounding boxes of all labels in the format of LabelAnalyser.getLabelsBoundingBoxes(): For every label id - 1 an array containing all
+     * minimum positions followed by all maximum positions. Labels which are not present in the label map have a bounding box of zeros.
+     */
+    public long[][] getBoundingBoxes() {
+        return getCensus().getBoundingBoxes();
+    }
+
+    /**
+     * @param labelId id of the label
+     * @return 3D-Array containing (n+1)*(n+1)*(n+1) elements corresponding to the moments of the object with the given id. n is the maximum order of
+     * moments (given in constructor). Labels which are not present in the label map have all moments equal to 0.
+     */
+    public double[][][] getMoments(int labelId) {
+        accumulate();
+        return unpack(result.moments, labelId);
+    }
+
+    /**
+     * @param labelId id of the label
+     * @return 3D-Array of the signal weighted moments of the object with the given id or null, if no signal image was set.
+     */
+    public double[][][] getSignalMoments(int labelId) {
+        accumulate();
+        if (result.signalMoments == null) {
+            return null;
+        }
+        return unpack(result.signalMoments, labelId);
+    }
+
+    /**
+     * @param labelId id of the label
+     * @param i       order in x
+     * @param j       order in y
+     * @param k       order in z
+     * @return a single moment of the object with the given id
+     */
+    public double getMoment(int labelId, int i, int j, int k) {
+        accumulate();
+        int index = result.indexOf(labelId);
+        if (index < 0) {
+            return 0;
+        }
+        return result.moments[momentIndex(index, i, j, k)];
+    }
+
+    /**
+     * @param labelId id of the label
+     * @param i       order in x
+     * @param j       order in y
+     * @param k       order in z
+     * @return a single signal weighted moment of the object with the given id or NaN, if no signal image was set.
+     */
+    public double getSignalMoment(int labelId, int i, int j, int k) {
+        accumulate();
+        if (result.signalMoments == null) {
+            return Double.NaN;
+        }
+        int index = result.indexOf(labelId);
+        if (index < 0) {
+            return 0;
+        }
+        return result.signalMoments[momentIndex(index, i, j, k)];
+    }
+
+    /**
+     * Central moments are derived in closed form from the moments, see MomentUtilities.getCentralMoments().
+     *
+     * @param labelId id of the label
+     * @return 3D-Array of the central moments of the object with the given id or null, if the maximum order is below 1 or the label is not present.
+     */
+    public double[][][] getCentralMoments(int labelId) {
+        if (maxOrder < 1) {
+            return null;
+        }
+        return MomentUtilities.getCentralMoments(getMoments(labelId));
+    }
+
+    /**
+     * Determine the eigenvalues of the covariance matrices of all labels in one batch, see LabelMoments3D.getEigenVector(). The covariances follow from
+     * the moments up to order 2 without reading the label map again.
+     *
+     * @return for every entry of the census (label id - 1, or dense index in sparse mode) three eigenvalues in ascending order; NaN for labels which are
+     * not present. null, if the maximum order is below 2.
+     */
+    public double[] getCovarianceEigenvalues() {
+        accumulate();
+        if (maxOrder < 2) {
+            return null;
+        }
+        int count = result.numIndices;
+        double[] covariances = new double[count * 6];
+        for (int l = 0; l < count; l++) {
+            double m000 = result.moments[momentIndex(l, 0, 0, 0)];
+            double cx = result.moments[momentIndex(l, 1, 0, 0)] / m000;
+            double cy = result.moments[momentIndex(l, 0, 1, 0)] / m000;
+            double cz = result.moments[momentIndex(l, 0, 0, 1)] / m000;
+            covariances[l * 6] = result.moments[momentIndex(l, 2, 0, 0)] / m000 - cx * cx;
+            covariances[l * 6 + 1] = result.moments[momentIndex(l, 0, 2, 0)] / m000 - cy * cy;
+            covariances[l * 6 + 2] = result.moments[momentIndex(l, 0, 0, 2)] / m000 - cz * cz;
+            covariances[l * 6 + 3] = result.moments[momentIndex(l, 1, 1, 0)] / m000 - cx * cy;
+            covariances[l * 6 + 4] = result.moments[momentIndex(l, 1, 0, 1)] / m000 - cx * cz;
+            covariances[l * 6 + 5] = result.moments[momentIndex(l, 0, 1, 1)] / m000 - cy * cz;
+        }
+        double[] eigenvalues = new double[count * 3];
+        MomentUtilities.getSymmetricEigenvalues(covariances, count, eigenvalues);
+        return eigenvalues;
+    }
+
+    /**
+     * @param labelId id of the label
+     * @return minimum signal of the label or NaN, if the label is not present or signal statistics were not determined, see setSignalStatistics()
+     */
+    public double getSignalMinimum(int labelId) {
+        int index = statisticsIndex(labelId);
+        return index < 0 ? Double.NaN : result.signalMinima[index];
+    }
+
+    /**
+     * @param labelId id of the label
+     * @return maximum signal of the label or NaN, if the label is not present or signal statistics were not determined, see setSignalStatistics()
+     */
+    public double getSignalMaximum(int labelId) {
+        int index = statisticsIndex(labelId);
+        return index < 0 ? Double.NaN : result.signalMaxima[index];
+    }
+
+    /**
+     * @param labelId id of the label
+     * @return compensated sum of the signal of the label or NaN, if the label is not present or signal statistics were not determined, see
+     * setSignalStatistics()
+     */
+    public double getSignalSum(int labelId) {
+        int index = statisticsIndex(labelId);
+        return index < 0 ? Double.NaN : result.signalSums[index] + result.signalSumCompensations[index];
+    }
+
+    /**
+     * @param labelId id of the label
+     * @return sample standard deviation (normalised by n - 1, as in ImageJ's measurements) of the signal of the label, 0 for labels with a single pixel
+     * or NaN, if the label is not present or signal statistics were not determined, see setSignalStatistics()
+     */
+    public double getSignalStandardDeviation(int labelId) {
+        int index = statisticsIndex(labelId);
+        if (index < 0) {
+            return Double.NaN;
+        }
+        long count = result.voxelCounts[index];
+        return count < 2 ? 0 : Math.sqrt(result.signalSquaredDeviations[index] / (count - 1));
+    }
+
+    /**
+     * @param labelId id of the label
+     * @return number of pixels of the label inside the mask or 0, if the label is not present or no mask was set, see setOverlapMask()
+     */
+    public long getOverlapVoxelCount(int labelId) {
+        accumulate();
+        if (result.overlapCounts == null) {
+            return 0;
+        }
+        int index = result.indexOf(labelId);
+        return index < 0 ? 0 : result.overlapCounts[index];
+    }
+
+    private int statisticsIndex(int labelId) {
+        accumulate();
+        if (result.signalMinima == null) {
+            return -1;
+        }
+        int index = result.indexOf(labelId);
+        if (index < 0 || result.voxelCounts[index] == 0) {
+            return -1;
+        }
+        return index;
+    }
+
+    private int momentIndex(int labelIndex, int i, int j, int k) {
+        int orders = maxOrder + 1;
+        return labelIndex * orders * orders * orders + (i * orders + j) * orders + k;
+    }
+
+    private double[][][] unpack(double[] source, int labelId) {
+        int orders = maxOrder + 1;
+        double[][][] moments = new double[orders][orders][orders];
+        int labelIndex = result.indexOf(labelId);
+        if (labelIndex < 0) {
+            return moments;
+        }
+        int index = momentIndex(labelIndex, 0, 0, 0);
+        for (int i = 0; i < orders; i++) {
+            for (int j = 0; j < orders; j++) {
+                for (int k = 0; k < orders; k++) {
+                    moments[i][j][k] = source[index];
+                    index++;
+                }
+            }
+        }
+        return moments;
+    }
+
+    /**
+     * Actual sweep through the label map.
+     */
+    private void accumulate() {
+        if (resultsValid) {
+            return;
+        }
+
+        census = null;
+        if (labelMap == null) {
+            // streaming mode: all blocks were added already
+            if (result == null) {
+                result = new Accumulator(false, false);
+            }
+            result.sortByLabelId();
+            resultsValid = true;
+            return;
+        }
+
+        final SlabReduction reduction = new SlabReduction(getSlabs());
+        int numWorkers = Math.min(numThreads, reduction.numSlabs);
+        if (numWorkers == 1) {
+            reduction.run();
+        } else {
+            ExecutorService executor = Executors.newFixedThreadPool(numWorkers);
+            try {
+                List<Future<Void>> futures = new ArrayList<Future<Void>>();
+                for (int w = 0; w < numWorkers; w++) {
+                    futures.add(executor.submit(new Callable<Void>() {
+                        @Override
+                        public Void call() {
+                            reduction.run();
+                            return null;
+                        }
+                    }));
+                }
+                for (Future<Void> future : futures) {
+                    future.get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            } catch (ExecutionException e) {
+                throw new RuntimeException(e.getCause());
+            } finally {
+                executor.shutdown();
+            }
+        }
+        result = reduction.root;
+        result.sortByLabelId();
+        resultsValid = true;
+    }
+
+    /**
+     * Split the label map into slabs of about SLAB_PIXELS pixels along the slowest axis with more than one pixel. Rows (first dimension) are never split.
+     * The slabs do not depend on the number of threads, so that serial and parallel sweeps sum up in the same order.
+     *
+     * @return list of intervals covering the label map
+     */
+    private List<Interval> getSlabs() {
+        List<Interval> slabs = new ArrayList<Interval>();
+        int numDimensions = labelMap.numDimensions();
+
+        int axis = numDimensions - 1;
+        while (axis > 0 && labelMap.dimension(axis) == 1) {
+            axis--;
+        }
+        if (axis == 0) {
+            slabs.add(labelMap);
+            return slabs;
+        }
+
+        long pixelsPerPlane = Intervals.numElements(labelMap) / labelMap.dimension(axis);
+        long step = Math.max(1, (SLAB_PIXELS + pixelsPerPlane - 1) / pixelsPerPlane);
+
+        // for CellImgs, slab borders are aligned to cell borders so that no cell is read by two threads
+        if (labelMap instanceof AbstractCellImg) {
+            long cellSize = ((AbstractCellImg<?, ?, ?, ?>) labelMap).getCellGrid().cellDimension(axis);
+            step = (step + cellSize - 1) / cellSize * cellSize;
+        }
+
+        long[] min = new long[numDimensions];
+        long[] max = new long[numDimensions];
+        labelMap.min(min);
+        labelMap.max(max);
+        for (long start = labelMap.min(axis); start <= labelMap.max(axis); start += step) {
+            long[] slabMin = min.clone();
+            long[] slabMax = max.clone();
+            slabMin[axis] = start;
+            slabMax[axis] = Math.min(labelMap.max(axis), start + step - 1);
+            slabs.add(new FinalInterval(slabMin, slabMax));
+        }
+        return slabs;
+    }
+
+    /**
+     * Fill the powers value^0, value^1, ... into the target array, starting at the given offset.
+     */
+    private void powers(double value, double[] target, int offset) {
+        double power = 1;
+        for (int i = 0; i <= maxOrder; i++) {
+            target[offset + i] = power;
+            power *= value;
+        }
+    }
+
+    /**
+     * Pairwise reduction of the slab results along a binary tree of fixed shape: node k of level h covers the slabs k * 2^h to (k + 1) * 2^h - 1 and is
+     * the merge of nodes 2k and 2k + 1 of level h - 1, the left one always taking the right one. Any number of workers may call run(); whoever completes
+     * the second child of a node merges both.
+     */
+    private class SlabReduction {
+        private final List<Interval> slabs;
+        private final int numSlabs;
+        private final int height;
+        private final AtomicInteger nextSlab = new AtomicInteger();
+        private final Map<Long, Accumulator> pending = new HashMap<Long, Accumulator>();
+        private final Deque<Accumulator> spares = new ArrayDeque<Accumulator>();
+        private Accumulator root = null;
+
+        private SlabReduction(List<Interval> slabs) {
+            this.slabs = slabs;
+            numSlabs = slabs.size();
+            int h = 0;
+            while ((1L << h) < numSlabs) {
+                h++;
+            }
+            height = h;
+        }
+
+        /**
+         * Take slabs until none is left and merge their results into the tree.
+         */
+        private void run() {
+            Accumulator accumulator = null;
+            for (int s = nextSlab.getAndIncrement(); s < numSlabs; s = nextSlab.getAndIncrement()) {
+                if (accumulator == null) {
+                    synchronized (this) {
+                        accumulator = spares.poll();
+                    }
+                    if (accumulator == null) {
+                        accumulator = new Accumulator(signalMap != null, overlapMask != null);
+                    }
+                }
+                accumulator.addInterval(labelMap, signalMap, overlapMask, slabs.get(s), null);
+                accumulator = complete(accumulator, s);
+            }
+        }
+
+        /**
+         * Move the result of a slab up the tree as long as the sibling of the current node is complete.
+         *
+         * @param accumulator result of the slab
+         * @param slab        index of the slab
+         * @return a cleared accumulator for the next slab or null, if the result has to wait for its sibling
+         */
+        private Accumulator complete(Accumulator accumulator, int slab) {
+            Accumulator spare = null;
+            long index = slab;
+            for (int level = 0; level < height; level++, index >>= 1) {
+                long sibling = index ^ 1;
+                if (sibling << level >= numSlabs) {
+                    // the last node of a level may have no sibling
+                    continue;
+                }
+                Accumulator other;
+                synchronized (this) {
+                    other = pending.remove(((long) level << 32) | sibling);
+                    if (other == null) {
+                        pending.put(((long) level << 32) | index, accumulator);
+                        return spare;
+                    }
+                }
+                Accumulator left = (index & 1) == 0 ? accumulator : other;
+                Accumulator right = left == accumulator ? other : accumulator;
+                left.add(right);
+                right.clear();
+                if (spare == null) {
+                    spare = right;
+                } else {
+                    synchronized (this) {
+                        spares.push(right);
+                    }
+                }
+                accumulator = left;
+            }
+            synchronized (this) {
+                root = accumulator;
+            }
+            return spare;
+        }
+    }
+
+    /**
+     * Per-thread storage of all accumulated values. All per-label values are stored in flat primitive arrays indexed by label id - 1, or in sparse mode by
+     * the dense index from the indexMap.
+     */
+    private class Accumulator {
+        private final int numDimensions = bounds.numDimensions();
+        private final int orders = maxOrder + 1;
+        private final int momentsPerLabel = orders * orders * orders;
+
+        private int maxLabel = 0;
+        private int numIndices = 0;
+        private LabelIndexMap indexMap = sparseLabelIds ? new LabelIndexMap() : null;
+        private long[] voxelCounts = new long[16];
+        private long[] boundingBoxes = new long[16 * 2 * numDimensions];
+        private double[] moments = new double[16 * momentsPerLabel];
+        private double[] signalMoments = null;
+        private long[] overlapCounts = null;
+
+        // signal statistics, only if requested
+        private double[] signalMinima = null;
+        private double[] signalMaxima = null;
+        private double[] signalSums = null;
+        private double[] signalSumCompensations = null;
+        private double[] signalMeans = null;
+        private double[] signalSquaredDeviations = null;
+
+        // look-up tables and buffers for the sweep
+        private final double[] factor = new double[MOMENT_DIMENSIONS];
+        private final double[] xPowers;
+        private final double[] yPowers = new double[orders];
+        private final double[] zPowers = new double[orders];
+        private final double[] yzPowers = new double[orders * orders];
+        private final double[] runSums = new double[orders];
+        private final double[] runSignalSums = new double[orders];
+
+        /**
+         * @param withSignal true, if signal values will be accumulated
+         * @param withMask   true, if the overlap with a mask will be counted
+         */
+        private Accumulator(boolean withSignal, boolean withMask) {
+            if (withSignal) {
+                signalMoments = new double[16 * momentsPerLabel];
+            }
+            if (withMask) {
+                overlapCounts = new long[16];
+            }
+            if (signalStatistics && withSignal) {
+                signalMinima = new double[16];
+                signalMaxima = new double[16];
+                signalSums = new double[16];
+                signalSumCompensations = new double[16];
+                signalMeans = new double[16];
+                signalSquaredDeviations = new double[16];
+            }
+            for (int d = 0; d < MOMENT_DIMENSIONS; d++) {
+                if (voxelSize != null && d < voxelSize.length && d < numDimensions) {
+                    factor[d] = voxelSize[d];
+                } else {
+                    factor[d] = 1;
+                }
+            }
+
+            // powers of all x-coordinates along a row: xPowers[x * orders + i] = x^i
+            int width = (int) bounds.dimension(0);
+            xPowers = new double[width * orders];
+            for (int x = 0; x < width; x++) {
+                powers((bounds.min(0) + x) * factor[0], xPowers, x * orders);
+            }
+        }
+
+        /**
+         * Go row by row through the given interval of the label map (and signal image and mask) and accumulate it. ArrayImgs and PlanarImgs of common types are
+         * read directly from their primitive arrays, all other images through cursors.
+         *
+         * @param labels   label map or a block of it
+         * @param signal   signal image of the same size or null
+         * @param mask     mask of the same size or null
+         * @param interval part of the label map; it must contain complete rows
+         * @param offset   position of the labels' origin in the complete label map or null, if the complete label map is given
+         */
+        private void addInterval(Img<I> labels, Img<F> signal, Img<? extends RealType<?>> mask, Interval interval, long[] offset) {
+            int width = (int) labels.dimension(0);
+            int[] labelRow = new int[width];
+            double[] signalRow = signal == null ? null : new double[width];
+            double[] maskRow = mask == null ? null : new double[width];
+            long[] localPosition = new long[labels.numDimensions()];
+            long[] position = new long[numDimensions];
+
+            PrimitiveRowAccess labelRows = PrimitiveRowAccess.wrap(labels);
+            PrimitiveRowAccess signalRows = null;
+            if (labelRows != null && signal != null && Intervals.equalDimensions(labels, signal)) {
+                signalRows = PrimitiveRowAccess.wrap(signal);
+            }
+            PrimitiveRowAccess maskRows = null;
+            if (labelRows != null && mask != null && Intervals.equalDimensions(labels, mask)) {
+                maskRows = PrimitiveRowAccess.wrap(mask);
+            }
+
+            if (labelRows != null && (signal == null || signalRows != null) && (mask == null || maskRows != null)) {
+                interval.min(localPosition);
+                do {
+                    long row = labelRows.getRowIndex(localPosition);
+                    labelRows.readRow(row, labelRow);
+                    if (signalRows != null) {
+                        signalRows.readRow(row, signalRow);
+                    }
+                    if (maskRows != null) {
+                        maskRows.readRow(row, maskRow);
+                    }
+                    toGlobalPosition(localPosition, offset, position);
+                    addRow(labelRow, signalRow, maskRow, position);
+                } while (PrimitiveRowAccess.nextRow(localPosition, interval));
+                return;
+            }
+
+            Cursor<I> cursor = Views.flatIterable(Views.interval(labels, interval)).localizingCursor();
+            Cursor<F> signalCursor = signal == null ? null : Views.flatIterable(Views.interval(signal, interval)).cursor();
+            Cursor<? extends RealType<?>> maskCursor = mask == null ? null : Views.flatIterable(Views.interval(mask, interval)).cursor();
+
+            while (cursor.hasNext()) {
+                // read one row
+                for (int x = 0; x < width; x++) {
+                    labelRow[x] = (int) cursor.next().getRealDouble();
+                    if (signalCursor != null) {
+                        signalRow[x] = signalCursor.next().getRealDouble();
+                    }
+                    if (maskCursor != null) {
+                        maskRow[x] = maskCursor.next().getRealDouble();
+                    }
+                    if (x == 0) {
+                        cursor.localize(localPosition);
+                    }
+                }
+                toGlobalPosition(localPosition, offset, position);
+                addRow(labelRow, signalRow, maskRow, position);
+            }
+        }
+
+        /**
+         * @param localPosition position in the block
+         * @param offset        position of the block's origin in the complete label map or null
+         * @param position      target: position in the complete label map
+         */
+        private void toGlobalPosition(long[] localPosition, long[] offset, long[] position) {
+            for (int d = 0; d < numDimensions; d++) {
+                long local = d < localPosition.length ? localPosition[d] : 0;
+                position[d] = offset == null ? local : offset[d] + local;
+            }
+        }
+
+        /**
+         * Go through the runs of equal labels in a row.
+         *
+         * @param labelRow  labels of all pixels in the row
+         * @param signalRow signal of all pixels in the row or null
+         * @param maskRow   mask values of all pixels in the row or null
+         * @param position  position of the first pixel in the row
+         */
+        private void addRow(int[] labelRow, double[] signalRow, double[] maskRow, long[] position) {
+            // powers of y and z are constant along a row: yzPowers[j * orders + k] = y^j * z^k
+            if (momentsPerLabel > 0) {
+                powers(numDimensions > 1 ? position[1] * factor[1] : 0, yPowers, 0);
+                powers(numDimensions > 2 ? position[2] * factor[2] : 0, zPowers, 0);
+                for (int j = 0; j < orders; j++) {
+                    for (int k = 0; k < orders; k++) {
+                        yzPowers[j * orders + k] = yPowers[j] * zPowers[k];
+                    }
+                }
+            }
+
+            int width = labelRow.length;
+            int x = 0;
+            while (x < width) {
+                int label = labelRow[x];
+                int runEnd = x + 1;
+                while (runEnd < width && labelRow[runEnd] == label) {
+                    runEnd++;
+                }
+
+                if (label > 0) {
+                    int labelIndex = indexFor(label);
+
+                    // bounding box
+                    int boxIndex = labelIndex * 2 * numDimensions;
+                    if (voxelCounts[labelIndex] == 0) {
+                        for (int d = 0; d < numDimensions; d++) {
+                            boundingBoxes[boxIndex + d] = position[d];
+                            boundingBoxes[boxIndex + numDimensions + d] = position[d];
+                        }
+                        boundingBoxes[boxIndex] = position[0] + x;
+                        boundingBoxes[boxIndex + numDimensions] = position[0] + runEnd - 1;
+                    } else {
+                        for (int d = 0; d < numDimensions; d++) {
+                            long min = d == 0 ? position[0] + x : position[d];
+                            long max = d == 0 ? position[0] + runEnd - 1 : position[d];
+                            if (boundingBoxes[boxIndex + d] > min) {
+                                boundingBoxes[boxIndex + d] = min;
+                            }
+                            if (boundingBoxes[boxIndex + numDimensions + d] < max) {
+                                boundingBoxes[boxIndex + numDimensions + d] = max;
+                            }
+                        }
+                    }
+                    if (signalMinima != null) {
+                        addSignalStatistics(labelIndex, signalRow, x, runEnd);
+                    }
+                    voxelCounts[labelIndex] += runEnd - x;
+                    if (maskRow != null) {
+                        long hits = 0;
+                        for (int runX = x; runX < runEnd; runX++) {
+                            if (maskRow[runX] != 0) {
+                                hits++;
+                            }
+                        }
+                        overlapCounts[labelIndex] += hits;
+                    }
+
+                    // moments
+                    if (momentsPerLabel > 0) {
+                        Arrays.fill(runSums, 0);
+                        Arrays.fill(runSignalSums, 0);
+                        for (int runX = x; runX < runEnd; runX++) {
+                            int powerIndex = runX * orders;
+                            for (int i = 0; i < orders; i++) {
+                                runSums[i] += xPowers[powerIndex + i];
+                            }
+                            if (signalRow != null) {
+                                double signal = signalRow[runX];
+                                for (int i = 0; i < orders; i++) {
+                                    runSignalSums[i] += signal * xPowers[powerIndex + i];
+                                }
+                            }
+                        }
+
+                        int index = labelIndex * momentsPerLabel;
+                        for (int i = 0; i < orders; i++) {
+                            for (int jk = 0; jk < orders * orders; jk++) {
+                                moments[index] += runSums[i] * yzPowers[jk];
+                                if (signalMoments != null) {
+                                    signalMoments[index] += runSignalSums[i] * yzPowers[jk];
+                                }
+                                index++;
+                            }
+                        }
+                    }
+                }
+                x = runEnd;
+            }
+        }
+
+        /**
+         * Update minimum, maximum, compensated sum and Welford's running mean and sum of squared deviations with a run of pixels. Must be called before
+         * the pixel count of the label is increased.
+         */
+        private void addSignalStatistics(int labelIndex, double[] signalRow, int start, int end) {
+            long count = voxelCounts[labelIndex];
+            double minimum = count == 0 ? Double.POSITIVE_INFINITY : signalMinima[labelIndex];
+            double maximum = count == 0 ? Double.NEGATIVE_INFINITY : signalMaxima[labelIndex];
+            double sum = signalSums[labelIndex];
+            double compensation = signalSumCompensations[labelIndex];
+            double mean = signalMeans[labelIndex];
+            double squaredDeviations = signalSquaredDeviations[labelIndex];
+
+            for (int x = start; x < end; x++) {
+                double signal = signalRow[x];
+                if (signal < minimum) {
+                    minimum = signal;
+                }
+                if (signal > maximum) {
+                    maximum = signal;
+                }
+
+                double newSum = sum + signal;
+                if (Math.abs(sum) >= Math.abs(signal)) {
+                    compensation += (sum - newSum) + signal;
+                } else {
+                    compensation += (signal - newSum) + sum;
+                }
+                sum = newSum;
+
+                count++;
+                double delta = signal - mean;
+                mean += delta / count;
+                squaredDeviations += delta * (signal - mean);
+            }
+
+            signalMinima[labelIndex] = minimum;
+            signalMaxima[labelIndex] = maximum;
+            signalSums[labelIndex] = sum;
+            signalSumCompensations[labelIndex] = compensation;
+            signalMeans[labelIndex] = mean;
+            signalSquaredDeviations[labelIndex] = squaredDeviations;
+        }
+
+        /**
+         * Merge the signal statistics of a label of another accumulator into this one. Must be called before the pixel count of the label is increased.
+         */
+        private void addSignalStatistics(int labelIndex, Accumulator other, int otherIndex) {
+            long count = voxelCounts[labelIndex];
+            long otherCount = other.voxelCounts[otherIndex];
+            if (count == 0) {
+                signalMinima[labelIndex] = other.signalMinima[otherIndex];
+                signalMaxima[labelIndex] = other.signalMaxima[otherIndex];
+                signalSums[labelIndex] = other.signalSums[otherIndex];
+                signalSumCompensations[labelIndex] = other.signalSumCompensations[otherIndex];
+                signalMeans[labelIndex] = other.signalMeans[otherIndex];
+                signalSquaredDeviations[labelIndex] = other.signalSquaredDeviations[otherIndex];
+                return;
+            }
+
+            signalMinima[labelIndex] = Math.min(signalMinima[labelIndex], other.signalMinima[otherIndex]);
+            signalMaxima[labelIndex] = Math.max(signalMaxima[labelIndex], other.signalMaxima[otherIndex]);
+
+            double sum = signalSums[labelIndex];
+            double otherSum = other.signalSums[otherIndex];
+            double newSum = sum + otherSum;
+            if (Math.abs(sum) >= Math.abs(otherSum)) {
+                signalSumCompensations[labelIndex] += (sum - newSum) + otherSum;
+            } else {
+                signalSumCompensations[labelIndex] += (otherSum - newSum) + sum;
+            }
+            signalSums[labelIndex] = newSum;
+            signalSumCompensations[labelIndex] += other.signalSumCompensations[otherIndex];
+
+            double totalCount = count + otherCount;
+            double delta = other.signalMeans[otherIndex] - signalMeans[labelIndex];
+            signalMeans[labelIndex] += delta * otherCount / totalCount;
+            signalSquaredDeviations[labelIndex] += other.signalSquaredDeviations[otherIndex] + delta * delta * count * otherCount / totalCount;
+        }
+
+        /**
+         * Merge the values of another accumulator into this one.
+         *
+         * @param other accumulator of another part of the label map
+         */
+        private void add(Accumulator other) {
+            if (other.maxLabel > maxLabel) {
+                maxLabel = other.maxLabel;
+            }
+            if (indexMap == null) {
+                ensureCapacity(other.numIndices);
+            }
+            for (int otherIndex = 0; otherIndex < other.numIndices; otherIndex++) {
+                if (other.voxelCounts[otherIndex] == 0) {
+                    continue;
+                }
+                int labelIndex = otherIndex;
+                if (indexMap != null) {
+                    labelIndex = indexMap.add(other.indexMap.getLabelId(otherIndex));
+                    ensureCapacity(labelIndex + 1);
+                }
+
+                int boxIndex = labelIndex * 2 * numDimensions;
+                int otherBoxIndex = otherIndex * 2 * numDimensions;
+                if (voxelCounts[labelIndex] == 0) {
+                    System.arraycopy(other.boundingBoxes, otherBoxIndex, boundingBoxes, boxIndex, 2 * numDimensions);
+                } else {
+                    for (int d = 0; d < numDimensions; d++) {
+                        boundingBoxes[boxIndex + d] = Math.min(boundingBoxes[boxIndex + d], other.boundingBoxes[otherBoxIndex + d]);
+                        boundingBoxes[boxIndex + numDimensions + d] = Math.max(boundingBoxes[boxIndex + numDimensions + d], other.boundingBoxes[otherBoxIndex + numDimensions + d]);
+                    }
+                }
+                if (signalMinima != null) {
+                    addSignalStatistics(labelIndex, other, otherIndex);
+                }
+                voxelCounts[labelIndex] += other.voxelCounts[otherIndex];
+                if (overlapCounts != null) {
+                    overlapCounts[labelIndex] += other.overlapCounts[otherIndex];
+                }
+
+                int offset = (otherIndex - labelIndex) * momentsPerLabel;
+                for (int m = labelIndex * momentsPerLabel; m < (labelIndex + 1) * momentsPerLabel; m++) {
+                    moments[m] += other.moments[m + offset];
+                    if (signalMoments != null) {
+                        signalMoments[m] += other.signalMoments[m + offset];
+                    }
+                }
+            }
+        }
+
+        /**
+         * Reset all values, so that the arrays can be reused for another part of the label map.
+         */
+        private void clear() {
+            Arrays.fill(voxelCounts, 0, numIndices, 0);
+            Arrays.fill(boundingBoxes, 0, numIndices * 2 * numDimensions, 0);
+            Arrays.fill(moments, 0, numIndices * momentsPerLabel, 0);
+            if (signalMoments != null) {
+                Arrays.fill(signalMoments, 0, numIndices * momentsPerLabel, 0);
+            }
+            if (overlapCounts != null) {
+                Arrays.fill(overlapCounts, 0, numIndices, 0);
+            }
+            if (signalMinima != null) {
+                Arrays.fill(signalMinima, 0, numIndices, 0);
+                Arrays.fill(signalMaxima, 0, numIndices, 0);
+                Arrays.fill(signalSums, 0, numIndices, 0);
+                Arrays.fill(signalSumCompensations, 0, numIndices, 0);
+                Arrays.fill(signalMeans, 0, numIndices, 0);
+                Arrays.fill(signalSquaredDeviations, 0, numIndices, 0);
+            }
+            maxLabel = 0;
+            numIndices = 0;
+            if (indexMap != null) {
+                indexMap = new LabelIndexMap();
+            }
+        }
+
+        /**
+         * In sparse mode, the indices are assigned in the order the labels are found. Reorder all arrays so that the indices follow the ascending label
+         * ids, which makes the result independent of the sweep order.
+         */
+        private void sortByLabelId() {
+            if (indexMap == null) {
+                return;
+            }
+            long[] order = new long[numIndices];
+            for (int i = 0; i < numIndices; i++) {
+                order[i] = ((long) indexMap.getLabelId(i) << 32) | i;
+            }
+            Arrays.sort(order);
+
+            LabelIndexMap sortedIndexMap = new LabelIndexMap(numIndices);
+            long[] sortedVoxelCounts = new long[Math.max(16, numIndices)];
+            long[] sortedBoundingBoxes = new long[sortedVoxelCounts.length * 2 * numDimensions];
+            double[] sortedMoments = new double[sortedVoxelCounts.length * momentsPerLabel];
+            double[] sortedSignalMoments = signalMoments == null ? null : new double[sortedMoments.length];
+            long[] sortedOverlapCounts = overlapCounts == null ? null : new long[sortedVoxelCounts.length];
+            for (int i = 0; i < numIndices; i++) {
+                int oldIndex = (int) order[i];
+                sortedIndexMap.add((int) (order[i] >>> 32));
+                sortedVoxelCounts[i] = voxelCounts[oldIndex];
+                if (overlapCounts != null) {
+                    sortedOverlapCounts[i] = overlapCounts[oldIndex];
+                }
+                System.arraycopy(boundingBoxes, oldIndex * 2 * numDimensions, sortedBoundingBoxes, i * 2 * numDimensions, 2 * numDimensions);
+                System.arraycopy(moments, oldIndex * momentsPerLabel, sortedMoments, i * momentsPerLabel, momentsPerLabel);
+                if (signalMoments != null) {
+                    System.arraycopy(signalMoments, oldIndex * momentsPerLabel, sortedSignalMoments, i * momentsPerLabel, momentsPerLabel);
+                }
+            }
+            if (signalMinima != null) {
+                signalMinima = permute(signalMinima, order);
+                signalMaxima = permute(signalMaxima, order);
+                signalSums = permute(signalSums, order);
+                signalSumCompensations = permute(signalSumCompensations, order);
+                signalMeans = permute(signalMeans, order);
+                signalSquaredDeviations = permute(signalSquaredDeviations, order);
+            }
+            indexMap = sortedIndexMap;
+            voxelCounts = sortedVoxelCounts;
+            boundingBoxes = sortedBoundingBoxes;
+            moments = sortedMoments;
+            signalMoments = sortedSignalMoments;
+            overlapCounts = sortedOverlapCounts;
+        }
+
+        /**
+         * @param values per-label values
+         * @param order  sorted label ids in the upper and old indices in the lower 32 bits
+         * @return values in the new order
+         */
+        private double[] permute(double[] values, long[] order) {
+            double[] result = new double[Math.max(16, order.length)];
+            for (int i = 0; i < order.length; i++) {
+                result[i] = values[(int) order[i]];
+            }
+            return result;
+        }
+
+        /**
+         * @param label id of a label found in the label map
+         * @return index of the label in all per-label arrays, which are enlarged if necessary
+         */
+        private int indexFor(int label) {
+            if (label > maxLabel) {
+                maxLabel = label;
+            }
+            int labelIndex = indexMap == null ? label - 1 : indexMap.add(label);
+            ensureCapacity(labelIndex + 1);
+            return labelIndex;
+        }
+
+        /**
+         * @param labelId id of a label
+         * @return index of the label in all per-label arrays or -1, if the label was not found
+         */
+        private int indexOf(int labelId) {
+            if (indexMap != null) {
+                return indexMap.get(labelId);
+            }
+            if (labelId < 1 || labelId > numIndices) {
+                return -1;
+            }
+            return labelId - 1;
+        }
+
+        private void ensureCapacity(int count) {
+            if (count > numIndices) {
+                numIndices = count;
+            }
+            if (count <= voxelCounts.length) {
+                return;
+            }
+            int capacity = Math.max(count, voxelCounts.length * 2);
+            voxelCounts = Arrays.copyOf(voxelCounts, capacity);
+            if (overlapCounts != null) {
+                overlapCounts = Arrays.copyOf(overlapCounts, capacity);
+            }
+            boundingBoxes = Arrays.copyOf(boundingBoxes, capacity * 2 * numDimensions);
+            moments = Arrays.copyOf(moments, capacity * momentsPerLabel);
+            if (signalMoments != null) {
+                signalMoments = Arrays.copyOf(signalMoments, capacity * momentsPerLabel);
+            }
+            if (signalMinima != null) {
+                signalMinima = Arrays.copyOf(signalMinima, capacity);
+                signalMaxima = Arrays.copyOf(signalMaxima, capacity);
+                signalSums = Arrays.copyOf(signalSums, capacity);
+                signalSumCompensations = Arrays.copyOf(signalSumCompensations, capacity);
+                signalMeans = Arrays.copyOf(signalMeans, capacity);
+                signalSquaredDeviations = Arrays.copyOf(signalSquaredDeviations, capacity);
+            }
+        }
+    }
+}
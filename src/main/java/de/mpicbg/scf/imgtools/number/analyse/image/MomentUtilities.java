@@ -0,0 +1,256 @@
+package de.mpicbg.scf.imgtools.number.analyse.image;
+
+/**
+ * Static helpers for moments as delivered by LabelMoments3D and LabelMomentsAccumulator: central (translation invariant) moments derived in closed form from
+ * raw moments, and eigenvalues of covariance matrices. Nothing in here touches an image again.
+ * <p>
+ * Central moments follow from the raw moments by binomial expansion:
+ * mu_pqr = sum_a sum_b sum_c C(p,a) C(q,b) C(r,c) (-cx)^(p-a) (-cy)^(q-b) (-cz)^(r-c) m_abc.
+ * The expansion is separable and applied one axis after the other.
+ * <p>
+ * Eigenvalues of symmetric 3x3 matrices are determined with the closed-form trigonometric solution (O. K. Smith, 1961) without allocating any objects
+ * per matrix. Many matrices can be processed in one call.
+ * <p>
+ * Date: October 2026
+ * <p>
+ * Copyright 2026 Max Planck Institute of Molecular Cell Biology and Genetics,
+ * Dresden, Germany
+ * <p>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+public class MomentUtilities {
+    private static final int MOMENT_DIMENSIONS = 3;
+
+    /**
+     * Determine central moments with the center of mass as center.
+     *
+     * @param rawMoments moments with (n+1)*(n+1)*(n+1) elements, n &gt;= 1
+     * @return central moments of the same size or null, if the object is empty
+     */
+    public static double[][][] getCentralMoments(double[][][] rawMoments) {
+        double[] center = getCenter(rawMoments);
+        if (center == null) {
+            return null;
+        }
+        return getCentralMoments(rawMoments, center);
+    }
+
+    /**
+     * @param rawMoments moments with (n+1)*(n+1)*(n+1) elements, n &gt;= 1
+     * @return center of mass (x, y, z) or null, if the object is empty
+     */
+    public static double[] getCenter(double[][][] rawMoments) {
+        if (rawMoments == null || rawMoments[0][0][0] == 0) {
+            return null;
+        }
+        return new double[]{
+                rawMoments[1][0][0] / rawMoments[0][0][0],
+                rawMoments[0][1][0] / rawMoments[0][0][0],
+                rawMoments[0][0][1] / rawMoments[0][0][0]};
+    }
+
+    /**
+     * Determine central moments relative to a given center.
+     *
+     * @param rawMoments moments with (n+1)*(n+1)*(n+1) elements
+     * @param center     center (x, y, z); missing coordinates are considered to be 0
+     * @return central moments of the same size
+     */
+    public static double[][][] getCentralMoments(double[][][] rawMoments, double[] center) {
+        int orders = rawMoments.length;
+        double[] flat = new double[orders * orders * orders];
+        int index = 0;
+        for (int i = 0; i < orders; i++) {
+            for (int j = 0; j < orders; j++) {
+                System.arraycopy(rawMoments[i][j], 0, flat, index, orders);
+                index += orders;
+            }
+        }
+
+        getCentralMoments(flat, 0, orders, center, flat, 0);
+
+        double[][][] result = new double[orders][orders][orders];
+        index = 0;
+        for (int i = 0; i < orders; i++) {
+            for (int j = 0; j < orders; j++) {
+                System.arraycopy(flat, index, result[i][j], 0, orders);
+                index += orders;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Determine central moments in flat arrays as used by LabelMomentsAccumulator: the moment of order (i, j, k) is found at offset + (i * orders + j) *
+     * orders + k. Source and target may be the same array.
+     *
+     * @param rawMoments   array containing the raw moments
+     * @param offset       index of the moment of order (0, 0, 0) in rawMoments
+     * @param orders       maximum order + 1
+     * @param center       center (x, y, z); missing coordinates are considered to be 0
+     * @param target       array to write the central moments to
+     * @param targetOffset index of the central moment of order (0, 0, 0) in target
+     */
+    public static void getCentralMoments(double[] rawMoments, int offset, int orders, double[] center, double[] target, int targetOffset) {
+        int count = orders * orders * orders;
+        if (target != rawMoments || targetOffset != offset) {
+            System.arraycopy(rawMoments, offset, target, targetOffset, count);
+        }
+
+        double[][] binomials = getBinomials(orders);
+        double[] powers = new double[orders];
+        double[] buffer = new double[orders];
+
+        // stride of the moment index along x, y and z
+        int[] strides = {orders * orders, orders, 1};
+        for (int d = 0; d < MOMENT_DIMENSIONS; d++) {
+            double c = center != null && d < center.length ? center[d] : 0;
+            if (c == 0) {
+                continue;
+            }
+
+            // powers[e] = (-c)^e
+            powers[0] = 1;
+            for (int e = 1; e < orders; e++) {
+                powers[e] = powers[e - 1] * -c;
+            }
+
+            // expand along axis d for every combination of the orders in the other two axes
+            int stride = strides[d];
+            for (int m = 0; m < count; m++) {
+                if ((m / stride) % orders != 0) {
+                    continue;
+                }
+                int start = targetOffset + m;
+                for (int p = 0; p < orders; p++) {
+                    buffer[p] = target[start + p * stride];
+                }
+                for (int p = 0; p < orders; p++) {
+                    double sum = 0;
+                    for (int a = 0; a <= p; a++) {
+                        sum += binomials[p][a] * powers[p - a] * buffer[a];
+                    }
+                    target[start + p * stride] = sum;
+                }
+            }
+        }
+    }
+
+    /**
+     * Determine the eigenvalues of the covariance matrix of an object.
+     *
+     * @param centralMoments central moments with at least 3*3*3 elements
+     * @return array with 3 eigenvalues in ascending order or null, if the object is empty
+     */
+    public static double[] getCovarianceEigenvalues(double[][][] centralMoments) {
+        if (centralMoments == null || centralMoments[0][0][0] == 0) {
+            return null;
+        }
+        double count = centralMoments[0][0][0];
+        double[] covariance = {
+                centralMoments[2][0][0] / count,
+                centralMoments[0][2][0] / count,
+                centralMoments[0][0][2] / count,
+                centralMoments[1][1][0] / count,
+                centralMoments[1][0][1] / count,
+                centralMoments[0][1][1] / count};
+        double[] eigenvalues = new double[3];
+        getSymmetricEigenvalues(covariance, 1, eigenvalues);
+        return eigenvalues;
+    }
+
+    /**
+     * Determine the eigenvalues of many symmetric 3x3 matrices at once.
+     *
+     * @param matrices    for every matrix the six elements xx, yy, zz, xy, xz, yz
+     * @param count       number of matrices
+     * @param eigenvalues array with at least 3 * count elements; for every matrix the three eigenvalues in ascending order are written to it
+     */
+    public static void getSymmetricEigenvalues(double[] matrices, int count, double[] eigenvalues) {
+        for (int m = 0; m < count; m++) {
+            int index = m * 6;
+            double a11 = matrices[index];
+            double a22 = matrices[index + 1];
+            double a33 = matrices[index + 2];
+            double a12 = matrices[index + 3];
+            double a13 = matrices[index + 4];
+            double a23 = matrices[index + 5];
+
+            double smallest;
+            double middle;
+            double largest;
+
+            double offDiagonal = a12 * a12 + a13 * a13 + a23 * a23;
+            if (offDiagonal == 0) {
+                // diagonal matrix: sort the diagonal
+                smallest = Math.min(a11, Math.min(a22, a33));
+                largest = Math.max(a11, Math.max(a22, a33));
+                middle = a11 + a22 + a33 - smallest - largest;
+            } else {
+                double q = (a11 + a22 + a33) / 3;
+                double b11 = a11 - q;
+                double b22 = a22 - q;
+                double b33 = a33 - q;
+                double p = Math.sqrt((b11 * b11 + b22 * b22 + b33 * b33 + 2 * offDiagonal) / 6);
+
+                // r = det((A - qI) / p) / 2
+                double determinant = b11 * (b22 * b33 - a23 * a23) - a12 * (a12 * b33 - a23 * a13) + a13 * (a12 * a23 - b22 * a13);
+                double r = determinant / (2 * p * p * p);
+
+                double phi;
+                if (r <= -1) {
+                    phi = Math.PI / 3;
+                } else if (r >= 1) {
+                    phi = 0;
+                } else {
+                    phi = Math.acos(r) / 3;
+                }
+
+                largest = q + 2 * p * Math.cos(phi);
+                smallest = q + 2 * p * Math.cos(phi + 2 * Math.PI / 3);
+                middle = 3 * q - largest - smallest;
+            }
+
+            eigenvalues[m * 3] = smallest;
+            eigenvalues[m * 3 + 1] = middle;
+            eigenvalues[m * 3 + 2] = largest;
+        }
+    }
+
+    /**
+     * @param orders number of rows
+     * @return Pascal's triangle: binomials[n][k] = n over k
+     */
+    private static double[][] getBinomials(int orders) {
+        double[][] binomials = new double[orders][];
+        for (int n = 0; n < orders; n++) {
+            binomials[n] = new double[n + 1];
+            binomials[n][0] = 1;
+            binomials[n][n] = 1;
+            for (int k = 1; k < n; k++) {
+                binomials[n][k] = binomials[n - 1][k - 1] + binomials[n - 1][k];
+            }
+        }
+        return binomials;
+    }
+}
@@ -0,0 +1,228 @@
+package de.mpicbg.scf.imgtools.number.analyse.image;
+
+/**
+ * Index over the values of one feature (see LabelAnalyser.getFeatures()): the entries (label id - 1, or dense index in sparse mode) sorted by
+ * ascending value. All entries with a value in a range [lower, upper] form a contiguous part of the sorted order, which is found by binary search.
+ * Threshold changes can thus be evaluated in O(log n) plus the number of entries in the range instead of comparing every value.
+ * <p>
+ * NaN values (e.g. the mean of a label without pixels) are sorted to the end and are not part of any range.
+ * <p>
+ * Date: October 2026
+ * <p>
+ * Copyright 2026 Max Planck Institute of Molecular Cell Biology and Genetics,
+ * Dresden, Germany
+ * <p>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+public class SortedFeatureIndex {
+    private final double[] sortedValues;
+    private final int[] order;
+    private final int numValid;
+
+    /**
+     * @param values one value per entry; the array is not changed
+     */
+    public SortedFeatureIndex(double[] values) {
+        int n = values.length;
+
+        // sort the non-NaN values and carry the entry index along; NaNs are appended in entry order
+        int count = 0;
+        for (double value : values) {
+            if (!Double.isNaN(value)) {
+                count++;
+            }
+        }
+        numValid = count;
+
+        sortedValues = new double[n];
+        order = new int[n];
+        int valid = 0;
+        int invalid = numValid;
+        for (int i = 0; i < n; i++) {
+            if (Double.isNaN(values[i])) {
+                sortedValues[invalid] = Double.NaN;
+                order[invalid] = i;
+                invalid++;
+            } else {
+                sortedValues[valid] = values[i];
+                order[valid] = i;
+                valid++;
+            }
+        }
+        sort(0, numValid - 1);
+    }
+
+    /**
+     * @return number of entries
+     */
+    public int size() {
+        return order.length;
+    }
+
+    /**
+     * @return number of entries which are not NaN; they occupy the positions 0 to getNumValid() - 1
+     */
+    public int getNumValid() {
+        return numValid;
+    }
+
+    /**
+     * @param position position in the sorted order
+     * @return entry index (label id - 1, or dense index in sparse mode) at the given position
+     */
+    public int getIndexAt(int position) {
+        return order[position];
+    }
+
+    /**
+     * @param position position in the sorted order
+     * @return value at the given position
+     */
+    public double getValueAt(int position) {
+        return sortedValues[position];
+    }
+
+    /**
+     * @param lower lower threshold
+     * @return first position with a value &gt;= lower
+     */
+    public int lowerBound(double lower) {
+        int from = 0;
+        int to = numValid;
+        while (from < to) {
+            int middle = (from + to) >>> 1;
+            if (sortedValues[middle] < lower) {
+                from = middle + 1;
+            } else {
+                to = middle;
+            }
+        }
+        return from;
+    }
+
+    /**
+     * @param upper upper threshold
+     * @return first position with a value &gt; upper
+     */
+    public int upperBound(double upper) {
+        int from = 0;
+        int to = numValid;
+        while (from < to) {
+            int middle = (from + to) >>> 1;
+            if (sortedValues[middle] <= upper) {
+                from = middle + 1;
+            } else {
+                to = middle;
+            }
+        }
+        return from;
+    }
+
+    /**
+     * @param lower lower threshold
+     * @param upper upper threshold
+     * @return number of entries with lower &lt;= value &lt;= upper
+     */
+    public int countInRange(double lower, double upper) {
+        return Math.max(0, upperBound(upper) - lowerBound(lower));
+    }
+
+    /**
+     * @param lower lower threshold
+     * @param upper upper threshold
+     * @return entry indices of all values with lower &lt;= value &lt;= upper, in ascending order of the values
+     */
+    public int[] getIndicesInRange(double lower, double upper) {
+        int from = lowerBound(lower);
+        int to = Math.max(from, upperBound(upper));
+        int[] indices = new int[to - from];
+        System.arraycopy(order, from, indices, 0, indices.length);
+        return indices;
+    }
+
+    /**
+     * Sort values and order together: median-of-three quicksort, insertion sort for small parts.
+     */
+    private void sort(int from, int to) {
+        while (to - from > 16) {
+            int middle = (from + to) >>> 1;
+            if (sortedValues[middle] < sortedValues[from]) {
+                swap(middle, from);
+            }
+            if (sortedValues[to] < sortedValues[from]) {
+                swap(to, from);
+            }
+            if (sortedValues[to] < sortedValues[middle]) {
+                swap(to, middle);
+            }
+            double pivot = sortedValues[middle];
+
+            int i = from;
+            int j = to;
+            while (i <= j) {
+                while (sortedValues[i] < pivot) {
+                    i++;
+                }
+                while (sortedValues[j] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    swap(i, j);
+                    i++;
+                    j--;
+                }
+            }
+
+            // recurse into the smaller part to limit the stack depth
+            if (j - from < to - i) {
+                sort(from, j);
+                from = i;
+            } else {
+                sort(i, to);
+                to = j;
+            }
+        }
+
+        for (int i = from + 1; i <= to; i++) {
+            double value = sortedValues[i];
+            int index = order[i];
+            int j = i - 1;
+            while (j >= from && sortedValues[j] > value) {
+                sortedValues[j + 1] = sortedValues[j];
+                order[j + 1] = order[j];
+                j--;
+            }
+            sortedValues[j + 1] = value;
+            order[j + 1] = index;
+        }
+    }
+
+    private void swap(int i, int j) {
+        double value = sortedValues[i];
+        sortedValues[i] = sortedValues[j];
+        sortedValues[j] = value;
+        int index = order[i];
+        order[i] = order[j];
+        order[j] = index;
+    }
+}
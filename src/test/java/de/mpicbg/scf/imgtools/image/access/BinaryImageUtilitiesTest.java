@@ -0,0 +1,105 @@
+package de.mpicbg.scf.imgtools.image.access;
+
+import de.mpicbg.scf.imgtools.image.filter.ImageFilterUtilities;
+import de.mpicbg.scf.imgtools.image.filter.LabelmapMathematicalMorphology;
+import ij.IJ;
+import ij.ImagePlus;
+import net.imglib2.Cursor;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.basictypeaccess.array.LongArray;
+import net.imglib2.img.display.imagej.ImageJFunctions;
+import net.imglib2.type.logic.BitType;
+import net.imglib2.type.numeric.real.FloatType;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Date: October 2026
+ * <p>
+ * Copyright 2026 Max Planck Institute of Molecular Cell Biology and Genetics,
+ * Dresden, Germany
+ * <p>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+public class BinaryImageUtilitiesTest {
+
+    @Test
+    public void testWordOperations() {
+        ArrayImg<BitType, LongArray> a = BinaryImageUtilities.create(10, 7);
+        ArrayImg<BitType, LongArray> b = BinaryImageUtilities.create(10, 7);
+        Cursor<BitType> cursorA = a.cursor();
+        Cursor<BitType> cursorB = b.cursor();
+        for (int i = 0; i < 70; i++) {
+            cursorA.next().set(i % 2 == 0);
+            cursorB.next().set(i % 3 == 0);
+        }
+        assertEquals("count", 35, BinaryImageUtilities.count(a));
+
+        BinaryImageUtilities.not(a);
+        assertEquals("not keeps the bits beyond the last pixel zero", 35, BinaryImageUtilities.count(a));
+
+        BinaryImageUtilities.or(a, b);
+        assertEquals("or", 35 + 12, BinaryImageUtilities.count(a));
+
+        BinaryImageUtilities.and(a, b);
+        assertEquals("and", 24, BinaryImageUtilities.count(a));
+
+        BinaryImageUtilities.andNot(a, b);
+        assertEquals("and not", 0, BinaryImageUtilities.count(a));
+    }
+
+    @Test
+    public void testIfBitPackedMasksAreEquivalent() {
+        ImagePlus imp = IJ.openImage("src/test/resources/labelMapToErode.tif");
+        Img<FloatType> labelMap = ImageJFunctions.convertFloat(imp);
+
+        Img<FloatType> binary = LabelmapMathematicalMorphology.binarizeLabelMap(labelMap);
+        ArrayImg<BitType, LongArray> bits = BinaryImageUtilities.binarize(labelMap);
+        assertTrue("Binary image is bit packed", BinaryImageUtilities.isBitPacked(bits) && !BinaryImageUtilities.isBitPacked(binary));
+
+        Img<FloatType> dilated = LabelmapMathematicalMorphology.dilateBinaryImage(binary, 2);
+        Img<BitType> dilatedBits = LabelmapMathematicalMorphology.dilateBinaryImage(bits, 2, 4);
+        assertTrue("Dilated binary image is bit packed", BinaryImageUtilities.isBitPacked(dilatedBits));
+
+        Img<FloatType> masked = ImageFilterUtilities.maskImage(labelMap, dilated);
+        Img<FloatType> maskedByBits = ImageFilterUtilities.maskImage(labelMap, dilatedBits, true);
+
+        Cursor<FloatType> cursor = masked.cursor();
+        Cursor<FloatType> bitCursor = maskedByBits.cursor();
+        Cursor<BitType> dilatedCursor = dilatedBits.cursor();
+        boolean equal = true;
+        long count = 0;
+        while (cursor.hasNext()) {
+            equal = equal && cursor.next().get() == bitCursor.next().get();
+            if (dilatedCursor.next().get()) {
+                count++;
+            }
+        }
+        assertTrue("Masking with bits equals masking with floats", equal);
+        assertEquals("Count equals the number of set pixels", count, BinaryImageUtilities.count(dilatedBits));
+        imp.close();
+    }
+}
@@ -0,0 +1,122 @@
+package de.mpicbg.scf.imgtools.image.access;
+
+import de.mpicbg.scf.imgtools.image.filter.ImageFilterUtilities;
+import de.mpicbg.scf.imgtools.number.analyse.image.LabelAnalyser;
+import ij.IJ;
+import ij.ImagePlus;
+import java.util.Arrays;
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccess;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.cell.CellImgFactory;
+import net.imglib2.img.display.imagej.ImageJFunctions;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.numeric.real.FloatType;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Date: October 2026
+ * <p>
+ * Copyright 2026 Max Planck Institute of Molecular Cell Biology and Genetics,
+ * Dresden, Germany
+ * <p>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+public class PrimitiveRowAccessTest {
+
+    @Test
+    public void testReadWriteAndLut() {
+        Img<UnsignedShortType> img = ArrayImgs.unsignedShorts(new long[]{4, 3, 2});
+        PrimitiveRowAccess rows = PrimitiveRowAccess.wrap(img);
+        assertNotNull("ArrayImg is supported", rows);
+        assertEquals("number of rows", 6, rows.getNumRows());
+
+        int[] row = {1, 2, 60000, 0};
+        rows.writeRow(4, row);
+
+        long[] position = new long[3];
+        rows.getRowPosition(4, position);
+        assertTrue("row position", Arrays.equals(new long[]{0, 1, 1}, position));
+        assertEquals("row index", 4, rows.getRowIndex(position));
+
+        Cursor<UnsignedShortType> cursor = img.localizingCursor();
+        while (cursor.hasNext()) {
+            cursor.next();
+            if (cursor.getLongPosition(1) == 1 && cursor.getLongPosition(2) == 1) {
+                assertEquals("written value", row[cursor.getIntPosition(0)], cursor.get().get());
+            } else {
+                assertEquals("untouched value", 0, cursor.get().get());
+            }
+        }
+
+        rows.applyLut(4, new int[]{0, 0, 7});
+        int[] result = new int[4];
+        rows.readRow(4, result);
+        assertTrue("look-up table applied", Arrays.equals(new int[]{0, 7, 60000, 0}, result));
+
+        rows.fillZeros(4, new int[]{5, 5, 5, 5});
+        rows.readRow(4, result);
+        assertTrue("only zeros filled", Arrays.equals(new int[]{5, 7, 60000, 5}, result));
+    }
+
+    @Test
+    public void testIfFastPathEqualsGenericPath() {
+        ImagePlus imp = IJ.openImage("src/test/resources/labelmaptest.tif");
+        Img<FloatType> planarImg = ImageJFunctions.convertFloat(imp);
+        assertNotNull("ImagePlusImg is supported", PrimitiveRowAccess.wrap(planarImg));
+
+        Img<FloatType> cellImg = new CellImgFactory<FloatType>(new FloatType(), 5).create(planarImg);
+        assertNull("CellImg is not supported", PrimitiveRowAccess.wrap(cellImg));
+        Cursor<FloatType> source = planarImg.localizingCursor();
+        RandomAccess<FloatType> target = cellImg.randomAccess();
+        while (source.hasNext()) {
+            source.next();
+            target.setPosition(source);
+            target.get().set(source.get());
+        }
+
+        assertTrue("pixel count equal", Arrays.equals(LabelAnalyser.getLabelsPixelCount(cellImg), LabelAnalyser.getLabelsPixelCount(planarImg)));
+        assertTrue("bounding boxes equal", Arrays.deepEquals(LabelAnalyser.getLabelsBoundingBoxes(cellImg), LabelAnalyser.getLabelsBoundingBoxes(planarImg)));
+
+        // mask all pixels with a label above 10
+        Img<FloatType> mask = planarImg.copy();
+        for (FloatType value : mask) {
+            value.setReal(value.getRealFloat() > 10 ? 0 : 1);
+        }
+        Img<FloatType> masked = ImageFilterUtilities.maskImage(planarImg, mask, true);
+        Cursor<FloatType> cursor = masked.cursor();
+        Cursor<FloatType> originalCursor = planarImg.cursor();
+        while (cursor.hasNext()) {
+            float original = originalCursor.next().get();
+            assertEquals("masked value", original > 10 ? 0 : original, cursor.next().get(), 0);
+        }
+
+        imp.close();
+    }
+}
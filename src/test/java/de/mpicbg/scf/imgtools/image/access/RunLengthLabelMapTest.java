@@ -0,0 +1,117 @@
+package de.mpicbg.scf.imgtools.image.access;
+
+import de.mpicbg.scf.imgtools.image.filter.ImageFilterUtilities;
+import de.mpicbg.scf.imgtools.image.filter.LabelmapMathematicalMorphology;
+import de.mpicbg.scf.imgtools.number.analyse.image.LabelAnalyser;
+import ij.IJ;
+import ij.ImagePlus;
+import java.util.Arrays;
+import net.imglib2.Cursor;
+import net.imglib2.img.Img;
+import net.imglib2.img.display.imagej.ImageJFunctions;
+import net.imglib2.type.numeric.integer.IntType;
+import net.imglib2.type.numeric.real.FloatType;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Date: October 2026
+ * <p>
+ * Copyright 2026 Max Planck Institute of Molecular Cell Biology and Genetics,
+ * Dresden, Germany
+ * <p>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+public class RunLengthLabelMapTest {
+
+    @Test
+    public void testIfEncodingIsLossless() {
+        ImagePlus imp = IJ.openImage("src/test/resources/labelMapToErode.tif");
+        Img<FloatType> labelMap = ImageJFunctions.convertFloat(imp);
+
+        RunLengthLabelMap rle = RunLengthLabelMap.fromImage(labelMap);
+        Img<IntType> decoded = rle.toImg();
+        assertTrue("Decoded label map equals original", equals(labelMap, decoded));
+        assertTrue("Runs are fewer than pixels", rle.getNumRuns() < rle.getNumRows() * rle.getRowLength());
+
+        assertTrue("Voxel counts are equal", Arrays.equals(LabelAnalyser.getLabelsPixelCount(labelMap), rle.getVoxelCounts()));
+        assertTrue("Bounding boxes are equal", Arrays.deepEquals(LabelAnalyser.getLabelsBoundingBoxes(labelMap), rle.getBoundingBoxes()));
+
+        imp.close();
+    }
+
+    @Test
+    public void testRunOperations() {
+        ImagePlus imp = IJ.openImage("src/test/resources/labelMapToErode.tif");
+        Img<FloatType> labelMap = ImageJFunctions.convertFloat(imp);
+        Img<FloatType> mask = LabelmapMathematicalMorphology.erodeLabelMap(labelMap, 2);
+
+        RunLengthLabelMap rle = RunLengthLabelMap.fromImage(labelMap);
+        Img<FloatType> masked = ImageFilterUtilities.maskImage(labelMap, mask);
+        assertTrue("Masking", equals(masked, rle.mask(RunLengthLabelMap.fromImage(mask)).toImg()));
+
+        RunLengthLabelMap binary = rle.binarize();
+        assertTrue("Binarization", equals(LabelmapMathematicalMorphology.binarizeLabelMap(labelMap), binary.toImg()));
+        assertTrue("Binarization merges runs", binary.getNumRuns() == RunLengthLabelMap.fromImage(binary.toImg()).getNumRuns());
+
+        int[] lut = new int[rle.getMaxLabel() + 1];
+        for (int i = 1; i < lut.length; i++) {
+            lut[i] = lut.length - i;
+        }
+        lut[1] = 0;
+        RunLengthLabelMap relabelled = rle.relabel(lut);
+        Cursor<FloatType> cursor = labelMap.cursor();
+        long[] position = new long[labelMap.numDimensions()];
+        boolean correct = true;
+        while (cursor.hasNext()) {
+            cursor.fwd();
+            cursor.localize(position);
+            correct &= relabelled.getLabel(position) == lut[(int) cursor.get().getRealFloat()];
+        }
+        assertTrue("Relabelling", correct);
+        assertEquals("Runs of the removed label are dropped", rle.getVoxelCounts()[0], sum(rle.getVoxelCounts()) - sum(relabelled.getVoxelCounts()));
+
+        imp.close();
+    }
+
+    private static long sum(long[] values) {
+        long sum = 0;
+        for (long value : values) {
+            sum += value;
+        }
+        return sum;
+    }
+
+    private static boolean equals(Img<FloatType> expected, Img<IntType> actual) {
+        Cursor<FloatType> cursor = expected.cursor();
+        Cursor<IntType> actualCursor = actual.cursor();
+        while (cursor.hasNext()) {
+            if ((int) cursor.next().getRealFloat() != actualCursor.next().get()) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,102 @@
+package de.mpicbg.scf.imgtools.image.filter;
+
+import de.mpicbg.scf.imgtools.image.neighborhood.ImageConnectivity.Connectivity;
+import net.imglib2.Cursor;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.integer.IntType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.numeric.real.FloatType;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Date: October 2026
+ * <p>
+ * Copyright 2026 Max Planck Institute of Molecular Cell Biology and Genetics,
+ * Dresden, Germany
+ * <p>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+public class ConnectedComponentLabelingTest {
+
+    @Test
+    public void testLabelingWithFaceAndFullConnectivity() {
+        int[] binary = {
+                1, 1, 0, 0, 1,
+                0, 1, 0, 1, 1,
+                0, 0, 1, 0, 0,
+                1, 0, 0, 0, 1};
+        long[] dimensions = {5, 4};
+
+        int[] labels = new int[binary.length];
+        assertEquals("Number of face connected components", 5, ConnectedComponentLabeling.labelComponents(binary, dimensions, Connectivity.FACE, labels));
+        int[] expected = {
+                1, 1, 0, 0, 2,
+                0, 1, 0, 2, 2,
+                0, 0, 3, 0, 0,
+                4, 0, 0, 0, 5};
+        boolean equal = true;
+        for (int i = 0; i < labels.length; i++) {
+            equal = equal && labels[i] == expected[i];
+        }
+        assertTrue("Face connected labels are sequential in flat iteration order", equal);
+
+        assertEquals("Number of fully connected components", 3, ConnectedComponentLabeling.labelComponents(binary, dimensions, Connectivity.FULL, labels));
+        assertTrue("Diagonal pixels are connected", labels[0] == labels[12] && labels[12] == labels[4] && labels[15] == 2 && labels[19] == 3);
+    }
+
+    @Test
+    public void testLabelMapsOfBothTypes() {
+        Img<FloatType> checkerboard = ArrayImgs.floats(512, 512);
+        Cursor<FloatType> cursor = checkerboard.localizingCursor();
+        while (cursor.hasNext()) {
+            cursor.fwd();
+            cursor.get().setReal((cursor.getLongPosition(0) + cursor.getLongPosition(1)) % 2);
+        }
+
+        Img<IntType> faceLabels = ConnectedComponentLabeling.labelComponents(checkerboard, Connectivity.FACE);
+        int maxFaceLabel = 0;
+        for (IntType value : faceLabels) {
+            maxFaceLabel = Math.max(maxFaceLabel, value.get());
+        }
+        assertEquals("Every foreground pixel is a face connected component", 131072, maxFaceLabel);
+
+        boolean thrown = false;
+        try {
+            ConnectedComponentLabeling.labelComponentsUnsignedShort(checkerboard, Connectivity.FACE);
+        } catch (IllegalArgumentException e) {
+            thrown = true;
+        }
+        assertTrue("131072 components do not fit into 16 bit", thrown);
+
+        Img<UnsignedShortType> fullLabels = ConnectedComponentLabeling.labelComponentsUnsignedShort(checkerboard, Connectivity.FULL);
+        int maxFullLabel = 0;
+        for (UnsignedShortType value : fullLabels) {
+            maxFullLabel = Math.max(maxFullLabel, value.get());
+        }
+        assertEquals("All diagonal neighbours are one component", 1, maxFullLabel);
+    }
+}
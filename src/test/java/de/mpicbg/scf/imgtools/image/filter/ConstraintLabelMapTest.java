@@ -3,6 +3,7 @@ package de.mpicbg.scf.imgtools.image.filter;
 import de.mpicbg.scf.imgtools.image.create.image.ImageCreationUtilities;
 import de.mpicbg.scf.imgtools.number.analyse.array.Max;
 import de.mpicbg.scf.imgtools.number.analyse.array.Min;
+import de.mpicbg.scf.imgtools.number.analyse.image.FeatureCondition;
 import de.mpicbg.scf.imgtools.number.analyse.image.LabelAnalyser;
 import de.mpicbg.scf.imgtools.number.analyse.image.LabelAnalyser.Feature;
 import de.mpicbg.scf.imgtools.ui.DebugHelper;
@@ -10,10 +11,13 @@ import ij.IJ;
 import ij.ImagePlus;
 import ij.measure.Calibration;
 import java.util.Arrays;
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.img.Img;
 import net.imglib2.img.display.imagej.ImageJFunctions;
 import net.imglib2.type.numeric.integer.IntType;
 import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.view.Views;
 import org.apache.commons.math3.stat.descriptive.moment.Mean;
 import org.junit.Test;
 
@@ -363,4 +367,304 @@ public class ConstraintLabelMapTest {
     }
 
 
+
+    @Test
+    public void testIfConstraintingSparseLabelIdsWorks() {
+        ImagePlus imp = IJ.openImage("src/test/resources/labelmaptest.tif");
+
+        Calibration calib = imp.getCalibration();
+        double[] voxelSize = new double[]{calib.pixelWidth, calib.pixelHeight, calib.pixelDepth};
+
+        Img<FloatType> wrappedImp = ImageJFunctions.wrapReal(imp);
+
+        // spread the label ids far apart
+        Img<FloatType> sparseImg = wrappedImp.copy();
+        for (FloatType pixel : sparseImg) {
+            pixel.setReal(pixel.getRealDouble() * 100000);
+        }
+
+        ConstraintLabelmap<FloatType, FloatType> clm = new ConstraintLabelmap<FloatType, FloatType>(sparseImg, voxelSize);
+        clm.setSignalImage(wrappedImp);
+        clm.addConstraint(Feature.MEAN, 20, 25);
+        clm.setSparseLabelIds(true);
+
+        LabelAnalyser<FloatType, FloatType> la = new LabelAnalyser<FloatType, FloatType>(clm.getResult(), voxelSize, new Feature[]{Feature.AREA_VOLUME});
+        double[] volumes = la.getFeatures(Feature.AREA_VOLUME);
+        double[] references = {3440.0, 4280.0, 6240.0, 4980.0, 3340.0, 4200.0};
+
+        assertTrue("number of labels after constrainting is correct " + volumes.length + " == " + references.length, Arrays.equals(references, volumes));
+        assertTrue("number of remaining labels is correct", clm.getRemainingLabelsCount() == references.length);
+
+        clm.setKeepIDs(true);
+        la = new LabelAnalyser<FloatType, FloatType>(clm.getResult(), voxelSize, new Feature[]{Feature.AREA_VOLUME});
+        la.setSparseLabelIds(true);
+        assertTrue("remaining label ids are kept", Arrays.equals(new int[]{2000000, 2100000, 2200000, 2300000, 2400000, 2500000}, la.getLabelIds()));
+        assertTrue("remaining labels have the same size", Arrays.equals(references, la.getFeatures(Feature.AREA_VOLUME)));
+
+        imp.close();
+    }
+
+    @Test
+    public void testIfRepeatedConstraintingReusesMeasurements() {
+        ImagePlus imp = IJ.openImage("src/test/resources/labelmaptest.tif");
+
+        Calibration calib = imp.getCalibration();
+        double[] voxelSize = new double[]{calib.pixelWidth, calib.pixelHeight, calib.pixelDepth};
+
+        Img<FloatType> wrappedImp = ImageJFunctions.wrapReal(imp);
+
+        ConstraintLabelmap<FloatType, FloatType> clm = new ConstraintLabelmap<FloatType, FloatType>(wrappedImp, voxelSize);
+        clm.setSignalImage(wrappedImp);
+        clm.addConstraint(Feature.MEAN, 20, 25);
+        assertTrue("number of remaining labels is correct", clm.getRemainingLabelsCount() == 6);
+
+        // change thresholds and keepIds several times; every result must equal the result of a fresh instance
+        for (int run = 0; run < 3; run++) {
+            clm.clearConstraints();
+            clm.addConstraint(Feature.MEAN, 1, 10 + run);
+            clm.addConstraint(Feature.AREA_VOLUME, 0, 8000);
+            clm.setKeepIDs(run % 2 == 1);
+
+            ConstraintLabelmap<FloatType, FloatType> reference = new ConstraintLabelmap<FloatType, FloatType>(wrappedImp, voxelSize);
+            reference.setSignalImage(wrappedImp);
+            reference.addConstraint(Feature.MEAN, 1, 10 + run);
+            reference.addConstraint(Feature.AREA_VOLUME, 0, 8000);
+            reference.setKeepIDs(run % 2 == 1);
+
+            assertTrue("number of remaining labels is equal", clm.getRemainingLabelsCount() == reference.getRemainingLabelsCount());
+            assertTrue("number of affected labels is equal", clm.getAffectedObjectsCount(Feature.MEAN) == reference.getAffectedObjectsCount(Feature.MEAN));
+            assertTrue("number of affected labels is equal", clm.getAffectedObjectsCount(Feature.AREA_VOLUME) == reference.getAffectedObjectsCount(Feature.AREA_VOLUME));
+
+            LabelAnalyser<FloatType, FloatType> la = new LabelAnalyser<FloatType, FloatType>(clm.getResult(), voxelSize, new Feature[]{Feature.AREA_VOLUME});
+            LabelAnalyser<FloatType, FloatType> referenceLa = new LabelAnalyser<FloatType, FloatType>(reference.getResult(), voxelSize, new Feature[]{Feature.AREA_VOLUME});
+            assertTrue("resulting label maps are equal", Arrays.equals(la.getFeatures(Feature.AREA_VOLUME), referenceLa.getFeatures(Feature.AREA_VOLUME)));
+        }
+
+        imp.close();
+    }
+
+    @Test
+    public void testIfIncrementalUpdateEqualsFreshResult() {
+        ImagePlus imp = IJ.openImage("src/test/resources/labelmaptest.tif");
+
+        Calibration calib = imp.getCalibration();
+        double[] voxelSize = new double[]{calib.pixelWidth, calib.pixelHeight, calib.pixelDepth};
+
+        Img<FloatType> wrappedImp = ImageJFunctions.wrapReal(imp);
+
+        ConstraintLabelmap<FloatType, FloatType> clm = new ConstraintLabelmap<FloatType, FloatType>(wrappedImp, voxelSize);
+        clm.setSignalImage(wrappedImp);
+        clm.setIncrementalUpdate(true);
+
+        // move a slider: first with keeping ids (few labels change), then with renumbering
+        double[][] thresholds = {{1, 32}, {5, 32}, {5, 20}, {10, 12}, {3, 30}};
+        for (int keep = 1; keep >= 0; keep--) {
+            for (double[] threshold : thresholds) {
+                clm.clearConstraints();
+                clm.addConstraint(Feature.MEAN, threshold[0], threshold[1]);
+                clm.setKeepIDs(keep == 1);
+
+                ConstraintLabelmap<FloatType, FloatType> reference = new ConstraintLabelmap<FloatType, FloatType>(wrappedImp, voxelSize);
+                reference.setSignalImage(wrappedImp);
+                reference.addConstraint(Feature.MEAN, threshold[0], threshold[1]);
+                reference.setKeepIDs(keep == 1);
+
+                Cursor<FloatType> cursor = clm.getResult().cursor();
+                Cursor<FloatType> referenceCursor = reference.getResult().cursor();
+                boolean equal = true;
+                while (cursor.hasNext()) {
+                    equal = equal && cursor.next().get() == referenceCursor.next().get();
+                }
+                assertTrue("incremental result is equal to fresh result for " + Arrays.toString(threshold), equal);
+                assertTrue("number of remaining labels is equal", clm.getRemainingLabelsCount() == reference.getRemainingLabelsCount());
+                assertTrue("number of affected labels is equal", clm.getAffectedObjectsCount(Feature.MEAN) == reference.getAffectedObjectsCount(Feature.MEAN));
+            }
+        }
+
+        imp.close();
+    }
+
+    @Test
+    public void testIfOutputModesDeliverEqualResults() {
+        ImagePlus imp = IJ.openImage("src/test/resources/labelmaptest.tif");
+
+        Calibration calib = imp.getCalibration();
+        double[] voxelSize = new double[]{calib.pixelWidth, calib.pixelHeight, calib.pixelDepth};
+
+        // mask out the first slice
+        ImagePlus maskImp = imp.duplicate();
+        maskImp.getStack().getProcessor(1).multiply(0);
+
+        for (int masked = 0; masked <= 1; masked++) {
+            Img<FloatType> wrappedImp = ImageJFunctions.wrapReal(imp.duplicate());
+
+            ConstraintLabelmap<FloatType, FloatType> reference = new ConstraintLabelmap<FloatType, FloatType>(wrappedImp, voxelSize);
+            ConstraintLabelmap<FloatType, FloatType> view = new ConstraintLabelmap<FloatType, FloatType>(wrappedImp, voxelSize);
+            view.setOutputMode(ConstraintLabelmap.OutputMode.VIEW);
+            ConstraintLabelmap<FloatType, FloatType> inPlace = new ConstraintLabelmap<FloatType, FloatType>(wrappedImp.copy(), voxelSize);
+            inPlace.setOutputMode(ConstraintLabelmap.OutputMode.IN_PLACE);
+
+            for (ConstraintLabelmap<FloatType, FloatType> clm : Arrays.asList(reference, view, inPlace)) {
+                clm.setSignalImage(wrappedImp);
+                clm.addConstraint(Feature.MEAN, 5, 20);
+                if (masked == 1) {
+                    clm.setMustOverLapWithOtherLabelMap(maskImp);
+                }
+            }
+
+            Img<FloatType> result = reference.getResult();
+            assertTrue("view delivers the same result", equalPixels(result, view.getResultView()));
+            assertTrue("in place mode delivers the same result", equalPixels(result, inPlace.getResult()));
+            assertTrue("materialized view delivers the same result", equalPixels(result, view.getResult()));
+            assertTrue("number of remaining labels is equal", view.getRemainingLabelsCount() == reference.getRemainingLabelsCount() &&
+                    inPlace.getRemainingLabelsCount() == reference.getRemainingLabelsCount());
+        }
+
+        imp.close();
+    }
+
+    @Test
+    public void testIfOverlapConstraintKeepsWholeLabels() {
+        ImagePlus imp = IJ.openImage("src/test/resources/labelmaptest.tif");
+
+        Calibration calib = imp.getCalibration();
+        double[] voxelSize = new double[]{calib.pixelWidth, calib.pixelHeight, calib.pixelDepth};
+
+        Img<FloatType> wrappedImp = ImageJFunctions.wrapReal(imp);
+
+        // mask out the left half of the image
+        ImagePlus maskImp = imp.duplicate();
+        for (int z = 1; z <= maskImp.getNSlices(); z++) {
+            maskImp.getStack().getProcessor(z).set(1);
+            maskImp.getStack().getProcessor(z).setRoi(0, 0, maskImp.getWidth() / 2, maskImp.getHeight());
+            maskImp.getStack().getProcessor(z).setValue(0);
+            maskImp.getStack().getProcessor(z).fill();
+        }
+        Img<FloatType> mask = ImageJFunctions.wrapReal(maskImp);
+
+        // count the overlap per label pixel by pixel
+        LabelAnalyser<FloatType, FloatType> lpa = new LabelAnalyser<FloatType, FloatType>(wrappedImp, voxelSize, new Feature[]{Feature.AREA_VOLUME, Feature.OVERLAP_VOXELS, Feature.OVERLAP_FRACTION});
+        lpa.setOverlapMask(mask);
+        double[] overlapReferences = new double[lpa.getNumLabels()];
+        Cursor<FloatType> cursor = Views.flatIterable(wrappedImp).cursor();
+        Cursor<FloatType> maskCursor = Views.flatIterable(mask).cursor();
+        while (cursor.hasNext()) {
+            int label = (int) cursor.next().get();
+            if (maskCursor.next().get() != 0 && label > 0) {
+                overlapReferences[label - 1]++;
+            }
+        }
+        assertTrue("overlapping voxels are counted", Arrays.equals(overlapReferences, lpa.getFeatures(Feature.OVERLAP_VOXELS)));
+
+        double[] volumes = lpa.getFeatures(Feature.AREA_VOLUME);
+        double[] fractions = lpa.getFeatures(Feature.OVERLAP_FRACTION);
+        int expectedCount = 0;
+        for (int i = 0; i < volumes.length; i++) {
+            assertTrue("overlap fraction of label " + (i + 1) + " is correct", volumes[i] == 0 || fractions[i] == overlapReferences[i] / volumes[i]);
+            if (volumes[i] > 0 && fractions[i] >= 0.6) {
+                expectedCount++;
+            }
+        }
+
+        ConstraintLabelmap<FloatType, FloatType> clm = new ConstraintLabelmap<FloatType, FloatType>(wrappedImp, voxelSize);
+        clm.setOverlapMask(maskImp);
+        clm.addConstraint(Feature.OVERLAP_FRACTION, 0.6, 1);
+        clm.setKeepIDs(true);
+
+        LabelAnalyser<FloatType, FloatType> resultAnalyser = new LabelAnalyser<FloatType, FloatType>(clm.getResult(), voxelSize, new Feature[]{Feature.AREA_VOLUME});
+        resultAnalyser.setSparseLabelIds(true);
+        int[] remainingIds = resultAnalyser.getLabelIds();
+        double[] remainingVolumes = resultAnalyser.getFeatures(Feature.AREA_VOLUME);
+        assertTrue("number of remaining labels is correct", remainingIds.length == expectedCount && clm.getRemainingLabelsCount() == expectedCount);
+        for (int i = 0; i < remainingIds.length; i++) {
+            assertTrue("label " + remainingIds[i] + " is kept completely", fractions[remainingIds[i] - 1] >= 0.6 && remainingVolumes[i] == volumes[remainingIds[i] - 1]);
+        }
+
+        imp.close();
+    }
+
+    @Test
+    public void testIfStreamingDeliversTheSameResult() {
+        final ImagePlus imp = IJ.openImage("src/test/resources/labelmaptest.tif");
+
+        Calibration calib = imp.getCalibration();
+        double[] voxelSize = new double[]{calib.pixelWidth, calib.pixelHeight, calib.pixelDepth};
+
+        Img<FloatType> wrappedImp = ImageJFunctions.wrapReal(imp);
+
+        ConstraintLabelmap<FloatType, FloatType> reference = new ConstraintLabelmap<FloatType, FloatType>(wrappedImp, voxelSize);
+        reference.setSignalImage(wrappedImp);
+        reference.addConstraint(Feature.MEAN, 5, 20);
+        reference.addConstraint(Feature.AREA_VOLUME, 3000, 10000);
+        final Img<FloatType> result = reference.getResult();
+
+        ConstraintLabelmap.PlaneSupplier<FloatType> planes = new ConstraintLabelmap.PlaneSupplier<FloatType>() {
+            @Override
+            public Img<FloatType> getPlane(int z) {
+                return ImageJFunctions.wrapReal(new ImagePlus("plane", imp.getStack().getProcessor(z + 1).duplicate()));
+            }
+        };
+        ConstraintLabelmap<FloatType, FloatType> streaming = new ConstraintLabelmap<FloatType, FloatType>(planes, new long[]{imp.getWidth(), imp.getHeight(), imp.getNSlices()}, voxelSize);
+        streaming.setSignalPlanes(planes);
+        streaming.addConstraint(Feature.MEAN, 5, 20);
+        streaming.addConstraint(Feature.AREA_VOLUME, 3000, 10000);
+
+        final boolean[] equal = {true};
+        final int[] planeCount = {0};
+        streaming.writeResult(new ConstraintLabelmap.PlaneConsumer<FloatType>() {
+            @Override
+            public void consumePlane(int z, Img<FloatType> plane) {
+                equal[0] = equal[0] && equalPixels(Views.hyperSlice(result, 2, z), plane);
+                planeCount[0]++;
+            }
+        });
+        assertTrue("all planes were delivered", planeCount[0] == imp.getNSlices());
+        assertTrue("streamed result equals the result in memory", equal[0]);
+        assertTrue("number of remaining labels is equal", streaming.getRemainingLabelsCount() == reference.getRemainingLabelsCount());
+
+        imp.close();
+    }
+
+    @Test
+    public void testIfConditionsAreEquivalentToConstraints() {
+        ImagePlus imp = IJ.openImage("src/test/resources/labelmaptest.tif");
+
+        Calibration calib = imp.getCalibration();
+        double[] voxelSize = new double[]{calib.pixelWidth, calib.pixelHeight, calib.pixelDepth};
+
+        Img<FloatType> wrappedImp = ImageJFunctions.wrapReal(imp);
+
+        ConstraintLabelmap<FloatType, FloatType> reference = new ConstraintLabelmap<FloatType, FloatType>(wrappedImp, voxelSize);
+        reference.setSignalImage(wrappedImp);
+        reference.addConstraint(Feature.MEAN, 5, 20);
+        reference.addConstraint(Feature.AREA_VOLUME, 3000, 10000);
+
+        // the same constraints, expressed as not(outside the range)
+        FeatureCondition meanTooLow = FeatureCondition.lessThan(FeatureCondition.Term.of(Feature.MEAN), 5);
+        FeatureCondition meanTooHigh = FeatureCondition.greaterThan(FeatureCondition.Term.of(Feature.MEAN), 20);
+        ConstraintLabelmap<FloatType, FloatType> clm = new ConstraintLabelmap<FloatType, FloatType>(wrappedImp, voxelSize);
+        clm.setSignalImage(wrappedImp);
+        FeatureCondition meanInRange = FeatureCondition.not(FeatureCondition.or(meanTooLow, meanTooHigh));
+        clm.addConstraint(meanInRange);
+        clm.addConstraint(FeatureCondition.inRange(FeatureCondition.Term.of(Feature.AREA_VOLUME), 3000, 10000));
+
+        assertTrue("conditions deliver the same result", equalPixels(reference.getResult(), clm.getResult()));
+        assertTrue("number of remaining labels is equal", clm.getRemainingLabelsCount() == reference.getRemainingLabelsCount());
+
+        // a label is affected by the mean constraint if it is too dark or too bright
+        assertTrue("rejections are counted per clause", clm.getAffectedObjectsCount(meanInRange) == reference.getAffectedObjectsCount(Feature.MEAN));
+
+        imp.close();
+    }
+
+    private static boolean equalPixels(RandomAccessibleInterval<FloatType> a, RandomAccessibleInterval<FloatType> b) {
+        Cursor<FloatType> cursor = Views.flatIterable(a).cursor();
+        Cursor<FloatType> otherCursor = Views.flatIterable(b).cursor();
+        while (cursor.hasNext()) {
+            if (cursor.next().get() != otherCursor.next().get()) {
+                return false;
+            }
+        }
+        return true;
+    }
 }
@@ -2,11 +2,17 @@ package de.mpicbg.scf.imgtools.image.filter;
 
 import ij.IJ;
 import ij.ImagePlus;
+import java.util.Random;
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccess;
 import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
 import net.imglib2.img.display.imagej.ImageJFunctions;
 import net.imglib2.type.numeric.real.FloatType;
 import org.junit.Test;
 
+import static org.junit.Assert.assertTrue;
+
 /**
  * Author: Robert Haase, Scientific Computing Facility, MPI-CBG Dresden,
  * rhaase@mpi-cbg.de
@@ -47,4 +53,322 @@ public class LabelmapMathematicalMorphologyTest {
         Img<FloatType> img = ImageJFunctions.convertFloat(imp);
         LabelmapMathematicalMorphology.openingLabelMap(img, 3);
     }
+
+    @Test
+    public void testIfErosionEqualsSphericalNeighborhoodErosion() {
+        Img<FloatType> img = createRandomLabelMap();
+
+        double[][] voxelSizes = {{1, 1}, {1, 2.5}, {0.7, 1}};
+        double[] radii = {1, 2, 2.3, 4};
+        for (double[] voxelSize : voxelSizes) {
+            for (double radius : radii) {
+                Img<FloatType> eroded = LabelmapMathematicalMorphology.erodeLabelMap(img, radius, voxelSize);
+                Cursor<FloatType> cursor = eroded.localizingCursor();
+                RandomAccess<FloatType> original = img.randomAccess();
+                boolean equal = true;
+                while (cursor.hasNext()) {
+                    cursor.fwd();
+                    original.setPosition(cursor);
+                    float expected = original.get().get();
+                    if (expected != 0 && touchesOtherLabel(img, cursor.getLongPosition(0), cursor.getLongPosition(1), expected, radius, voxelSize)) {
+                        expected = 0;
+                    }
+                    equal = equal && cursor.get().get() == expected;
+                }
+                assertTrue("Erosion by " + radius + " with voxel size " + voxelSize[1] + " is correct", equal);
+            }
+        }
+    }
+
+    @Test
+    public void testIfErosionEqualsBoxNeighborhoodErosion() {
+        Img<FloatType> img = createRandomLabelMap();
+
+        for (int distance = 1; distance < 5; distance++) {
+            Img<FloatType> eroded = LabelmapMathematicalMorphology.erodeLabelMap(img, distance);
+            Img<FloatType> dilated = LabelmapMathematicalMorphology.dilateBinaryImage(LabelmapMathematicalMorphology.binarizeLabelMap(img), distance);
+            Cursor<FloatType> cursor = eroded.localizingCursor();
+            RandomAccess<FloatType> original = img.randomAccess();
+            RandomAccess<FloatType> dilatedAccess = dilated.randomAccess();
+            boolean equal = true;
+            while (cursor.hasNext()) {
+                cursor.fwd();
+                original.setPosition(cursor);
+                dilatedAccess.setPosition(cursor);
+                float label = original.get().get();
+                boolean atEdge = touchesOtherLabel(img, cursor.getLongPosition(0), cursor.getLongPosition(1), label, distance);
+                equal = equal && cursor.get().get() == (atEdge ? 0 : label);
+                equal = equal && dilatedAccess.get().get() == (atEdge || label != 0 ? 1 : 0);
+            }
+            assertTrue("Box erosion and dilation by " + distance + " are correct", equal);
+        }
+    }
+
+    @Test
+    public void testIfParallelMorphologyEqualsSerialMorphology() {
+        ImagePlus imp = IJ.openImage("src/test/resources/labelMapToErode.tif");
+        Img<FloatType> img = ImageJFunctions.convertFloat(imp);
+        double[] voxelSize = {1, 1, 2};
+
+        Img<FloatType> serial = LabelmapMathematicalMorphology.openingLabelMap(img, 3);
+        Img<FloatType> parallel = LabelmapMathematicalMorphology.openingLabelMap(img, 3, 4);
+        Img<FloatType> serialSphere = LabelmapMathematicalMorphology.openingLabelMap(img, 2.5, voxelSize);
+        Img<FloatType> parallelSphere = LabelmapMathematicalMorphology.openingLabelMap(img, 2.5, voxelSize, 4);
+
+        Cursor<FloatType> serialCursor = serial.cursor();
+        RandomAccess<FloatType> parallelAccess = parallel.randomAccess();
+        RandomAccess<FloatType> serialSphereAccess = serialSphere.randomAccess();
+        RandomAccess<FloatType> parallelSphereAccess = parallelSphere.randomAccess();
+        boolean equal = true;
+        while (serialCursor.hasNext()) {
+            serialCursor.fwd();
+            parallelAccess.setPosition(serialCursor);
+            serialSphereAccess.setPosition(serialCursor);
+            parallelSphereAccess.setPosition(serialCursor);
+            equal = equal && serialCursor.get().get() == parallelAccess.get().get() && serialSphereAccess.get().get() == parallelSphereAccess.get().get();
+        }
+        assertTrue("Parallel opening equals serial opening", equal);
+        imp.close();
+    }
+
+    @Test
+    public void testIfFusedOpeningEqualsSeparateSteps() {
+        Img<FloatType> img = createRandomLabelMap();
+        double[] voxelSize = {1, 1.5};
+
+        for (int distance = 1; distance < 4; distance++) {
+            Img<FloatType> opened = LabelmapMathematicalMorphology.openingLabelMap(img, distance);
+            Img<FloatType> eroded = LabelmapMathematicalMorphology.erodeLabelMap(img, distance);
+            Img<FloatType> dilated = LabelmapMathematicalMorphology.dilateBinaryImage(LabelmapMathematicalMorphology.binarizeLabelMap(eroded), distance);
+            Img<FloatType> reference = ImageFilterUtilities.maskImage(img, dilated);
+
+            Img<FloatType> openedSphere = LabelmapMathematicalMorphology.openingLabelMap(img, distance + 0.5, voxelSize);
+            Img<FloatType> erodedSphere = LabelmapMathematicalMorphology.erodeLabelMap(img, distance + 0.5, voxelSize);
+            Img<FloatType> dilatedSphere = LabelmapMathematicalMorphology.dilateBinaryImage(LabelmapMathematicalMorphology.binarizeLabelMap(erodedSphere),
+                    distance + 0.5, voxelSize);
+            Img<FloatType> referenceSphere = ImageFilterUtilities.maskImage(img, dilatedSphere);
+
+            Cursor<FloatType> cursor = opened.cursor();
+            Cursor<FloatType> referenceCursor = reference.cursor();
+            Cursor<FloatType> sphereCursor = openedSphere.cursor();
+            Cursor<FloatType> referenceSphereCursor = referenceSphere.cursor();
+            boolean equal = true;
+            while (cursor.hasNext()) {
+                equal = equal && cursor.next().get() == referenceCursor.next().get() && sphereCursor.next().get() == referenceSphereCursor.next().get();
+            }
+            assertTrue("Fused opening by " + distance + " equals erosion, dilation and masking", equal);
+        }
+    }
+
+    @Test
+    public void testIfLabelDilationDoesNotMergeLabels() {
+        Img<FloatType> img = ArrayImgs.floats(20, 5);
+        Img<FloatType> mask = ArrayImgs.floats(20, 5);
+        RandomAccess<FloatType> ra = img.randomAccess();
+        ra.setPosition(new long[]{3, 2});
+        ra.get().setReal(1);
+        ra.setPosition(new long[]{12, 2});
+        ra.get().setReal(2);
+        for (FloatType value : mask) {
+            value.setReal(1);
+        }
+        RandomAccess<FloatType> maskAccess = mask.randomAccess();
+        maskAccess.setPosition(new long[]{9, 2});
+        maskAccess.get().setReal(0);
+
+        Img<FloatType> dilated = LabelmapMathematicalMorphology.dilateLabelMap(img, 4, null);
+        Img<FloatType> dilatedInMask = LabelmapMathematicalMorphology.dilateLabelMap(img, 4, null, mask, 2);
+        RandomAccess<FloatType> result = dilated.randomAccess();
+        RandomAccess<FloatType> resultInMask = dilatedInMask.randomAccess();
+        float[] expected = {1, 1, 1, 1, 1, 1, 1, 1, 2, 2, 2, 2, 2, 2, 2, 2, 2, 0, 0, 0};
+        boolean equal = true;
+        for (int x = 0; x < 20; x++) {
+            result.setPosition(new long[]{x, 2});
+            resultInMask.setPosition(new long[]{x, 2});
+            equal = equal && result.get().get() == expected[x] && resultInMask.get().get() == (x == 9 ? 0 : expected[x]);
+        }
+        assertTrue("Labels grow up to the radius and meet in the middle", equal);
+
+        result.setPosition(new long[]{5, 0});
+        assertTrue("Labels grow in all directions", result.get().get() == 1);
+        result.setPosition(new long[]{16, 0});
+        assertTrue("Labels grow in a sphere", result.get().get() == 0);
+    }
+
+    @Test
+    public void testIfBoundaryFrontErosionEqualsBoxErosion() {
+        ImagePlus imp = IJ.openImage("src/test/resources/labelMapToErode.tif");
+        Img<FloatType> img = ImageJFunctions.convertFloat(imp);
+
+        for (int distance = 1; distance < 5; distance += 3) {
+            Img<FloatType> front = LabelmapMathematicalMorphology.erodeLabelMapFromBoundary(img, distance);
+            Img<FloatType> box = LabelmapMathematicalMorphology.erodeLabelMap(img, distance);
+            Cursor<FloatType> frontCursor = front.cursor();
+            Cursor<FloatType> boxCursor = box.cursor();
+            boolean equal = true;
+            while (frontCursor.hasNext()) {
+                equal = equal && frontCursor.next().get() == boxCursor.next().get();
+            }
+            assertTrue("Boundary front erosion by " + distance + " equals box erosion", equal);
+        }
+        imp.close();
+    }
+
+    @Test
+    public void testIfFusedClosingEqualsSeparateSteps() {
+        Img<FloatType> img = createRandomLabelMap();
+        Img<FloatType> binary = LabelmapMathematicalMorphology.binarizeLabelMap(img);
+        double[] voxelSize = {1, 1.5};
+
+        for (int distance = 1; distance < 4; distance++) {
+            Img<FloatType> closed = LabelmapMathematicalMorphology.closingLabelMap(binary, distance, 2);
+            Img<FloatType> reference = LabelmapMathematicalMorphology.erodeLabelMap(LabelmapMathematicalMorphology.dilateBinaryImage(binary, distance), distance);
+
+            Img<FloatType> closedSphere = LabelmapMathematicalMorphology.closingLabelMap(img, distance + 0.5, voxelSize, 2);
+            Img<FloatType> referenceSphere = LabelmapMathematicalMorphology.erodeLabelMap(
+                    LabelmapMathematicalMorphology.dilateLabelMap(img, distance + 0.5, voxelSize), distance + 0.5, voxelSize);
+
+            Cursor<FloatType> cursor = closed.cursor();
+            Cursor<FloatType> referenceCursor = reference.cursor();
+            Cursor<FloatType> sphereCursor = closedSphere.cursor();
+            Cursor<FloatType> referenceSphereCursor = referenceSphere.cursor();
+            Cursor<FloatType> binaryCursor = binary.cursor();
+            Cursor<FloatType> imgCursor = img.cursor();
+            boolean equal = true;
+            while (cursor.hasNext()) {
+                // labelled pixels are kept, all others are dilated and eroded
+                float binaryValue = binaryCursor.next().get();
+                float label = imgCursor.next().get();
+                float referenceValue = referenceCursor.next().get();
+                float referenceSphereValue = referenceSphereCursor.next().get();
+                equal = equal && cursor.next().get() == (binaryValue != 0 ? binaryValue : referenceValue);
+                equal = equal && sphereCursor.next().get() == (label != 0 ? label : referenceSphereValue);
+            }
+            assertTrue("Fused closing by " + distance + " equals dilation and erosion", equal);
+        }
+    }
+
+    @Test
+    public void testHoleFilling() {
+        float[] labels = {
+                0, 0, 0, 0, 0, 0, 0,
+                0, 2, 2, 2, 2, 0, 0,
+                0, 2, 0, 0, 2, 3, 3,
+                0, 2, 2, 2, 2, 3, 0,
+                0, 0, 0, 0, 0, 3, 3};
+        Img<FloatType> img = ArrayImgs.floats(labels.clone(), 7, 5);
+        Img<FloatType> filled = LabelmapMathematicalMorphology.fillHolesLabelMap(img);
+        RandomAccess<FloatType> ra = filled.randomAccess();
+        ra.setPosition(new long[]{2, 2});
+        assertTrue("Hole is filled", ra.get().get() == 2);
+        ra.setPosition(new long[]{3, 2});
+        assertTrue("Hole is filled completely", ra.get().get() == 2);
+        ra.setPosition(new long[]{6, 3});
+        assertTrue("Gap open to the border is not filled", ra.get().get() == 0);
+
+        labels[17] = 3;
+        Img<FloatType> touching = LabelmapMathematicalMorphology.fillHolesLabelMap(ArrayImgs.floats(labels, 7, 5));
+        ra = touching.randomAccess();
+        ra.setPosition(new long[]{2, 2});
+        assertTrue("Hole between two labels is not filled", ra.get().get() == 0);
+    }
+
+    @Test
+    public void testHoleFillingSliceBySlice() {
+        float[] ring = {
+                0, 0, 0, 0, 0,
+                0, 1, 1, 1, 0,
+                0, 1, 0, 1, 0,
+                0, 1, 1, 1, 0,
+                0, 0, 0, 0, 0};
+        float[] stack = new float[ring.length * 3];
+        for (int z = 0; z < 3; z++) {
+            System.arraycopy(ring, 0, stack, z * ring.length, ring.length);
+        }
+        Img<FloatType> img = ArrayImgs.floats(stack, 5, 5, 3);
+
+        RandomAccess<FloatType> ra = LabelmapMathematicalMorphology.fillHolesLabelMap(img, false).randomAccess();
+        ra.setPosition(new long[]{2, 2, 1});
+        assertTrue("Tube open in z is not filled in 3D", ra.get().get() == 0);
+
+        ra = LabelmapMathematicalMorphology.fillHolesLabelMap(img, true, 2).randomAccess();
+        for (int z = 0; z < 3; z++) {
+            ra.setPosition(new long[]{2, 2, z});
+            assertTrue("Hole in slice " + z + " is filled", ra.get().get() == 1);
+        }
+    }
+
+    @Test
+    public void testIfReconstructionStaysWithinLabels() {
+        Img<FloatType> img = ArrayImgs.floats(new float[]{1, 1, 1, 0, 1, 1, 2, 2, 2, 0}, 10, 1);
+        Img<FloatType> marker = ArrayImgs.floats(10, 1);
+        RandomAccess<FloatType> ra = marker.randomAccess();
+        ra.setPosition(new long[]{7, 0});
+        ra.get().setReal(1);
+
+        Img<FloatType> reconstructed = LabelmapMathematicalMorphology.reconstructLabelMap(img, marker);
+        float[] expected = {0, 0, 0, 0, 0, 0, 2, 2, 2, 0};
+        Cursor<FloatType> cursor = reconstructed.cursor();
+        boolean equal = true;
+        for (float value : expected) {
+            equal = equal && cursor.next().get() == value;
+        }
+        assertTrue("Only the marked label is reconstructed", equal);
+    }
+
+    private static Img<FloatType> createRandomLabelMap() {
+        Random random = new Random(42);
+        Img<FloatType> img = ArrayImgs.floats(23, 17);
+        RandomAccess<FloatType> ra = img.randomAccess();
+        for (int i = 0; i < 12; i++) {
+            int label = i % 4;
+            long x0 = random.nextInt(20), y0 = random.nextInt(14);
+            for (long x = x0; x < Math.min(x0 + 3 + random.nextInt(8), 23); x++) {
+                for (long y = y0; y < Math.min(y0 + 3 + random.nextInt(6), 17); y++) {
+                    ra.setPosition(new long[]{x, y});
+                    ra.get().setReal(label);
+                }
+            }
+        }
+        return img;
+    }
+
+    private static boolean touchesOtherLabel(Img<FloatType> img, long x, long y, float label, int distance) {
+        RandomAccess<FloatType> ra = img.randomAccess();
+        for (long dx = -distance; dx <= distance; dx++) {
+            for (long dy = -distance; dy <= distance; dy++) {
+                boolean inside = x + dx >= 0 && y + dy >= 0 && x + dx < img.dimension(0) && y + dy < img.dimension(1);
+                if (inside) {
+                    ra.setPosition(new long[]{x + dx, y + dy});
+                }
+                if ((inside ? ra.get().get() : 0) != label) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean touchesOtherLabel(Img<FloatType> img, long x, long y, float label, double radius, double[] voxelSize) {
+        RandomAccess<FloatType> ra = img.randomAccess();
+        int reachX = (int) (radius / voxelSize[0]);
+        int reachY = (int) (radius / voxelSize[1]);
+        for (long dx = -reachX; dx <= reachX; dx++) {
+            for (long dy = -reachY; dy <= reachY; dy++) {
+                double distanceX = dx * voxelSize[0];
+                double distanceY = dy * voxelSize[1];
+                if (distanceX * distanceX + distanceY * distanceY > radius * radius) {
+                    continue;
+                }
+                if (x + dx < 0 || y + dy < 0 || x + dx >= img.dimension(0) || y + dy >= img.dimension(1)) {
+                    return true;
+                }
+                ra.setPosition(new long[]{x + dx, y + dy});
+                if (ra.get().get() != label) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
 }
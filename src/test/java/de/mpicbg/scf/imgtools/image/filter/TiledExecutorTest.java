@@ -0,0 +1,73 @@
+package de.mpicbg.scf.imgtools.image.filter;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
+import org.junit.Test;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Date: October 2026
+ * <p>
+ * Copyright 2026 Max Planck Institute of Molecular Cell Biology and Genetics,
+ * Dresden, Germany
+ * <p>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+public class TiledExecutorTest {
+
+    @Test
+    public void testIfTilesCoverTheIntervalOnce() {
+        final Interval interval = new FinalInterval(new long[]{2, 0, 5}, new long[]{41, 99, 74});
+        TiledExecutor executor = new TiledExecutor(interval, new long[]{3, 3, 1});
+        executor.setTileSize(new long[]{16, 30, 7});
+        executor.setNumThreads(4);
+
+        List<Interval> tiles = executor.getTiles();
+        assertTrue("Number of tiles is correct", tiles.size() == 3 * 4 * 10);
+
+        Interval extended = executor.getExtendedTile(tiles.get(1));
+        assertTrue("Halo is clipped", extended.min(0) == 15 && extended.max(0) == 36 && extended.min(1) == 0 && extended.max(1) == 32 && extended.min(2) == 5);
+
+        final AtomicIntegerArray counts = new AtomicIntegerArray(40 * 100 * 70);
+        executor.run(new TiledExecutor.TileOperation() {
+            @Override
+            public void process(Interval tile, Interval extendedTile) {
+                for (long z = tile.min(2); z <= tile.max(2); z++) {
+                    for (long y = tile.min(1); y <= tile.max(1); y++) {
+                        for (long x = tile.min(0); x <= tile.max(0); x++) {
+                            counts.incrementAndGet((int) ((x - 2) + 40 * (y + 100 * (z - 5))));
+                        }
+                    }
+                }
+            }
+        });
+        boolean once = true;
+        for (int i = 0; i < counts.length(); i++) {
+            once = once && counts.get(i) == 1;
+        }
+        assertTrue("Every pixel is processed once", once);
+    }
+}
@@ -0,0 +1,64 @@
+package de.mpicbg.scf.imgtools.number.analyse.image;
+
+import de.mpicbg.scf.imgtools.number.analyse.image.FeatureCondition.Term;
+import de.mpicbg.scf.imgtools.number.analyse.image.LabelAnalyser.Feature;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import org.junit.Test;
+
+import static de.mpicbg.scf.imgtools.number.analyse.image.FeatureCondition.and;
+import static de.mpicbg.scf.imgtools.number.analyse.image.FeatureCondition.greaterThan;
+import static de.mpicbg.scf.imgtools.number.analyse.image.FeatureCondition.inRange;
+import static de.mpicbg.scf.imgtools.number.analyse.image.FeatureCondition.lessThan;
+import static de.mpicbg.scf.imgtools.number.analyse.image.FeatureCondition.not;
+import static de.mpicbg.scf.imgtools.number.analyse.image.FeatureCondition.or;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Date: October 2026
+ * <p>
+ * Copyright 2026 Max Planck Institute of Molecular Cell Biology and Genetics,
+ * Dresden, Germany
+ * <p>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+public class FeatureConditionTest {
+
+    @Test
+    public void testIfConditionsAreEvaluatedCorrectly() {
+        EnumMap<Feature, double[]> features = new EnumMap<Feature, double[]>(Feature.class);
+        features.put(Feature.MEAN, new double[]{1, 10, 20, Double.NaN, 5});
+        features.put(Feature.AREA_VOLUME, new double[]{100, 100, 1000, 0, 10});
+
+        FeatureCondition small = lessThan(Term.of(Feature.AREA_VOLUME), 50);
+        FeatureCondition bright = greaterThan(Term.ratio(Term.of(Feature.MEAN), Term.of(Feature.AREA_VOLUME)), 0.05);
+        FeatureCondition condition = and(or(bright, small), not(inRange(Term.of(Feature.MEAN), 15, 25)));
+
+        boolean[] result = condition.evaluate(features, 5);
+        assertTrue("condition is evaluated correctly " + Arrays.toString(result), Arrays.equals(new boolean[]{false, true, false, false, true}, result));
+        assertTrue("rejected labels are counted per clause", condition.getRejectedCount() == 3 && small.getRejectedCount() == 3 && bright.getRejectedCount() == 2);
+        assertTrue("features are collected", condition.getFeatures().equals(EnumSet.of(Feature.MEAN, Feature.AREA_VOLUME)));
+    }
+}
@@ -219,7 +219,175 @@ public class LabelAnalyserTest {
         imp.close();
     }
 
+    @Test
+    public void testIfParallelMeasurementIsEqualToSerial() {
+        ImagePlus imp = IJ.openImage("src/test/resources/labelmaptest.tif");
+        Img<FloatType> img = ImagePlusAdapter.wrap(imp);
+
+        long[] counts = LabelAnalyser.getLabelsPixelCount(img);
+        long[][] boundingBoxes = LabelAnalyser.getLabelsBoundingBoxes(img);
+
+        for (int numThreads = 2; numThreads <= 4; numThreads++) {
+            assertTrue("Parallel pixel count with " + numThreads + " threads is correct", Arrays.equals(counts, LabelAnalyser.getLabelsPixelCount(img, numThreads)));
+            assertTrue("Parallel bounding boxes with " + numThreads + " threads are correct", Arrays.deepEquals(boundingBoxes, LabelAnalyser.getLabelsBoundingBoxes(img, numThreads)));
+
+            LabelAnalyser<FloatType, FloatType> lpa = new LabelAnalyser<FloatType, FloatType>(img, new double[]{1, 1, 1}, new Feature[]{Feature.AREA_VOLUME, Feature.MEAN});
+            lpa.setSignalImage(img);
+            lpa.setNumThreads(numThreads);
+            double[] volumes = lpa.getFeatures(Feature.AREA_VOLUME);
+            double[] means = lpa.getFeatures(Feature.MEAN);
+            for (int i = 0; i < counts.length; i++) {
+                assertTrue("Volume " + i + " is correct", volumes[i] == counts[i]);
+                assertTrue("Mean " + i + " is correct", means[i] == i + 1);
+            }
+        }
+
+        imp.close();
+    }
+
+    @Test
+    public void testIfCensusMatchesSeparateMeasurements() {
+        ImagePlus imp = IJ.openImage("src/test/resources/labelmaptest.tif");
+        Img<FloatType> img = ImagePlusAdapter.wrap(imp);
+
+        LabelCensus census = LabelAnalyser.getLabelCensus(img);
+        long[] counts = LabelAnalyser.getLabelsPixelCount(img);
 
+        assertTrue("Maximum label is correct", census.getMaxLabel() == counts.length);
+        assertTrue("Pixel counts are equal", Arrays.equals(counts, census.getVoxelCounts()));
+        assertTrue("Bounding boxes are equal", Arrays.deepEquals(LabelAnalyser.getLabelsBoundingBoxes(img), census.getBoundingBoxes()));
+        assertTrue("Pixel counts from the census are equal", Arrays.equals(counts, LabelAnalyser.getLabelsPixelCount(census)));
+        assertTrue("Bounding boxes from the census are equal",
+                Arrays.deepEquals(LabelAnalyser.getLabelsBoundingBoxes(img), LabelAnalyser.getLabelsBoundingBoxes(census)));
+        assertTrue("Bounding intervals from the census", LabelAnalyser.getLabelsBoundingIntervals(census).length == counts.length);
+
+        int[] presentLabels = census.getPresentLabels();
+        assertTrue("All labels are present", presentLabels.length == counts.length);
+        for (int i = 0; i < presentLabels.length; i++) {
+            assertTrue("Label " + (i + 1) + " is present", presentLabels[i] == i + 1 && census.isPresent(i + 1));
+        }
+
+        imp.close();
+    }
+
+    @Test
+    public void testIfSparseLabelIdsAreMeasuredCorrectly() {
+        ImagePlus imp = IJ.openImage("src/test/resources/labelmaptest.tif");
+        Img<FloatType> img = ImagePlusAdapter.wrap(imp);
+        long[] counts = LabelAnalyser.getLabelsPixelCount(img);
+
+        // spread the label ids far apart
+        Img<FloatType> sparseImg = img.copy();
+        for (FloatType pixel : sparseImg) {
+            pixel.setReal(pixel.getRealDouble() * 100000);
+        }
+
+        LabelAnalyser<FloatType, FloatType> lpa = new LabelAnalyser<FloatType, FloatType>(sparseImg, new double[]{1, 1, 1}, new Feature[]{Feature.AREA_VOLUME, Feature.MEAN});
+        lpa.setSignalImage(sparseImg);
+        lpa.setSparseLabelIds(true);
+        lpa.setNumThreads(2);
 
+        int[] labelIds = lpa.getLabelIds();
+        double[] volumes = lpa.getFeatures(Feature.AREA_VOLUME);
+        double[] means = lpa.getFeatures(Feature.MEAN);
+        assertTrue("Number of labels is correct", lpa.getNumLabels() == counts.length && labelIds.length == counts.length && volumes.length == counts.length);
+        for (int i = 0; i < counts.length; i++) {
+            assertTrue("Label id " + i + " is correct", labelIds[i] == (i + 1) * 100000);
+            assertTrue("Volume " + i + " is correct", volumes[i] == counts[i]);
+            assertTrue("Mean " + i + " is correct", means[i] == labelIds[i]);
+        }
 
+        LabelCensus census = lpa.getCensus();
+        assertTrue("Census is sparse", census.isSparse());
+        assertTrue("Maximum label is correct", census.getMaxLabel() == counts.length * 100000);
+        assertTrue("Present labels are correct", Arrays.equals(labelIds, census.getPresentLabels()));
+        assertTrue("Absent label has no pixels", census.getVoxelCount(100001) == 0 && census.getIndex(100001) == -1);
+        assertTrue("Bounding boxes are equal", Arrays.equals(LabelAnalyser.getLabelsBoundingBoxes(img)[4], census.getBoundingBox(500000)));
+
+        imp.close();
+    }
+
+    @Test
+    public void testIfExtendedFeaturesAreMeasuredInOneSweep() {
+        ImagePlus imp = IJ.openImage("src/test/resources/labelmaptest.tif");
+        Img<FloatType> img = ImagePlusAdapter.wrap(imp);
+        long[] counts = LabelAnalyser.getLabelsPixelCount(img);
+        long[][] boundingBoxes = LabelAnalyser.getLabelsBoundingBoxes(img);
+        Interval[] boundingIntervals = LabelAnalyser.getLabelsBoundingIntervals(img);
+
+        // signal: label id in the upper half of every label, label id + 2 in the lower half of the image
+        Img<FloatType> signal = img.copy();
+        Cursor<FloatType> cursor = signal.localizingCursor();
+        while (cursor.hasNext()) {
+            cursor.fwd();
+            if (cursor.getLongPosition(1) >= imp.getHeight() / 2 && cursor.get().getRealDouble() > 0) {
+                cursor.get().setReal(cursor.get().getRealDouble() + 2);
+            }
+        }
+
+        LabelAnalyser<FloatType, FloatType> lpa = new LabelAnalyser<FloatType, FloatType>(img, new double[]{1, 1, 1}, Feature.values());
+        lpa.setSignalImage(signal);
+        lpa.setNumThreads(2);
+
+        double[] minima = lpa.getFeatures(Feature.MIN);
+        double[] maxima = lpa.getFeatures(Feature.MAX);
+        double[] sums = lpa.getFeatures(Feature.SUM);
+        double[] means = lpa.getFeatures(Feature.MEAN);
+        double[] standardDeviations = lpa.getFeatures(Feature.STDDEV);
+        double[] centroidsX = lpa.getFeatures(Feature.CENTROID_X);
+        double[] centroidsY = lpa.getFeatures(Feature.CENTROID_Y);
+        double[] centroidsZ = lpa.getFeatures(Feature.CENTROID_Z);
+        double[] bbox = lpa.getFeatures(Feature.BBOX);
+
+        for (int i = 0; i < counts.length; i++) {
+            int labelId = i + 1;
+            assertTrue("Minimum " + i + " is correct", minima[i] == labelId || minima[i] == labelId + 2);
+            assertTrue("Maximum " + i + " is correct", maxima[i] == labelId || maxima[i] == labelId + 2);
+            assertTrue("Sum " + i + " is consistent with mean", Math.abs(sums[i] - means[i] * counts[i]) < 1e-6 * sums[i]);
+
+            // two values only: the standard deviation follows from the fraction of pixels with the higher value
+            double fraction = (means[i] - minima[i]) / 2;
+            double reference = minima[i] == maxima[i] ? 0 : 2 * Math.sqrt(fraction * (1 - fraction) * counts[i] / (counts[i] - 1));
+            assertTrue("Standard deviation " + i + " is correct " + standardDeviations[i] + " == " + reference, Math.abs(standardDeviations[i] - reference) < 1e-9);
+
+            LabelMoments3D<FloatType, FloatType> lm3d = new LabelMoments3D<FloatType, FloatType>(img, labelId, boundingIntervals[i], new double[]{1, 1, 1}, 1);
+            double[][][] moments = lm3d.getMoments();
+            assertTrue("Centroid X " + i + " is correct", Math.abs(centroidsX[i] - moments[1][0][0] / moments[0][0][0]) < 1e-9);
+            assertTrue("Centroid Y " + i + " is correct", Math.abs(centroidsY[i] - moments[0][1][0] / moments[0][0][0]) < 1e-9);
+            assertTrue("Centroid Z " + i + " is correct", Math.abs(centroidsZ[i] - moments[0][0][1] / moments[0][0][0]) < 1e-9);
+
+            for (int d = 0; d < 6; d++) {
+                assertTrue("Bounding box " + i + " is correct", bbox[i * 6 + d] == boundingBoxes[i][d]);
+            }
+        }
+
+        imp.close();
+    }
+
+    @Test
+    public void testIfBorderTouchingLabelsAreDetected() {
+        ImagePlus imp = IJ.openImage("src/test/resources/labelmaptest.tif");
+        Img<FloatType> img = ImagePlusAdapter.wrap(imp);
+
+        LabelAnalyser<FloatType, FloatType> lpa = new LabelAnalyser<FloatType, FloatType>(img, null,
+                new Feature[]{Feature.TOUCHES_BORDER, Feature.TOUCHES_BORDER_X, Feature.TOUCHES_BORDER_Y, Feature.TOUCHES_BORDER_Z});
+        double[] touchesBorder = lpa.getFeatures(Feature.TOUCHES_BORDER);
+        double[][] touchesBorderPerAxis = {lpa.getFeatures(Feature.TOUCHES_BORDER_X), lpa.getFeatures(Feature.TOUCHES_BORDER_Y),
+                lpa.getFeatures(Feature.TOUCHES_BORDER_Z)};
+
+        long[][] boundingBoxes = LabelAnalyser.getLabelsBoundingBoxes(img);
+        long[] pixelCounts = LabelAnalyser.getLabelsPixelCount(img);
+        int numDimensions = img.numDimensions();
+        for (int i = 0; i < boundingBoxes.length; i++) {
+            boolean any = false;
+            for (int d = 0; d < numDimensions; d++) {
+                boolean touches = pixelCounts[i] > 0 && (boundingBoxes[i][d] == 0 || boundingBoxes[i][numDimensions + d] == img.dimension(d) - 1);
+                assertTrue("border in axis " + d + " of label " + (i + 1) + " is correct", touchesBorderPerAxis[d][i] == (touches ? 1 : 0));
+                any = any || touches;
+            }
+            assertTrue("border of label " + (i + 1) + " is correct", touchesBorder[i] == (any ? 1 : 0));
+        }
+
+        imp.close();
+    }
 }
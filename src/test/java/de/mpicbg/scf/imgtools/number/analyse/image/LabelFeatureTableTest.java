@@ -0,0 +1,98 @@
+package de.mpicbg.scf.imgtools.number.analyse.image;
+
+import de.mpicbg.scf.imgtools.number.analyse.image.LabelAnalyser.Feature;
+import ij.IJ;
+import ij.ImagePlus;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Arrays;
+import net.imglib2.img.ImagePlusAdapter;
+import net.imglib2.img.Img;
+import net.imglib2.type.numeric.real.FloatType;
+import org.junit.Test;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Date: October 2026
+ * <p>
+ * Copyright 2026 Max Planck Institute of Molecular Cell Biology and Genetics,
+ * Dresden, Germany
+ * <p>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+public class LabelFeatureTableTest {
+
+    @Test
+    public void testIfTableContainsAllFeatures() {
+        ImagePlus imp = IJ.openImage("src/test/resources/labelmaptest.tif");
+        Img<FloatType> img = ImagePlusAdapter.wrap(imp);
+
+        LabelAnalyser<FloatType, FloatType> lpa = new LabelAnalyser<FloatType, FloatType>(img, new double[]{1, 1, 1}, new Feature[]{Feature.AREA_VOLUME, Feature.MEAN, Feature.BBOX});
+        lpa.setSignalImage(img);
+        LabelFeatureTable table = lpa.getFeatureTable();
+
+        assertTrue("Number of rows is correct", table.getNumRows() == lpa.getNumLabels());
+        assertTrue("Number of columns is correct", table.getNumColumns() == 2 + 6);
+        assertTrue("Label ids are correct", Arrays.equals(lpa.getLabelIds(), table.getLabelIds()));
+        assertTrue("Volume column is not copied", table.getDoubleColumn(table.getColumnIndex("AREA_VOLUME")) == lpa.getFeatures(Feature.AREA_VOLUME));
+
+        long[][] boundingBoxes = LabelAnalyser.getLabelsBoundingBoxes(img);
+        int minZ = table.getColumnIndex("BBOX_MIN_Z");
+        int maxX = table.getColumnIndex("BBOX_MAX_X");
+        for (int i = 0; i < table.getNumRows(); i++) {
+            assertTrue("Bounding box " + i + " is correct", table.getValue(i, minZ) == boundingBoxes[i][2] && table.getValue(i, maxX) == boundingBoxes[i][3]);
+        }
+
+        LabelFeatureTable floatTable = lpa.getFeatureTable(true);
+        assertTrue("Single precision column", floatTable.isSinglePrecision(0) && floatTable.getDoubleColumn(0) == null);
+        assertTrue("Single precision value", floatTable.getValue(3, 1) == (float) table.getValue(3, 1));
+
+        imp.close();
+    }
+
+    @Test
+    public void testIfExportWorks() throws IOException {
+        LabelFeatureTable table = new LabelFeatureTable(new int[]{3, 1000000, 7});
+        table.addColumn("AREA_VOLUME", new double[]{1, 2.5, 300});
+        table.addColumn("MEAN", new float[]{0.5f, -1, 42});
+
+        StringWriter writer = new StringWriter();
+        table.writeCsv(writer);
+        assertTrue("CSV is correct", writer.toString().equals("ID,AREA_VOLUME,MEAN\n3,1.0,0.5\n1000000,2.5,-1.0\n7,300.0,42.0\n"));
+
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        table.writeBinary(stream);
+        byte[] bytes = stream.toByteArray();
+        assertTrue("Binary size is correct", bytes.length == 12 + (5 + 11) + (5 + 4) + 3 * (4 + 8 + 4));
+        assertTrue("Binary is little endian", bytes[0] == 0x31 && bytes[4] == 3 && bytes[5] == 0);
+
+        LabelFeatureTable readTable = LabelFeatureTable.readBinary(new ByteArrayInputStream(bytes));
+        assertTrue("Label ids are equal", Arrays.equals(table.getLabelIds(), readTable.getLabelIds()));
+        assertTrue("Column names are equal", readTable.getColumnName(0).equals("AREA_VOLUME") && readTable.getColumnName(1).equals("MEAN"));
+        assertTrue("Double column is equal", Arrays.equals(table.getDoubleColumn(0), readTable.getDoubleColumn(0)));
+        assertTrue("Float column is equal", Arrays.equals(table.getFloatColumn(1), readTable.getFloatColumn(1)));
+    }
+}
@@ -74,4 +74,33 @@ public class LabelMoments3DTest {
         assertTrue(pos[2] == 5);
     }
 
+    @Test
+    public void testIfCentralMomentsAndEigenvaluesAreCorrect() {
+        // a cuboid of 6 x 3 x 2 pixels; the variance of n consecutive positions is (n * n - 1) / 12
+        Img<FloatType> img = ArrayImgs.floats(new long[]{10, 10, 10});
+        Interval cuboid = Intervals.createMinMax(new long[]{2, 3, 1, 7, 5, 2});
+        for (FloatType pixel : Views.interval(img, cuboid)) {
+            pixel.setReal(1);
+        }
+
+        LabelMoments3D<FloatType, FloatType> lm3d = new LabelMoments3D<FloatType, FloatType>(img, 1, cuboid, new double[]{1, 1, 1}, 2);
+        double[][][] centralMoments = lm3d.getTranslationInvariantMoments();
+
+        double count = 6 * 3 * 2;
+        assertTrue("Volume is correct", centralMoments[0][0][0] == count);
+        assertTrue("First order central moments vanish", Math.abs(centralMoments[1][0][0]) < 1e-9 && Math.abs(centralMoments[0][1][0]) < 1e-9 && Math.abs(centralMoments[0][0][1]) < 1e-9);
+        assertTrue("Mixed central moments vanish", Math.abs(centralMoments[1][1][0]) < 1e-9 && Math.abs(centralMoments[1][0][1]) < 1e-9 && Math.abs(centralMoments[0][1][1]) < 1e-9);
+        assertTrue("Variance in x is correct", Math.abs(centralMoments[2][0][0] / count - 35.0 / 12) < 1e-9);
+        assertTrue("Variance in y is correct", Math.abs(centralMoments[0][2][0] / count - 8.0 / 12) < 1e-9);
+        assertTrue("Variance in z is correct", Math.abs(centralMoments[0][0][2] / count - 3.0 / 12) < 1e-9);
+
+        double[] eigenvalues = lm3d.getEigenVector();
+        double[] references = {3.0 / 12, 8.0 / 12, 35.0 / 12};
+        LabelMomentsAccumulator<FloatType, FloatType> lma = new LabelMomentsAccumulator<FloatType, FloatType>(img, new double[]{1, 1, 1}, 2);
+        double[] batchEigenvalues = lma.getCovarianceEigenvalues();
+        for (int i = 0; i < 3; i++) {
+            assertTrue("Eigenvalue " + i + " is correct " + eigenvalues[i] + " == " + references[i], Math.abs(eigenvalues[i] - references[i]) < 1e-9);
+            assertTrue("Batch eigenvalue " + i + " is correct " + batchEigenvalues[i] + " == " + references[i], Math.abs(batchEigenvalues[i] - references[i]) < 1e-9);
+        }
+    }
 }
@@ -0,0 +1,122 @@
+package de.mpicbg.scf.imgtools.number.analyse.image;
+
+import ij.IJ;
+import ij.ImagePlus;
+import java.util.Arrays;
+import java.util.Random;
+import net.imglib2.Interval;
+import net.imglib2.img.ImagePlusAdapter;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.real.FloatType;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Date: October 2026
+ * <p>
+ * Copyright 2026 Max Planck Institute of Molecular Cell Biology and Genetics,
+ * Dresden, Germany
+ * <p>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+public class LabelMomentsAccumulatorTest {
+
+    @Test
+    public void testIfMomentsAreEqualToLabelMoments3D() {
+        ImagePlus imp = IJ.openImage("src/test/resources/labelmaptest.tif");
+        Img<FloatType> img = ImagePlusAdapter.wrap(imp);
+        double[] voxelSize = {1, 1, 1};
+
+        LabelMomentsAccumulator<FloatType, FloatType> lma = new LabelMomentsAccumulator<FloatType, FloatType>(img, voxelSize, 2);
+        lma.setSignalImage(img);
+
+        long[] counts = LabelAnalyser.getLabelsPixelCount(img);
+        assertEquals("Number of labels is correct", counts.length, lma.getNumLabels());
+
+        Interval[] boundingIntervals = LabelAnalyser.getLabelsBoundingIntervals(img);
+        for (int i = 0; i < Math.min(10, counts.length); i++) {
+            assertEquals("Pixelcount[" + i + "] is correct", counts[i], lma.getVoxelCounts()[i]);
+
+            LabelMoments3D<FloatType, FloatType> lm3d = new LabelMoments3D<FloatType, FloatType>(img, i + 1, boundingIntervals[i], voxelSize, 2);
+            assertMomentsEqual(lm3d.getMoments(), lma.getMoments(i + 1));
+
+            lm3d.setSignalImage(img);
+            assertMomentsEqual(lm3d.getMoments(), lma.getSignalMoments(i + 1));
+        }
+
+        imp.close();
+    }
+
+    @Test
+    public void testIfParallelMomentsAreIdenticalToSerial() {
+        // 1200 planes of 1920 pixels give 35 slabs, more than most of the thread counts below
+        long[] dimensions = {48, 40, 1200};
+        float[] labels = new float[48 * 40 * 1200];
+        float[] signal = new float[labels.length];
+        Random random = new Random(2);
+        for (int i = 0; i < labels.length; i++) {
+            labels[i] = i > 0 && random.nextInt(4) > 0 ? labels[i - 1] : random.nextInt(6);
+            signal[i] = random.nextFloat() * 1000;
+        }
+        Img<FloatType> labelMap = ArrayImgs.floats(labels, dimensions);
+        Img<FloatType> signalMap = ArrayImgs.floats(signal, dimensions);
+        double[] voxelSize = {0.3, 0.7, 1.9};
+
+        LabelMomentsAccumulator<FloatType, FloatType> serial = new LabelMomentsAccumulator<FloatType, FloatType>(labelMap, voxelSize, 2);
+        serial.setSignalImage(signalMap);
+        serial.setSignalStatistics(true);
+
+        for (int numThreads : new int[]{2, 3, 17, 64}) {
+            LabelMomentsAccumulator<FloatType, FloatType> parallel = new LabelMomentsAccumulator<FloatType, FloatType>(labelMap, voxelSize, 2);
+            parallel.setSignalImage(signalMap);
+            parallel.setSignalStatistics(true);
+            parallel.setNumThreads(numThreads);
+
+            assertTrue("Pixel counts with " + numThreads + " threads are identical", Arrays.equals(serial.getVoxelCounts(), parallel.getVoxelCounts()));
+            for (int label = 1; label <= serial.getNumLabels(); label++) {
+                assertTrue("Moments of label " + label + " with " + numThreads + " threads are identical",
+                        Arrays.deepEquals(serial.getMoments(label), parallel.getMoments(label)));
+                assertTrue("Signal moments of label " + label + " with " + numThreads + " threads are identical",
+                        Arrays.deepEquals(serial.getSignalMoments(label), parallel.getSignalMoments(label)));
+                assertEquals("Signal sum of label " + label + " is identical", serial.getSignalSum(label), parallel.getSignalSum(label), 0);
+                assertEquals("Signal standard deviation of label " + label + " is identical", serial.getSignalStandardDeviation(label),
+                        parallel.getSignalStandardDeviation(label), 0);
+            }
+        }
+    }
+
+    private void assertMomentsEqual(double[][][] reference, double[][][] moments) {
+        for (int i = 0; i < reference.length; i++) {
+            for (int j = 0; j < reference[i].length; j++) {
+                for (int k = 0; k < reference[i][j].length; k++) {
+                    double tolerance = Math.abs(reference[i][j][k]) * 1e-9;
+                    assertTrue("Moment " + i + j + k + " is correct " + reference[i][j][k] + " == " + moments[i][j][k],
+                            Math.abs(reference[i][j][k] - moments[i][j][k]) <= tolerance);
+                }
+            }
+        }
+    }
+}